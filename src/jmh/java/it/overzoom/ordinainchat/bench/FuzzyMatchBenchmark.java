@@ -0,0 +1,74 @@
+package it.overzoom.ordinainchat.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.overzoom.ordinainchat.util.TextUtils;
+import it.overzoom.ordinainchat.util.TrigramIndex;
+
+/** Ricerca fuzzy sul catalogo: scansione lineare con similarity contro indice di trigrammi. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FuzzyMatchBenchmark {
+
+    private static final String[] SPECIES = { "orata", "spigola", "branzino", "salmone", "tonno",
+            "pesce spada", "gamberi", "gambero rosso", "scampi", "cozze", "vongole", "calamari", "seppie",
+            "polpo", "alici", "sarde", "sgombro", "merluzzo", "baccalà", "rombo", "sogliola", "triglie",
+            "cernia", "dentice", "ricciola", "ostriche", "astice", "aragosta", "totani", "moscardini" };
+    private static final String[] QUALIFIERS = { "fresco", "surgelato", "decongelato", "di mare",
+            "d'allevamento", "selvaggio", "del Mediterraneo", "atlantico", "grande", "piccole", "sgusciati",
+            "in filetti", "a tranci", "pulito", "extra", "bio" };
+    private static final String[] QUERIES = { "orate fresche", "spigola selvaggia", "gamberi rossi",
+            "filetti di merluzzo", "polipo", "vongole veraci", "tonno a tranci", "calamaro" };
+
+    @Param({ "500", "5000" })
+    int products;
+
+    private List<String> names;
+    private TrigramIndex index;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        names = new ArrayList<>(products);
+        for (int i = 0; i < products; i++)
+            names.add(SPECIES[rnd.nextInt(SPECIES.length)] + " " + QUALIFIERS[rnd.nextInt(QUALIFIERS.length)]
+                    + " " + (i / 100));
+        index = TrigramIndex.build(names);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        String q = QUERIES[next++ & 7];
+        double best = -1;
+        int bestOrd = -1;
+        for (int i = 0; i < names.size(); i++) {
+            double s = TextUtils.similarity(names.get(i), q);
+            if (s > best) {
+                best = s;
+                bestOrd = i;
+            }
+            if (s >= 0.999)
+                return i;
+        }
+        return (best >= 0.5) ? bestOrd : -1;
+    }
+
+    @Benchmark
+    public int trigramIndex() {
+        return index.bestMatch(QUERIES[next++ & 7], 0.5);
+    }
+}
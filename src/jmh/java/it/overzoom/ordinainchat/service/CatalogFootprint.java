@@ -0,0 +1,107 @@
+package it.overzoom.ordinainchat.service;
+
+import java.lang.ref.Reference;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Heap trattenuto dal catalogo, prodotti compresi: mappe boxed di prima
+ * (id → entry, nome → id, lista ordinata, cache dei nomi) contro la tabella a
+ * colonne. Misura con GC forzati prima e dopo la costruzione, una JVM con
+ * SerialGC; si lancia con {@code ./gradlew catalogFootprint}.
+ */
+public final class CatalogFootprint {
+
+    private static final String[] SPECIES = { "orata", "spigola", "branzino", "salmone", "tonno",
+            "pesce spada", "gamberi", "gambero rosso", "scampi", "cozze", "vongole", "calamari", "seppie",
+            "polpo", "alici", "sarde", "sgombro", "merluzzo", "baccalà", "rombo", "sogliola", "triglie" };
+    private static final String[] QUALIFIERS = { "fresco", "surgelato", "decongelato", "di mare",
+            "d'allevamento", "selvaggio", "del Mediterraneo", "atlantico", "grande", "in filetti", "a tranci" };
+    private static final String[] PORTS = { "Bari", "Brindisi", "Taranto", "Manfredonia", "Monopoli", "Molfetta" };
+
+    /** Com'era prima: entry con token, due mappe immutabili, lista e cache dei nomi. */
+    record BoxedEntry(McpProduct product, String name, String normalized, List<String> tokens) {
+    }
+
+    public static void main(String[] args) {
+        // primo giro a vuoto: caricamento classi e tabelle statiche fuori dalla misura
+        retained(1_000, CatalogFootprint::boxedMaps);
+        retained(1_000, CatalogFootprint::columnar);
+        System.out.printf("%10s %16s %16s %10s%n", "prodotti", "boxed (B/prod)", "colonne (B/prod)", "rapporto");
+        for (int n : new int[] { 5_000, 50_000, 500_000 }) {
+            long boxed = retained(n, CatalogFootprint::boxedMaps);
+            long columnar = retained(n, CatalogFootprint::columnar);
+            System.out.printf("%10d %16d %16d %9.1fx%n", n, boxed / n, columnar / n, (double) boxed / columnar);
+        }
+    }
+
+    /** Byte trattenuti dalla struttura costruita su n prodotti, dopo aver lasciato andare l'input. */
+    static long retained(int n, IntFunction<Object> builder) {
+        long base = usedHeap();
+        Object structure = builder.apply(n);
+        long used = usedHeap() - base;
+        Reference.reachabilityFence(structure);
+        return used;
+    }
+
+    static Object boxedMaps(int n) {
+        List<McpProduct> input = products(n);
+        Map<Long, BoxedEntry> byId = new HashMap<>(n * 2);
+        for (McpProduct p : input) {
+            String name = p.displayName();
+            String norm = TextUtils.normalize(name);
+            byId.put(p.id(), new BoxedEntry(p, name, norm, List.of(norm.split(" "))));
+        }
+        Map<Long, BoxedEntry> frozen = Map.copyOf(byId);
+        Map<String, Long> norm = new HashMap<>(n * 2);
+        for (BoxedEntry e : frozen.values())
+            norm.put(e.normalized(), e.product().id());
+        Map<Long, String> nameCache = new ConcurrentHashMap<>();
+        for (McpProduct p : input)
+            nameCache.put(p.id(), p.displayName());
+        return List.of(frozen, Map.copyOf(norm), List.copyOf(frozen.values()), nameCache);
+    }
+
+    static Object columnar(int n) {
+        return CatalogTable.build(products(n));
+    }
+
+    /** Prodotti come arrivano dal JSON: ogni stringa è un'istanza a sé. */
+    static List<McpProduct> products(int n) {
+        Random rnd = new Random(7);
+        List<McpProduct> out = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            String name = SPECIES[rnd.nextInt(SPECIES.length)] + " " + QUALIFIERS[rnd.nextInt(QUALIFIERS.length)]
+                    + " " + i;
+            BigDecimal price = BigDecimal.valueOf(500 + rnd.nextInt(4000), 2);
+            out.add(new McpProduct(i, new String(name), null, null, price, null,
+                    new String(rnd.nextBoolean() ? "FRESH" : "FROZEN"), new String("WILD_CAUGHT"),
+                    new String("2025-10-0" + (1 + rnd.nextInt(9))), new String("Adriatico meridionale"),
+                    new String("37.2.1"), new String("IT"), new String(PORTS[rnd.nextInt(PORTS.length)]),
+                    rnd.nextInt(10) == 0));
+        }
+        return out;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,89 @@
+package it.overzoom.ordinainchat.util;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** QuantityParser contro il vecchio parseQuantityKg con regex (-prof gc per le allocazioni). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuantityParserBenchmark {
+
+    private static final String[] UTTERANCES = { "Vorrei 1,5 kg di cozze per stasera",
+            "due chili e mezzo di sarde", "3 etti e mezzo di salmone affumicato", "un paio di orate",
+            "500 g di gamberi", "una cassetta di alici", "ciao, cosa avete di fresco oggi?",
+            "un chilo e 200 grammi di spigola" };
+
+    private int next;
+
+    @Benchmark
+    public Object quantityParser() {
+        return QuantityParser.parse(UTTERANCES[next++ & 7]).orElse(null);
+    }
+
+    @Benchmark
+    public BigDecimal legacyRegex() {
+        return legacyParseQuantityKg(UTTERANCES[next++ & 7]);
+    }
+
+    /** parseQuantityKg prima di QuantityParser, come riferimento. */
+    static BigDecimal legacyParseQuantityKg(String s) {
+        if (s == null)
+            return null;
+        String t = s.toLowerCase(Locale.ITALY).trim()
+                .replaceAll("[^\\p{L}\\p{N}\\s\\.,/]", " ")
+                .replaceAll("\\s+", " ").trim();
+
+        t = t.replace("mezzo", "0,5").replace("mezza", "0,5")
+                .replace("un chilo", "1").replace("uno chilo", "1")
+                .replace("un kilo", "1").replace("uno kilo", "1")
+                .replace("un mezzo", "0,5").replace("mezzetto", "0,5");
+
+        java.util.regex.Matcher frac = java.util.regex.Pattern
+                .compile("(\\d+)\\s*/\\s*(\\d+)").matcher(t);
+        if (frac.find()) {
+            try {
+                BigDecimal num = new BigDecimal(frac.group(1));
+                BigDecimal den = new BigDecimal(frac.group(2));
+                BigDecimal val = num.divide(den, 3, java.math.RoundingMode.HALF_UP);
+                t = frac.replaceFirst(val.toPlainString().replace('.', ','));
+            } catch (Exception ignored) {
+            }
+        }
+
+        java.util.regex.Matcher m = java.util.regex.Pattern
+                .compile("(\\d+(?:[\\.,]\\d+)?)").matcher(t);
+        if (!m.find())
+            return null;
+
+        String numStr = m.group(1).replace('.', ',');
+        BigDecimal qty;
+        try {
+            qty = new BigDecimal(numStr.replace(',', '.'));
+        } catch (Exception e) {
+            return null;
+        }
+
+        boolean hasKg = t.contains("kg") || t.contains("chilo") || t.contains("kilo") || t.contains("chili")
+                || t.contains("kili");
+        boolean hasEtti = t.contains("etto") || t.contains("etti") || t.contains("hg");
+        boolean hasGrammi = t.contains("grammi") || t.contains("gr") || t.contains("g");
+
+        if (hasEtti)
+            qty = qty.multiply(new BigDecimal("0.1"));
+        else if (hasGrammi)
+            qty = qty.divide(new BigDecimal("1000"), 3, java.math.RoundingMode.HALF_UP);
+
+        if (qty.compareTo(BigDecimal.ZERO) <= 0)
+            return null;
+        return qty.setScale(3, java.math.RoundingMode.HALF_UP).stripTrailingZeros();
+    }
+}
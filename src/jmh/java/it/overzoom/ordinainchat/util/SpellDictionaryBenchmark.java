@@ -0,0 +1,92 @@
+package it.overzoom.ordinainchat.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Correzione di una parola: cancellazioni simmetriche contro distanza da
+ * tutto il vocabolario; aggiornamento incrementale contro ricostruzione.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpellDictionaryBenchmark {
+
+    private static final String[] TYPOS = { "spigla", "ortata", "rosi", "calamrai", "vongle", "merluzo",
+            "gamebri", "surgleato" };
+    private static final String[] WORDS = { "orata", "spigola", "branzino", "salmone", "tonno", "pesce",
+            "spada", "gamberi", "gambero", "rosso", "rossi", "scampi", "cozze", "vongole", "calamari", "seppie",
+            "polpo", "alici", "sarde", "sgombro", "merluzzo", "surgelato", "decongelato", "mare", "selvaggio" };
+    private static final String LETTERS = "abcdefghilmnopqrstuvz";
+
+    @Param({ "1000", "20000" })
+    int words;
+
+    private Map<String, Integer> vocabulary;
+    private Map<String, Integer> changed;
+    private SpellDictionary dict;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        vocabulary = new HashMap<>();
+        for (String w : WORDS)
+            vocabulary.put(w, 50);
+        while (vocabulary.size() < words) {
+            StringBuilder sb = new StringBuilder();
+            int len = 4 + rnd.nextInt(8);
+            for (int i = 0; i < len; i++)
+                sb.append(LETTERS.charAt(rnd.nextInt(LETTERS.length())));
+            vocabulary.put(sb.toString(), 1 + rnd.nextInt(5));
+        }
+        dict = SpellDictionary.build(vocabulary);
+        // un delta tipico: un prodotto nuovo con una parola mai vista
+        changed = new HashMap<>(vocabulary);
+        changed.put("mazara", 1);
+    }
+
+    @Benchmark
+    public String symmetricDelete() {
+        return dict.correct(TYPOS[next++ & 7]);
+    }
+
+    @Benchmark
+    public String fullScan() {
+        String q = TYPOS[next++ & 7];
+        int max = SpellDictionary.maxDistance(q.length());
+        String best = null;
+        int bestDist = max + 1;
+        for (String w : vocabulary.keySet()) {
+            int d = SpellDictionary.distance(q, w, max);
+            if (d < bestDist) {
+                best = w;
+                bestDist = d;
+            }
+        }
+        return best;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SpellDictionary rebuild() {
+        return SpellDictionary.build(changed);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SpellDictionary incrementalUpdate() {
+        return dict.update(changed);
+    }
+}
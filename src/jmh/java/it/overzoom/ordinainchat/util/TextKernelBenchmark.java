@@ -0,0 +1,47 @@
+package it.overzoom.ordinainchat.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** normalize/similarity: tabella di TextFold contro la versione con regex (-prof gc per le allocazioni). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TextKernelBenchmark {
+
+    private static final String[] NAMES = { "Orata fresca del Mediterraneo", "Gamberi rossi di Mazara",
+            "BACCALÀ dissalato (a tranci)", "Pesce spada – trancio", "Filetti di merluzzo surgelati",
+            "Spigola d'allevamento n. 1", "Cozze pulite 1 kg", "Vongole veraci" };
+    private static final String[] QUERIES = { "orate fresche", "gamberi rossi", "baccala", "pesce spada",
+            "filetti merluzzo", "spigola", "cozze", "vongole" };
+
+    private int next;
+
+    @Benchmark
+    public String normalizeRegex() {
+        return TextUtils.slowNormalize(NAMES[next++ & 7]);
+    }
+
+    @Benchmark
+    public String normalizeTable() {
+        return TextUtils.normalize(NAMES[next++ & 7]);
+    }
+
+    @Benchmark
+    public double similarityRegex() {
+        int i = next++ & 7;
+        return TextUtils.slowSimilarity(NAMES[i], QUERIES[(i + 3) & 7]);
+    }
+
+    @Benchmark
+    public double similarityTable() {
+        int i = next++ & 7;
+        return TextUtils.similarity(NAMES[i], QUERIES[(i + 3) & 7]);
+    }
+}
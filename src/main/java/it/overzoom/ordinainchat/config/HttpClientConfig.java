@@ -0,0 +1,59 @@
+package it.overzoom.ordinainchat.config;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Un client HTTP in uscita per ogni servizio a valle (OpenAI, MCP, Telegram).
+ * Il client JDK tiene le connessioni keep-alive in pool e negozia HTTP/2 via
+ * ALPN quando il server lo supporta; timeout e gzip sono configurabili sotto
+ * {@code http.clients.<nome>}.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Bean
+    public RestTemplate openAiRestTemplate(Environment env) {
+        return build("openai", env, 5_000, 60_000, 90_000);
+    }
+
+    @Bean
+    public RestTemplate mcpRestTemplate(Environment env) {
+        return build("mcp", env, 3_000, 10_000, 15_000);
+    }
+
+    @Bean
+    public RestTemplate telegramRestTemplate(Environment env) {
+        return build("telegram", env, 5_000, 15_000, 20_000);
+    }
+
+    private RestTemplate build(String name, Environment env, long connectMs, long readMs, long totalMs) {
+        String p = "http.clients." + name + ".";
+        long connect = env.getProperty(p + "connect-timeout-ms", Long.class, connectMs);
+        long read = env.getProperty(p + "read-timeout-ms", Long.class, readMs);
+        long total = env.getProperty(p + "total-timeout-ms", Long.class, totalMs);
+        boolean http2 = env.getProperty(p + "http2", Boolean.class, true);
+        boolean gzip = env.getProperty(p + "gzip", Boolean.class, true);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connect))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(client);
+        factory.setReadTimeout(Duration.ofMillis(read));
+
+        RestTemplate rest = new RestTemplate(factory);
+        if (total > 0)
+            rest.getInterceptors().add(new TotalTimeoutInterceptor(Duration.ofMillis(total)));
+        if (gzip)
+            rest.getInterceptors().add(new GzipDecompressingInterceptor());
+        return rest;
+    }
+}
@@ -1,9 +1,13 @@
 package it.overzoom.ordinainchat.config;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authorization.AuthorizationDecision;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.web.SecurityFilterChain;
@@ -11,10 +15,19 @@ import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
+import jakarta.servlet.http.HttpServletRequest;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
+        /** Header con il token per i totali di consumo (/usage/**). */
+        static final String USAGE_TOKEN_HEADER = "X-Usage-Token";
+
+        // vuoto = /usage/** chiuso a tutti
+        @Value("${usage.api-token:}")
+        private String usageApiToken;
+
         @Bean
         public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
                 http
@@ -23,10 +36,22 @@ public class SecurityConfig {
                                 .authorizeHttpRequests(authz -> authz
                                                 .requestMatchers("/swagger-ui.html", "/swagger-ui/**", "/api-docs/**")
                                                 .permitAll()
+                                                // id utente e consumi: solo con il token di servizio
+                                                .requestMatchers("/usage/**")
+                                                .access((auth, ctx) -> new AuthorizationDecision(
+                                                                hasUsageToken(ctx.getRequest())))
                                                 .anyRequest().permitAll());
                 return http.build();
         }
 
+        private boolean hasUsageToken(HttpServletRequest request) {
+                String given = request.getHeader(USAGE_TOKEN_HEADER);
+                if (usageApiToken == null || usageApiToken.isBlank() || given == null)
+                        return false;
+                return MessageDigest.isEqual(usageApiToken.getBytes(StandardCharsets.UTF_8),
+                                given.getBytes(StandardCharsets.UTF_8));
+        }
+
         @Bean
         public CorsConfigurationSource corsConfigurationSource() {
                 CorsConfiguration config = new CorsConfiguration();
@@ -0,0 +1,180 @@
+package it.overzoom.ordinainchat.config;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Tempo massimo complessivo di una chiamata, attesa degli header e lettura del
+ * corpo incluse: il read timeout del client JDK copre solo l'arrivo degli
+ * header. Alla scadenza un timer interrompe il thread in attesa (della
+ * risposta o di una read già bloccata) e chiude la risposta; chi chiama vede
+ * una {@link SocketTimeoutException}.
+ */
+public class TotalTimeoutInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("http-deadline").daemon().factory());
+
+    private final long totalNanos;
+
+    public TotalTimeoutInterceptor(Duration total) {
+        this.totalNanos = total.toNanos();
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        Deadline deadline = new Deadline(Thread.currentThread());
+        deadline.timer = TIMER.schedule(deadline::expire, totalNanos, TimeUnit.NANOSECONDS);
+        ClientHttpResponse response = null;
+        try {
+            response = execution.execute(request, body);
+        } finally {
+            if (!deadline.headersArrived(response)) {
+                Thread.interrupted(); // l'interrupt era nostro
+                if (response != null)
+                    response.close();
+                throw new SocketTimeoutException("Timeout totale superato: " + request.getURI().getHost());
+            }
+        }
+        return new DeadlineResponse(response, deadline);
+    }
+
+    /** Scadenza di una chiamata: a chi tocca interrompere dipende dalla fase. */
+    private static final class Deadline {
+        private final Thread caller;
+        private volatile ScheduledFuture<?> timer;
+        // sotto lock
+        private boolean waitingHeaders = true;
+        private boolean expired;
+        private boolean done;
+        private ClientHttpResponse response;
+        private Thread reader;
+
+        private Deadline(Thread caller) {
+            this.caller = caller;
+        }
+
+        private synchronized void expire() {
+            if (done)
+                return;
+            expired = true;
+            if (waitingHeaders) {
+                caller.interrupt();
+                return;
+            }
+            if (reader != null)
+                reader.interrupt();
+            response.close();
+        }
+
+        /** Fine dell'attesa degli header; false se il tempo era già scaduto. */
+        private synchronized boolean headersArrived(ClientHttpResponse r) {
+            waitingHeaders = false;
+            response = r;
+            if (r == null || expired) {
+                done = true;
+                timer.cancel(false);
+            }
+            return !expired;
+        }
+
+        private synchronized void startRead() throws SocketTimeoutException {
+            if (expired)
+                throw timeout();
+            reader = Thread.currentThread();
+        }
+
+        /** Fine di una read; se nel frattempo è scaduto il tempo, l'esito è un timeout. */
+        private synchronized void endRead() throws SocketTimeoutException {
+            reader = null;
+            if (expired) {
+                Thread.interrupted();
+                throw timeout();
+            }
+        }
+
+        private synchronized void finish() {
+            done = true;
+            timer.cancel(false);
+        }
+
+        private static SocketTimeoutException timeout() {
+            return new SocketTimeoutException("Timeout totale superato durante la lettura della risposta");
+        }
+    }
+
+    private static final class DeadlineResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final Deadline deadline;
+        private InputStream body;
+
+        private DeadlineResponse(ClientHttpResponse delegate, Deadline deadline) {
+            this.delegate = delegate;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new FilterInputStream(delegate.getBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        deadline.startRead();
+                        try {
+                            return super.read();
+                        } finally {
+                            deadline.endRead();
+                        }
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        deadline.startRead();
+                        try {
+                            return super.read(b, off, len);
+                        } finally {
+                            deadline.endRead();
+                        }
+                    }
+                };
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            deadline.finish();
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package it.overzoom.ordinainchat.controller;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import it.overzoom.ordinainchat.repository.MessageRepository.UsageTotals;
+import it.overzoom.ordinainchat.service.UsageService;
+
+/** Totali di token e latenza OpenAI negli ultimi {@code days} giorni. */
+@RestController
+@RequestMapping("/usage")
+public class UsageController {
+
+    private final UsageService usageService;
+
+    public UsageController(UsageService usageService) {
+        this.usageService = usageService;
+    }
+
+    @GetMapping("/users")
+    public List<UsageTotals> byUser(@RequestParam(defaultValue = "7") int days) {
+        return usageService.byUser(window(days));
+    }
+
+    @GetMapping("/conversations")
+    public List<UsageTotals> byConversation(@RequestParam(defaultValue = "7") int days) {
+        return usageService.byConversation(window(days));
+    }
+
+    @GetMapping("/steps")
+    public List<UsageTotals> byStep(@RequestParam(defaultValue = "7") int days) {
+        return usageService.byStep(window(days));
+    }
+
+    private static Duration window(int days) {
+        return Duration.ofDays(Math.max(1, Math.min(days, 365)));
+    }
+}
@@ -0,0 +1,88 @@
+package it.overzoom.ordinainchat.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import it.overzoom.ordinainchat.util.AliasLexicon;
+
+/**
+ * Sorgente del lessico dei sinonimi: il file indicato da
+ * {@code mcp.catalog.aliases.file} se c'è, altrimenti quello incluso nel jar.
+ * Il file esterno si può modificare a caldo: {@link #loadIfChanged()} lo
+ * rilegge solo se data di modifica o dimensione sono cambiate.
+ */
+@Component
+public class AliasLexiconStore {
+
+    private static final Logger log = LoggerFactory.getLogger(AliasLexiconStore.class);
+    private static final String BUNDLED = "lexicon/aliases.txt";
+
+    private final Path file;
+    // ultima versione letta del file esterno
+    private FileTime lastModified;
+    private long lastSize = -1;
+
+    public AliasLexiconStore(@Value("${mcp.catalog.aliases.file:}") String file) {
+        this.file = (file == null || file.isBlank()) ? null : Path.of(file);
+    }
+
+    /** Lessico corrente; vuoto (non null) se non si riesce a leggere niente. */
+    public synchronized AliasLexicon load() {
+        if (file != null && Files.isReadable(file)) {
+            Optional<AliasLexicon> fromFile = readFile();
+            if (fromFile.isPresent())
+                return fromFile.get();
+        }
+        return readBundled();
+    }
+
+    /** Il lessico riletto se il file esterno è cambiato dall'ultima lettura. */
+    public synchronized Optional<AliasLexicon> loadIfChanged() {
+        if (file == null || !Files.isReadable(file))
+            return Optional.empty();
+        try {
+            if (Files.getLastModifiedTime(file).equals(lastModified) && Files.size(file) == lastSize)
+                return Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        return readFile();
+    }
+
+    private Optional<AliasLexicon> readFile() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            long size = Files.size(file);
+            AliasLexicon lexicon = AliasLexicon.parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+            lastModified = modified;
+            lastSize = size;
+            log.info("Lessico sinonimi caricato da {}: {} termini", file, lexicon.size());
+            return Optional.of(lexicon);
+        } catch (IOException e) {
+            log.warn("Lettura lessico sinonimi {} fallita: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static AliasLexicon readBundled() {
+        try (InputStream in = new ClassPathResource(BUNDLED).getInputStream()) {
+            List<String> lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+            return AliasLexicon.parse(lines);
+        } catch (IOException e) {
+            log.warn("Lessico sinonimi {} non disponibile: {}", BUNDLED, e.getMessage());
+            return AliasLexicon.EMPTY;
+        }
+    }
+}
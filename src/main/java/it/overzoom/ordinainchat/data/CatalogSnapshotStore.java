@@ -0,0 +1,164 @@
+package it.overzoom.ordinainchat.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.service.CatalogSnapshot;
+
+/**
+ * Copia su disco dell'ultimo catalogo sincronizzato, in un formato binario
+ * compatto letto via memory-map: all'avvio il catalogo è subito disponibile
+ * anche con MCP lento o giù. Scrittura su file temporaneo e rename atomico,
+ * quindi un crash a metà lascia intatta la copia precedente.
+ */
+@Component
+public class CatalogSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogSnapshotStore.class);
+    private static final int MAGIC = 0x4F494353; // "OICS"
+    private static final short FORMAT = 2;
+
+    /** Snapshot riletto da disco, con il cursore del delta e l'ora del salvataggio. */
+    public record Stored(CatalogSnapshot snapshot, String cursor, Instant savedAt) {
+    }
+
+    private final Path file;
+
+    public CatalogSnapshotStore(@Value("${mcp.catalog.snapshot-file:}") String file) {
+        this.file = (file == null || file.isBlank()) ? null : Path.of(file);
+    }
+
+    public boolean enabled() {
+        return file != null;
+    }
+
+    public void save(CatalogSnapshot snapshot, String cursor) {
+        if (file == null)
+            return;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT);
+                out.writeLong(snapshot.version());
+                out.writeLong(System.currentTimeMillis());
+                writeString(out, cursor);
+                out.writeInt(snapshot.size());
+                for (CatalogSnapshot.Entry e : snapshot.entries())
+                    writeProduct(out, e.product());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Salvataggio snapshot catalogo su {} fallito: {}", file, e.getMessage());
+        }
+    }
+
+    /** Vuoto se il file manca, è di un formato diverso o è corrotto. */
+    public Optional<Stored> load() {
+        if (file == null || !Files.isReadable(file))
+            return Optional.empty();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getShort() != FORMAT) {
+                log.warn("Snapshot catalogo {} ignorato: formato non riconosciuto", file);
+                return Optional.empty();
+            }
+            long version = buf.getLong();
+            Instant savedAt = Instant.ofEpochMilli(buf.getLong());
+            String cursor = readString(buf);
+            int count = buf.getInt();
+            List<McpProduct> products = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                products.add(readProduct(buf));
+            return Optional.of(new Stored(CatalogSnapshot.of(version, products), cursor, savedAt));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Lettura snapshot catalogo {} fallita: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    // ---------- formato ----------
+
+    private static void writeProduct(DataOutputStream out, McpProduct p) throws IOException {
+        out.writeLong(p.id());
+        writeString(out, p.name());
+        writeString(out, p.description());
+        writeDecimal(out, p.priceEur());
+        writeDecimal(out, p.priceKg());
+        writeDecimal(out, p.pricePiece());
+        writeString(out, p.freshness());
+        writeString(out, p.source());
+        writeString(out, p.catchDate());
+        writeString(out, p.originArea());
+        writeString(out, p.faoArea());
+        writeString(out, p.originCountry());
+        writeString(out, p.landingPort());
+        out.writeByte(p.onOffer() == null ? -1 : p.onOffer() ? 1 : 0);
+    }
+
+    private static McpProduct readProduct(ByteBuffer buf) {
+        return new McpProduct(buf.getLong(),
+                readString(buf), readString(buf),
+                readDecimal(buf), readDecimal(buf), readDecimal(buf),
+                readString(buf), readString(buf), readString(buf),
+                readString(buf), readString(buf), readString(buf), readString(buf), readFlag(buf));
+    }
+
+    // stringhe: lunghezza in byte UTF-8 (-1 = null) e poi i byte
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Boolean readFlag(ByteBuffer buf) {
+        byte b = buf.get();
+        return (b < 0) ? null : b == 1;
+    }
+
+    private static void writeDecimal(DataOutputStream out, BigDecimal d) throws IOException {
+        writeString(out, d == null ? null : d.toPlainString());
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer buf) {
+        String s = readString(buf);
+        return (s == null) ? null : new BigDecimal(s);
+    }
+}
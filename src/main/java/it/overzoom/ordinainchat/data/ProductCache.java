@@ -0,0 +1,192 @@
+package it.overzoom.ordinainchat.data;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.overzoom.ordinainchat.mcp.McpClient;
+import it.overzoom.ordinainchat.mcp.McpException;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpToolException;
+import it.overzoom.ordinainchat.mcp.McpTransportException;
+import it.overzoom.ordinainchat.service.CatalogChangedEvent;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Cache read-through dei prodotti completi (products_byid). TTL per voce più
+ * breve per il fresco, refresh anticipato in background e invalidazione
+ * quando il refresh del catalogo vede un prodotto cambiato. I miss di
+ * {@link #getAll} si caricano con una sola chiamata multi-id se il server la
+ * supporta, altrimenti in parallelo su virtual thread con concorrenza limitata.
+ */
+@Component
+public class ProductCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductCache.class);
+    private static final int MAX_BATCH_FAILURES = 3;
+
+    private final LoadingCache<Long, McpProduct> cache;
+    private final McpClient mcp;
+    private final ExecutorService lookupExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore lookupPermits;
+    // si spegne se il server rifiuta la forma multi-id (vedi onBatchFailure)
+    private volatile boolean batchLookup;
+    // fallimenti consecutivi del multi-id non dovuti a un rifiuto esplicito
+    private volatile int batchFailures;
+
+    public ProductCache(McpClient mcp, MeterRegistry registry,
+            @Value("${mcp.cache.products.max-size:2000}") long maxSize,
+            @Value("${mcp.cache.products.ttl-seconds:1800}") long ttlSeconds,
+            @Value("${mcp.cache.products.fresh-ttl-seconds:600}") long freshTtlSeconds,
+            @Value("${mcp.cache.products.refresh-after-seconds:300}") long refreshAfterSeconds,
+            @Value("${mcp.cache.products.batch-lookup:true}") boolean batchLookup,
+            @Value("${mcp.cache.products.max-concurrency:8}") int maxConcurrency) {
+        this.mcp = mcp;
+        this.batchLookup = batchLookup;
+        this.lookupPermits = new Semaphore(Math.max(1, maxConcurrency));
+        long ttl = Duration.ofSeconds(ttlSeconds).toNanos();
+        long freshTtl = Duration.ofSeconds(Math.min(freshTtlSeconds, ttlSeconds)).toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Long, McpProduct>() {
+                    @Override
+                    public long expireAfterCreate(Long id, McpProduct p, long now) {
+                        // prezzo e data di pesca del fresco cambiano in giornata
+                        return "FRESH".equalsIgnoreCase(p.freshness()) ? freshTtl : ttl;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long id, McpProduct p, long now, long current) {
+                        return expireAfterCreate(id, p, now);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long id, McpProduct p, long now, long current) {
+                        return current;
+                    }
+                })
+                .refreshAfterWrite(Duration.ofSeconds(Math.max(1, refreshAfterSeconds)))
+                .recordStats()
+                // il prodotto non dipende dall'utente: meta senza telegramUserId
+                .build(new CacheLoader<Long, McpProduct>() {
+                    @Override
+                    public McpProduct load(Long id) {
+                        return mcp.productById(id, null).orElse(null);
+                    }
+
+                    @Override
+                    public Map<Long, McpProduct> loadAll(Set<? extends Long> ids) {
+                        return loadMany(ids);
+                    }
+                });
+        CaffeineCacheMetrics.monitor(registry, cache, "mcp.products");
+    }
+
+    /** Prodotto dalla cache o da MCP; vuoto se non esiste o MCP non risponde. */
+    public Optional<McpProduct> get(long id) {
+        if (id <= 0)
+            return Optional.empty();
+        try {
+            return Optional.ofNullable(cache.get(id));
+        } catch (McpException e) {
+            return Optional.empty();
+        }
+    }
+
+    /** Prodotti per id in blocco; gli id sconosciuti o non caricati mancano dalla mappa. */
+    public Map<Long, McpProduct> getAll(Collection<Long> ids) {
+        List<Long> valid = ids.stream().filter(id -> id != null && id > 0).distinct().toList();
+        if (valid.isEmpty())
+            return Map.of();
+        try {
+            return cache.getAll(valid);
+        } catch (McpException e) {
+            return Map.of();
+        }
+    }
+
+    public void invalidate(long id) {
+        cache.invalidate(id);
+    }
+
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        // la search non porta tutti i campi di products_byid: si ricarica alla prossima lettura
+        cache.invalidateAll(event.changed().keySet());
+        cache.invalidateAll(event.removed());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lookupExecutor.shutdownNow();
+    }
+
+    private Map<Long, McpProduct> loadMany(Set<? extends Long> ids) {
+        Map<Long, McpProduct> out = new ConcurrentHashMap<>();
+        if (ids.size() > 1 && batchLookup) {
+            try {
+                for (McpProduct p : mcp.productsByIds(List.copyOf(ids), null))
+                    if (ids.contains(p.id()))
+                        out.put(p.id(), p);
+                batchFailures = 0;
+            } catch (McpException e) {
+                onBatchFailure(e);
+            }
+        }
+        // batch fallito o parziale (server che ignora "ids"): i mancanti uno per uno
+        CompletableFuture<?>[] calls = ids.stream()
+                .filter(id -> !out.containsKey(id))
+                .map(id -> CompletableFuture.runAsync(() -> loadOne(id, out), lookupExecutor))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(calls).join();
+        return out;
+    }
+
+    /**
+     * Multi-id rifiutato (errore del tool o HTTP 4xx): si passa alle chiamate
+     * singole per sempre. Altri errori (5xx, rete, body illeggibile) solo dopo
+     * qualche fallimento di fila.
+     */
+    private void onBatchFailure(McpException e) {
+        boolean rejected = e instanceof McpToolException
+                || (e instanceof McpTransportException t && t.getHttpStatus() >= 400 && t.getHttpStatus() < 500);
+        if (rejected || ++batchFailures >= MAX_BATCH_FAILURES) {
+            log.info("products_byid multi-id non utilizzabile ({}), uso chiamate singole", e.getMessage());
+            batchLookup = false;
+        } else {
+            log.warn("products_byid multi-id fallito ({}), ripiego sulle chiamate singole", e.getMessage());
+        }
+    }
+
+    private void loadOne(Long id, Map<Long, McpProduct> out) {
+        lookupPermits.acquireUninterruptibly();
+        try {
+            mcp.productById(id, null).ifPresent(p -> out.put(id, p));
+        } catch (McpException e) {
+            // manca dalla mappa: il chiamante usa il fallback
+        } finally {
+            lookupPermits.release();
+        }
+    }
+}
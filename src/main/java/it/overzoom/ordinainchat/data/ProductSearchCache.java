@@ -0,0 +1,96 @@
+package it.overzoom.ordinainchat.data;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.overzoom.ordinainchat.mcp.McpArgs;
+import it.overzoom.ordinainchat.mcp.McpClient;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.service.CatalogChangedEvent;
+
+/**
+ * Cache breve dei risultati di products_search, con chiave sugli arguments in
+ * forma canonica. Il TTL dipende dal tipo di filtro (offerte, fresco, testo
+ * libero); qualsiasi modifica al catalogo svuota la cache.
+ */
+@Component
+public class ProductSearchCache {
+
+    private enum Kind {
+        OFFERS, FRESH, TEXT, OTHER
+    }
+
+    private record Entry(Kind kind, McpProductPage page) {
+    }
+
+    private final Cache<String, Entry> cache;
+
+    public ProductSearchCache(MeterRegistry registry,
+            @Value("${mcp.cache.search.max-size:500}") long maxSize,
+            @Value("${mcp.cache.search.offers-ttl-seconds:60}") long offersTtl,
+            @Value("${mcp.cache.search.fresh-ttl-seconds:120}") long freshTtl,
+            @Value("${mcp.cache.search.text-ttl-seconds:300}") long textTtl,
+            @Value("${mcp.cache.search.default-ttl-seconds:180}") long defaultTtl) {
+        long[] ttl = new long[Kind.values().length];
+        ttl[Kind.OFFERS.ordinal()] = Duration.ofSeconds(offersTtl).toNanos();
+        ttl[Kind.FRESH.ordinal()] = Duration.ofSeconds(freshTtl).toNanos();
+        ttl[Kind.TEXT.ordinal()] = Duration.ofSeconds(textTtl).toNanos();
+        ttl[Kind.OTHER.ordinal()] = Duration.ofSeconds(defaultTtl).toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry e, long now) {
+                        return ttl[e.kind().ordinal()];
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry e, long now, long current) {
+                        return ttl[e.kind().ordinal()];
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry e, long now, long current) {
+                        return current;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "mcp.search");
+    }
+
+    /** Risultato in cache per questi arguments, altrimenti lo calcola con loader. */
+    public McpProductPage get(JsonNode args, Supplier<McpProductPage> loader) {
+        String key = McpArgs.canonicalKey(McpClient.PRODUCTS_SEARCH, args);
+        return cache.get(key, k -> new Entry(kindOf(args), loader.get())).page();
+    }
+
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        cache.invalidateAll();
+    }
+
+    // le offerte cambiano più spesso del testo libero (prezzi, promo del giorno)
+    private static Kind kindOf(JsonNode args) {
+        if (args == null)
+            return Kind.OTHER;
+        if (args.path("onlyOnOffer").asBoolean(false))
+            return Kind.OFFERS;
+        if (args.hasNonNull("textSearch"))
+            return Kind.TEXT;
+        if (args.hasNonNull("freshness"))
+            return Kind.FRESH;
+        return Kind.OTHER;
+    }
+}
@@ -0,0 +1,42 @@
+package it.overzoom.ordinainchat.dto;
+
+import java.util.Map;
+
+/**
+ * Vista minima di un update Telegram con messaggio testuale: quanto serve per
+ * accodare ed elaborare il turno.
+ */
+public record TelegramUpdate(
+        Long updateId,
+        String chatKey,
+        String chatId,
+        String chatType, // "private", "group", ...
+        String telegramUserId,
+        String text,
+        long receivedAtNanos) { // System.nanoTime() alla ricezione del webhook
+
+    /** Ritorna null se l'update non è un messaggio di testo elaborabile. */
+    @SuppressWarnings("unchecked")
+    public static TelegramUpdate from(Map<String, Object> update) {
+        if (update == null || !(update.get("message") instanceof Map<?, ?>))
+            return null;
+        Map<String, Object> message = (Map<String, Object>) update.get("message");
+        if (!(message.get("text") instanceof String text) || text.isBlank())
+            return null;
+        if (!(message.get("chat") instanceof Map<?, ?>) || !(message.get("from") instanceof Map<?, ?>))
+            return null;
+        Map<String, Object> chat = (Map<String, Object>) message.get("chat");
+        Map<String, Object> from = (Map<String, Object>) message.get("from");
+        if (chat.get("id") == null || from.get("id") == null)
+            return null;
+
+        String chatType = String.valueOf(chat.get("type"));
+        String chatId = String.valueOf(chat.get("id"));
+        String telegramUserId = String.valueOf(from.get("id"));
+        // Per private chat usiamo SEMPRE from.id come chiave
+        String chatKey = "private".equals(chatType) ? telegramUserId : chatId;
+
+        Long updateId = (update.get("update_id") instanceof Number n) ? n.longValue() : null;
+        return new TelegramUpdate(updateId, chatKey, chatId, chatType, telegramUserId, text, System.nanoTime());
+    }
+}
@@ -0,0 +1,18 @@
+package it.overzoom.ordinainchat.exception;
+
+import java.io.Serial;
+
+/** OpenAI non raggiungibile (breaker aperto o chiamata fallita dopo i retry): il chiamante degrada. */
+public class OpenAiUnavailableException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public OpenAiUnavailableException(String message) {
+        super(message);
+    }
+
+    public OpenAiUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
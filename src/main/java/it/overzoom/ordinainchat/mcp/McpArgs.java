@@ -0,0 +1,73 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Forma canonica degli arguments MCP, usata come chiave di cache e di
+ * coalescing: chiavi ordinate, testo normalizzato, numeri senza zeri finali,
+ * flag a false e valori null omessi.
+ */
+public final class McpArgs {
+
+    // campi di testo libero: confronto come TextUtils.normalize
+    private static final Set<String> TEXT_FIELDS = Set.of("textSearch", "query", "text");
+    // flag che a false equivalgono all'assenza del filtro
+    private static final Set<String> FLAGS = Set.of("onlyOnOffer", "availableOnly");
+
+    private McpArgs() {
+    }
+
+    public static String canonicalKey(String tool, JsonNode args) {
+        StringBuilder sb = new StringBuilder(tool).append(':');
+        append(sb, null, args);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String field, JsonNode n) {
+        if (n == null || n.isNull() || n.isMissingNode()) {
+            sb.append("null");
+        } else if (n.isObject()) {
+            List<String> keys = new ArrayList<>();
+            for (Iterator<String> it = n.fieldNames(); it.hasNext();) {
+                String k = it.next();
+                JsonNode v = n.get(k);
+                if (v == null || v.isNull() || (FLAGS.contains(k) && v.isBoolean() && !v.asBoolean()))
+                    continue;
+                keys.add(k);
+            }
+            Collections.sort(keys);
+            sb.append('{');
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(keys.get(i)).append('=');
+                append(sb, keys.get(i), n.get(keys.get(i)));
+            }
+            sb.append('}');
+        } else if (n.isArray()) {
+            sb.append('[');
+            for (int i = 0; i < n.size(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                append(sb, field, n.get(i));
+            }
+            sb.append(']');
+        } else if (n.isNumber()) {
+            sb.append(n.decimalValue().stripTrailingZeros().toPlainString());
+        } else if (n.isTextual()) {
+            String v = n.asText();
+            v = (field != null && TEXT_FIELDS.contains(field)) ? TextUtils.normalize(v) : v.trim();
+            sb.append('"').append(v.replace("\"", "\\\"")).append('"');
+        } else {
+            sb.append(n.asText());
+        }
+    }
+}
@@ -1,24 +1,52 @@
-// src/main/java/it/overzoom/ordinainchat/mcp/McpClient.java
 package it.overzoom.ordinainchat.mcp;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.DefaultUriBuilderFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
-// it/overzoom/ordinainchat/mcp/McpClient.java (servizio 1)
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Client unico verso il server MCP. Il body viene letto in streaming una sola
+ * volta e convertito nei record tipizzati; gli envelope di errore diventano
+ * {@link McpToolException}, i problemi HTTP/rete {@link McpTransportException}.
+ * Le chiamate di sola lettura identiche e contemporanee condividono una sola
+ * richiesta HTTP (single-flight).
+ */
 @Component
 public class McpClient {
 
+    public static final String PRODUCTS_SEARCH = "products_search";
+    public static final String PRODUCTS_BYID = "products_byid";
+    public static final String ORDERS_CREATE = "orders_create";
+    public static final String CUSTOMERS_ME = "customers_me";
+
+    // il risultato non dipende dall'utente: meta fuori dalla chiave
+    private static final Set<String> SHARED_TOOLS = Set.of(PRODUCTS_SEARCH, PRODUCTS_BYID);
+    // sola lettura ma per utente: si accorpano solo le chiamate dello stesso utente
+    private static final Set<String> PER_USER_TOOLS = Set.of(CUSTOMERS_ME);
+
+    private final Map<String, CompletableFuture<JsonNode>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry registry;
     private final RestTemplate rest;
     private final ObjectMapper om;
     private final String baseUrl;
@@ -26,34 +54,174 @@ public class McpClient {
 
     public McpClient(
             @Value("${mcp.server.base-url:http://localhost:5000/api/mcp}") String baseUrl,
-            @Value("${mcp.api-key}") String apiKey,
-            ObjectMapper om) {
+            @Value("${mcp.api-key:}") String apiKey,
+            ObjectMapper om,
+            @Qualifier("mcpRestTemplate") RestTemplate rest,
+            MeterRegistry registry) {
+        this.registry = registry;
         this.baseUrl = baseUrl;
         this.apiKey = apiKey;
         this.om = om;
-        this.rest = new RestTemplate();
-        this.rest.setUriTemplateHandler(new DefaultUriBuilderFactory(baseUrl));
+        // client condiviso: niente UriTemplateHandler, URL completo per chiamata
+        this.rest = rest;
+    }
+
+    public McpProductPage searchProducts(JsonNode args, String telegramUserId) {
+        JsonNode data = call(PRODUCTS_SEARCH, args, telegramUserId);
+        try {
+            if (data.isArray())
+                return McpProductPage.of(readProducts(data));
+            if (!data.path("items").isArray())
+                return McpProductPage.of(List.of());
+            return om.treeToValue(data, McpProductPage.class);
+        } catch (Exception e) {
+            throw new McpTransportException(PRODUCTS_SEARCH, "risposta non valida: " + e.getMessage(), 0, e);
+        }
+    }
+
+    /** Vuoto se il prodotto non esiste (o il server non ne restituisce il nome). */
+    public Optional<McpProduct> productById(long id, String telegramUserId) {
+        JsonNode data = call(PRODUCTS_BYID, om.createObjectNode().put("id", id), telegramUserId);
+        try {
+            McpProduct p = data.isObject() ? om.treeToValue(data, McpProduct.class) : null;
+            return (p == null || p.id() <= 0 || p.displayName().isBlank()) ? Optional.empty() : Optional.of(p);
+        } catch (Exception e) {
+            throw new McpTransportException(PRODUCTS_BYID, "risposta non valida: " + e.getMessage(), 0, e);
+        }
+    }
+
+    /**
+     * products_byid con più id in una sola chiamata ({@code {"ids":[...]}}).
+     * Se il server non supporta la forma multi-id risponde con un errore del
+     * tool ({@link McpToolException}).
+     */
+    public List<McpProduct> productsByIds(Collection<Long> ids, String telegramUserId) {
+        ObjectNode args = om.createObjectNode();
+        ids.forEach(args.putArray("ids")::add);
+        JsonNode data = call(PRODUCTS_BYID, args, telegramUserId);
+        try {
+            JsonNode array = data.isArray() ? data : data.path("items");
+            if (!array.isArray())
+                throw new McpToolException(PRODUCTS_BYID, "lookup multi-id non supportato");
+            List<McpProduct> out = new ArrayList<>();
+            for (McpProduct p : readProducts(array))
+                if (p != null && p.id() > 0 && !p.displayName().isBlank())
+                    out.add(p);
+            return out;
+        } catch (McpToolException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new McpTransportException(PRODUCTS_BYID, "risposta non valida: " + e.getMessage(), 0, e);
+        }
+    }
+
+    public McpOrder createOrder(JsonNode args, String telegramUserId) {
+        return convert(ORDERS_CREATE, call(ORDERS_CREATE, args, telegramUserId), McpOrder.class);
+    }
+
+    public McpCustomer customerMe(JsonNode args, String telegramUserId) {
+        return convert(CUSTOMERS_ME, call(CUSTOMERS_ME, args, telegramUserId), McpCustomer.class);
     }
 
-    public McpCallResponse call(String tool, JsonNode args, Map<String, String> meta) {
+    // ---------- helpers ----------
+
+    /**
+     * Chiamata con coalescing: se una richiesta identica è già in volo si
+     * aspetta il suo esito invece di farne un'altra. orders_create non si
+     * accorpa mai.
+     */
+    private JsonNode call(String tool, JsonNode args, String telegramUserId) {
+        String key;
+        if (SHARED_TOOLS.contains(tool))
+            key = McpArgs.canonicalKey(tool, args);
+        else if (PER_USER_TOOLS.contains(tool))
+            key = McpArgs.canonicalKey(tool, args) + "|" + telegramUserId;
+        else
+            return send(tool, args, telegramUserId);
+
+        CompletableFuture<JsonNode> mine = new CompletableFuture<>();
+        CompletableFuture<JsonNode> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            registry.counter("mcp.calls", "tool", tool, "outcome", "coalesced").increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw (e.getCause() instanceof RuntimeException re) ? re : e;
+            }
+        }
+        registry.counter("mcp.calls", "tool", tool, "outcome", "originating").increment();
         try {
-            McpCallRequest req = new McpCallRequest();
-            req.setTool(tool);
-            req.setArguments(args);
-            req.setMeta(meta);
-
-            HttpHeaders h = new HttpHeaders();
-            h.setContentType(MediaType.APPLICATION_JSON);
-            h.set("X-MCP-KEY", apiKey);
-            HttpEntity<McpCallRequest> entity = new HttpEntity<>(req, h);
-
-            ResponseEntity<McpCallResponse> resp = rest.postForEntity("/call", entity, McpCallResponse.class);
-            return resp.getBody();
+            JsonNode data = send(tool, args, telegramUserId);
+            mine.complete(data);
+            return data;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** POST /call e ritorna il nodo "data" (o la radice se non c'è envelope). */
+    private JsonNode send(String tool, JsonNode args, String telegramUserId) {
+        McpCallRequest req = new McpCallRequest();
+        req.setTool(tool);
+        req.setArguments(args == null ? om.createObjectNode() : args);
+        req.setMeta((telegramUserId == null || telegramUserId.isBlank()) ? Map.of()
+                : Map.of("telegramUserId", telegramUserId));
+
+        JsonNode root;
+        try {
+            byte[] body = om.writeValueAsBytes(req);
+            root = rest.execute(baseUrl + "/call", HttpMethod.POST, r -> {
+                r.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                r.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON));
+                if (apiKey != null && !apiKey.isBlank())
+                    r.getHeaders().set("X-MCP-KEY", apiKey);
+                r.getBody().write(body);
+            }, resp -> om.readTree(resp.getBody()));
+        } catch (HttpStatusCodeException ex) {
+            throw new McpTransportException(tool, errorMessage(ex), ex.getStatusCode().value(), ex);
+        } catch (RestClientException | java.io.IOException ex) {
+            throw new McpTransportException(tool, ex.getMessage(), 0, ex);
+        }
+        if (root == null || root.isMissingNode() || root.isNull())
+            throw new McpTransportException(tool, "risposta vuota", 0, null);
+
+        if ("error".equalsIgnoreCase(root.path("status").asText("")))
+            throw new McpToolException(tool, root.path("message").asText("Errore MCP"));
+        if (root.has("ok") && !root.path("ok").asBoolean(true))
+            throw new McpToolException(tool, root.path("error").asText("Errore MCP"));
+
+        if (root.has("data"))
+            return root.get("data");
+        if (root.has("result"))
+            return root.get("result");
+        return root;
+    }
+
+    private <T> T convert(String tool, JsonNode data, Class<T> type) {
+        try {
+            return om.treeToValue(data, type);
         } catch (Exception e) {
-            McpCallResponse err = new McpCallResponse();
-            err.setOk(false);
-            err.setError("client_error: " + e.getMessage());
-            return err;
+            throw new McpTransportException(tool, "risposta non valida: " + e.getMessage(), 0, e);
+        }
+    }
+
+    private List<McpProduct> readProducts(JsonNode array) throws Exception {
+        List<McpProduct> out = new ArrayList<>(array.size());
+        for (JsonNode n : array)
+            out.add(om.treeToValue(n, McpProduct.class));
+        return out;
+    }
+
+    private String errorMessage(HttpStatusCodeException ex) {
+        try {
+            JsonNode body = om.readTree(ex.getResponseBodyAsString());
+            if (body.hasNonNull("message"))
+                return body.get("message").asText();
+        } catch (Exception ignore) {
         }
+        return "client_error: " + ex.getStatusText();
     }
 }
@@ -0,0 +1,8 @@
+package it.overzoom.ordinainchat.mcp;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/** Profilo cliente restituito da customers_me. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record McpCustomer(String name, String phone) {
+}
@@ -0,0 +1,24 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.io.Serial;
+
+/**
+ * Chiamata MCP fallita. {@link McpToolException}: il server ha risposto con
+ * un envelope di errore; {@link McpTransportException}: errore HTTP o di rete.
+ */
+public abstract class McpException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final String tool;
+
+    protected McpException(String tool, String message, Throwable cause) {
+        super(message, cause);
+        this.tool = tool;
+    }
+
+    public String getTool() {
+        return tool;
+    }
+}
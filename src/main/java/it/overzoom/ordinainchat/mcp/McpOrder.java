@@ -0,0 +1,20 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/** Ordine creato da orders_create. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record McpOrder(@JsonAlias("id") String orderId, String status, List<Item> items) {
+
+    public McpOrder {
+        items = (items == null) ? List.of() : List.copyOf(items);
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Item(long productId, @JsonAlias({ "productName", "title" }) String name, BigDecimal quantity) {
+    }
+}
@@ -0,0 +1,40 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/** Prodotto come restituito da products_search / products_byid. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record McpProduct(
+        long id,
+        @JsonAlias({ "productName", "title", "label" }) String name,
+        String description,
+        BigDecimal priceEur,
+        BigDecimal priceKg, // prezzo al kg, se venduto a peso
+        BigDecimal pricePiece, // prezzo al pezzo, se venduto a pezzi
+        String freshness, // FRESH | FROZEN
+        String source, // WILD_CAUGHT | FARMED
+        String catchDate, // yyyy-MM-dd o ISO con offset
+        String originArea,
+        String faoArea,
+        String originCountry,
+        String landingPort,
+        @JsonAlias({ "offer", "isOnOffer", "inOffer" }) Boolean onOffer) {
+
+    /** Nome pulito per visualizzazione e cache (spazi compattati), "" se assente. */
+    public String displayName() {
+        return (name == null) ? "" : name.trim().replaceAll("\\s+", " ");
+    }
+
+    /** Prezzo di riferimento per i filtri: al kg, poi al pezzo, poi generico. */
+    public BigDecimal referencePrice() {
+        return (priceKg != null) ? priceKg : (pricePiece != null) ? pricePiece : priceEur;
+    }
+
+    /** Venduto solo a pezzi (nessun prezzo al kg). */
+    public boolean soldByPiece() {
+        return pricePiece != null && priceKg == null;
+    }
+}
@@ -0,0 +1,30 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Pagina di risultati di products_search. Con {@code updatedSince} il server
+ * può riportare gli id rimossi ({@code deletedIds}) e il cursore da usare per
+ * il delta successivo.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record McpProductPage(List<McpProduct> items, Integer page, Integer size, Long total,
+        @JsonAlias({ "deleted", "tombstones" }) List<Long> deletedIds,
+        @JsonAlias({ "nextCursor", "serverTime" }) String cursor) {
+
+    public McpProductPage {
+        items = (items == null) ? List.of() : List.copyOf(items);
+        deletedIds = (deletedIds == null) ? List.of() : List.copyOf(deletedIds);
+    }
+
+    public static McpProductPage of(List<McpProduct> items) {
+        return new McpProductPage(items, 0, items.size(), (long) items.size(), List.of(), null);
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+}
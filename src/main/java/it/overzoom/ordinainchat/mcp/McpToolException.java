@@ -0,0 +1,14 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.io.Serial;
+
+/** Envelope {"status":"error", "message": ...} restituito dal server MCP. */
+public class McpToolException extends McpException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public McpToolException(String tool, String message) {
+        super(tool, message, null);
+    }
+}
@@ -0,0 +1,21 @@
+package it.overzoom.ordinainchat.mcp;
+
+import java.io.Serial;
+
+/** Server MCP non raggiungibile, risposta HTTP di errore o body illeggibile. */
+public class McpTransportException extends McpException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int httpStatus; // 0 se non c'è stata risposta
+
+    public McpTransportException(String tool, String message, int httpStatus, Throwable cause) {
+        super(tool, message, cause);
+        this.httpStatus = httpStatus;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+}
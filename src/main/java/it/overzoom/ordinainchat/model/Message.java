@@ -10,6 +10,8 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 
+import it.overzoom.ordinainchat.type.StepType;
+
 @Entity
 @Table(name = "messages", indexes = {
         @Index(name = "ix_messages_conv_time", columnList = "conversation_id, created_at")
@@ -36,6 +38,23 @@ public class Message extends BaseEntity {
     @Column(name = "token_count")
     private Integer tokenCount;
 
+    @Column(name = "input_tokens")
+    private Integer inputTokens;
+
+    @Column(name = "cached_input_tokens")
+    private Integer cachedInputTokens;
+
+    @Column(name = "output_tokens")
+    private Integer outputTokens;
+
+    @Column(name = "latency_ms")
+    private Long latencyMs;
+
+    // step dell'utente al momento del turno
+    @Enumerated(EnumType.STRING)
+    @Column(name = "step")
+    private StepType step;
+
     @Column(name = "created_at", nullable = false)
     private OffsetDateTime createdAt = OffsetDateTime.now();
 
@@ -83,6 +102,46 @@ public class Message extends BaseEntity {
         this.tokenCount = tokenCount;
     }
 
+    public Integer getInputTokens() {
+        return inputTokens;
+    }
+
+    public void setInputTokens(Integer inputTokens) {
+        this.inputTokens = inputTokens;
+    }
+
+    public Integer getCachedInputTokens() {
+        return cachedInputTokens;
+    }
+
+    public void setCachedInputTokens(Integer cachedInputTokens) {
+        this.cachedInputTokens = cachedInputTokens;
+    }
+
+    public Integer getOutputTokens() {
+        return outputTokens;
+    }
+
+    public void setOutputTokens(Integer outputTokens) {
+        this.outputTokens = outputTokens;
+    }
+
+    public Long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public void setLatencyMs(Long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    public StepType getStep() {
+        return step;
+    }
+
+    public void setStep(StepType step) {
+        this.step = step;
+    }
+
     public OffsetDateTime getCreatedAt() {
         return createdAt;
     }
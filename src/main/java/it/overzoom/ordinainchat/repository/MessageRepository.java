@@ -1,12 +1,69 @@
 package it.overzoom.ordinainchat.repository;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import it.overzoom.ordinainchat.model.Message;
 
 public interface MessageRepository extends JpaRepository<Message, UUID> {
     List<Message> findTop50ByConversationIdOrderByCreatedAtDesc(UUID conversationId);
+
+    /** Totali di consumo OpenAI per gruppo (utente, conversation o step). */
+    interface UsageTotals {
+        String getGroupKey();
+
+        long getTurns();
+
+        long getInputTokens();
+
+        long getCachedInputTokens();
+
+        long getOutputTokens();
+
+        Double getAvgLatencyMs();
+    }
+
+    @Query("""
+            select cast(c.userId as String) as groupKey, count(m) as turns,
+                   coalesce(sum(m.inputTokens), 0) as inputTokens,
+                   coalesce(sum(m.cachedInputTokens), 0) as cachedInputTokens,
+                   coalesce(sum(m.outputTokens), 0) as outputTokens,
+                   avg(m.latencyMs) as avgLatencyMs
+            from Message m, Conversation c
+            where c.id = m.conversationId and m.inputTokens is not null and m.createdAt >= :since
+            group by c.userId
+            order by coalesce(sum(m.inputTokens), 0) + coalesce(sum(m.outputTokens), 0) desc
+            """)
+    List<UsageTotals> usageByUser(@Param("since") OffsetDateTime since);
+
+    @Query("""
+            select cast(m.conversationId as String) as groupKey, count(m) as turns,
+                   coalesce(sum(m.inputTokens), 0) as inputTokens,
+                   coalesce(sum(m.cachedInputTokens), 0) as cachedInputTokens,
+                   coalesce(sum(m.outputTokens), 0) as outputTokens,
+                   avg(m.latencyMs) as avgLatencyMs
+            from Message m
+            where m.inputTokens is not null and m.createdAt >= :since
+            group by m.conversationId
+            order by coalesce(sum(m.inputTokens), 0) + coalesce(sum(m.outputTokens), 0) desc
+            """)
+    List<UsageTotals> usageByConversation(@Param("since") OffsetDateTime since);
+
+    @Query("""
+            select cast(m.step as String) as groupKey, count(m) as turns,
+                   coalesce(sum(m.inputTokens), 0) as inputTokens,
+                   coalesce(sum(m.cachedInputTokens), 0) as cachedInputTokens,
+                   coalesce(sum(m.outputTokens), 0) as outputTokens,
+                   avg(m.latencyMs) as avgLatencyMs
+            from Message m
+            where m.inputTokens is not null and m.createdAt >= :since
+            group by m.step
+            order by coalesce(sum(m.inputTokens), 0) + coalesce(sum(m.outputTokens), 0) desc
+            """)
+    List<UsageTotals> usageByStep(@Param("since") OffsetDateTime since);
 }
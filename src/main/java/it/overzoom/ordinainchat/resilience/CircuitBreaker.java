@@ -0,0 +1,115 @@
+package it.overzoom.ordinainchat.resilience;
+
+import java.util.function.Consumer;
+
+/**
+ * Circuit breaker a finestra di conteggio (thread-safe). Si apre quando la
+ * quota di fallimenti nelle ultime {@code windowSize} chiamate supera la
+ * soglia; dopo {@code openNanos} lascia passare qualche chiamata di prova.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    public enum Outcome {
+        SUCCESS, FAILURE, IGNORED
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final Consumer<State> onTransition;
+
+    private final boolean[] failed;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos,
+            int halfOpenCalls, Consumer<State> onTransition) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.onTransition = onTransition;
+        this.failed = new boolean[this.windowSize];
+    }
+
+    /** True se la chiamata può partire; va sempre seguita da {@link #onResult}. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos)
+                return false;
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenCalls)
+                return false;
+            halfOpenInFlight++;
+        }
+        return true;
+    }
+
+    public synchronized void onResult(Outcome outcome) {
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+            if (outcome == Outcome.FAILURE) {
+                open();
+            } else if (outcome == Outcome.SUCCESS && ++halfOpenSuccesses >= halfOpenCalls) {
+                reset();
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (state == State.OPEN || outcome == Outcome.IGNORED)
+            return;
+
+        if (recorded == windowSize && failed[next])
+            failures--;
+        boolean f = outcome == Outcome.FAILURE;
+        failed[next] = f;
+        if (f)
+            failures++;
+        next = (next + 1) % windowSize;
+        recorded = Math.min(windowSize, recorded + 1);
+        if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold)
+            open();
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        reset();
+        transition(State.OPEN);
+    }
+
+    private void reset() {
+        java.util.Arrays.fill(failed, false);
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+    }
+
+    private void transition(State to) {
+        if (state == to)
+            return;
+        state = to;
+        if (onTransition != null)
+            onTransition.accept(to);
+    }
+}
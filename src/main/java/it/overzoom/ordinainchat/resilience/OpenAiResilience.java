@@ -0,0 +1,288 @@
+package it.overzoom.ordinainchat.resilience;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.overzoom.ordinainchat.exception.OpenAiUnavailableException;
+import it.overzoom.ordinainchat.resilience.CircuitBreaker.Outcome;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Protezione delle chiamate OpenAI: circuit breaker per endpoint, retry con
+ * backoff e jitter su 429/5xx e hedging (seconda richiesta dopo il p95) solo
+ * per le chiamate senza stato. Con il breaker aperto lancia
+ * {@link OpenAiUnavailableException} senza toccare la rete.
+ */
+@Component
+public class OpenAiResilience {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenAiResilience.class);
+    private static final int LATENCY_SAMPLES = 200;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final MeterRegistry registry;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ExecutorService hedgeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallMs;
+    private final long openSeconds;
+    private final int halfOpenCalls;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final boolean hedgeEnabled;
+    private final long hedgeMinDelayMs;
+
+    public OpenAiResilience(MeterRegistry registry,
+            @Value("${openai.resilience.breaker.window-size:20}") int windowSize,
+            @Value("${openai.resilience.breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${openai.resilience.breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+            @Value("${openai.resilience.breaker.slow-call-ms:20000}") long slowCallMs,
+            @Value("${openai.resilience.breaker.open-seconds:30}") long openSeconds,
+            @Value("${openai.resilience.breaker.half-open-calls:3}") int halfOpenCalls,
+            @Value("${openai.resilience.retry.max-attempts:3}") int maxAttempts,
+            @Value("${openai.resilience.retry.base-delay-ms:300}") long baseDelayMs,
+            @Value("${openai.resilience.retry.max-delay-ms:4000}") long maxDelayMs,
+            @Value("${openai.resilience.hedge.enabled:false}") boolean hedgeEnabled,
+            @Value("${openai.resilience.hedge.min-delay-ms:1500}") long hedgeMinDelayMs) {
+        this.registry = registry;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallMs = slowCallMs;
+        this.openSeconds = openSeconds;
+        this.halfOpenCalls = halfOpenCalls;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+    }
+
+    /**
+     * Esegue la chiamata verso l'endpoint indicato. {@code stateless}: la
+     * richiesta non scrive nella conversation, quindi si può ripetere anche
+     * dopo un timeout e duplicare con l'hedging.
+     */
+    public <T> T call(String endpoint, boolean stateless, Supplier<T> action) {
+        Endpoint ep = endpoint(endpoint);
+        for (int attempt = 1;; attempt++) {
+            if (!ep.breaker.tryAcquire()) {
+                ep.rejected.increment();
+                throw new OpenAiUnavailableException("Circuit breaker aperto per OpenAI " + endpoint);
+            }
+            long start = System.nanoTime();
+            try {
+                T result = (stateless && hedgeEnabled) ? hedged(ep, action) : action.get();
+                long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                ep.recordLatency(ms);
+                // risposta arrivata ma troppo lenta: per il breaker conta come guasto
+                ep.breaker.onResult(ms > slowCallMs ? Outcome.FAILURE : Outcome.SUCCESS);
+                return result;
+            } catch (RuntimeException e) {
+                long delay = onFailure(ep, e, stateless, attempt);
+                if (delay < 0)
+                    throw e;
+                ep.retries.increment();
+                log.warn("OpenAI {}: tentativo {} fallito ({}), riprovo tra {} ms", endpoint, attempt,
+                        e.getMessage(), delay);
+                sleep(delay);
+            }
+        }
+    }
+
+    public CircuitBreaker.State state(String endpoint) {
+        return endpoint(endpoint).breaker.state();
+    }
+
+    /** Registra l'esito sul breaker; ritorna l'attesa prima del retry o -1. */
+    private long onFailure(Endpoint ep, RuntimeException e, boolean stateless, int attempt) {
+        long retryAfterMs = 0;
+        boolean retryable;
+        if (e instanceof HttpStatusCodeException http) {
+            int status = http.getStatusCode().value();
+            boolean transientError = status == 429 || status >= 500;
+            ep.breaker.onResult(transientError ? Outcome.FAILURE : Outcome.IGNORED);
+            retryable = transientError;
+            retryAfterMs = retryAfterMs(http);
+        } else if (e instanceof ResourceAccessException) {
+            ep.breaker.onResult(Outcome.FAILURE);
+            // timeout con la conversation: OpenAI potrebbe aver già salvato il turno
+            retryable = stateless;
+        } else if (e instanceof OpenAiUnavailableException) {
+            ep.breaker.onResult(Outcome.IGNORED);
+            retryable = false;
+        } else {
+            ep.breaker.onResult(Outcome.FAILURE);
+            retryable = false;
+        }
+        if (!retryable || attempt >= maxAttempts || retryAfterMs > maxDelayMs)
+            return -1;
+        // full jitter: uniforme in [0, min(max, base * 2^(n-1))]
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(20, attempt - 1));
+        long jitter = ThreadLocalRandom.current().nextLong(cap + 1);
+        return Math.max(jitter, retryAfterMs);
+    }
+
+    private <T> T hedged(Endpoint ep, Supplier<T> action) {
+        CompletableFuture<T> primary = CompletableFuture.supplyAsync(action, hedgeExecutor);
+        long delay = ep.hedgeDelayMs(hedgeMinDelayMs);
+        if (delay < 0)
+            return await(primary);
+        try {
+            return primary.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException slow) {
+            // si continua con la seconda richiesta
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new OpenAiUnavailableException("Chiamata OpenAI interrotta", ie);
+        } catch (ExecutionException ee) {
+            throw unwrap(ee);
+        }
+
+        ep.hedgesLaunched.increment();
+        CompletableFuture<T> backup = CompletableFuture.supplyAsync(action, hedgeExecutor);
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        primary.whenComplete((r, err) -> {
+            if (err == null)
+                winner.complete(r);
+            else if (failed.incrementAndGet() == 2)
+                winner.completeExceptionally(err);
+        });
+        backup.whenComplete((r, err) -> {
+            if (err == null) {
+                if (winner.complete(r))
+                    ep.hedgesWon.increment();
+            } else if (failed.incrementAndGet() == 2) {
+                winner.completeExceptionally(err);
+            }
+        });
+        return await(winner);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new OpenAiUnavailableException("Chiamata OpenAI interrotta", ie);
+        } catch (ExecutionException ee) {
+            throw unwrap(ee);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        while (cause instanceof java.util.concurrent.CompletionException && cause.getCause() != null)
+            cause = cause.getCause();
+        return (cause instanceof RuntimeException re) ? re : new IllegalStateException(cause);
+    }
+
+    private static long retryAfterMs(HttpStatusCodeException http) {
+        if (http.getResponseHeaders() == null)
+            return 0;
+        String v = http.getResponseHeaders().getFirst("Retry-After");
+        if (v == null)
+            return 0;
+        try {
+            return (long) (Double.parseDouble(v.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new OpenAiUnavailableException("Retry OpenAI interrotto", ie);
+        }
+    }
+
+    private Endpoint endpoint(String name) {
+        return endpoints.computeIfAbsent(name, this::newEndpoint);
+    }
+
+    private Endpoint newEndpoint(String name) {
+        CircuitBreaker breaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold,
+                TimeUnit.SECONDS.toNanos(openSeconds), halfOpenCalls, to -> {
+                    log.warn("Circuit breaker OpenAI {} -> {}", name, to);
+                    registry.counter("openai.breaker.transitions", "endpoint", name, "state", to.name())
+                            .increment();
+                });
+        Gauge.builder("openai.breaker.state", breaker, b -> b.state().ordinal())
+                .description("0 = chiuso, 1 = semi-aperto, 2 = aperto")
+                .tag("endpoint", name)
+                .register(registry);
+        return new Endpoint(breaker,
+                registry.counter("openai.breaker.rejected", "endpoint", name),
+                registry.counter("openai.retries", "endpoint", name),
+                registry.counter("openai.hedges", "endpoint", name, "outcome", "launched"),
+                registry.counter("openai.hedges", "endpoint", name, "outcome", "won"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    private static final class Endpoint {
+        final CircuitBreaker breaker;
+        final Counter rejected;
+        final Counter retries;
+        final Counter hedgesLaunched;
+        final Counter hedgesWon;
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+        private int next;
+        private int size;
+
+        Endpoint(CircuitBreaker breaker, Counter rejected, Counter retries, Counter hedgesLaunched,
+                Counter hedgesWon) {
+            this.breaker = breaker;
+            this.rejected = rejected;
+            this.retries = retries;
+            this.hedgesLaunched = hedgesLaunched;
+            this.hedgesWon = hedgesWon;
+        }
+
+        synchronized void recordLatency(long ms) {
+            latencies[next] = ms;
+            next = (next + 1) % LATENCY_SAMPLES;
+            size = Math.min(LATENCY_SAMPLES, size + 1);
+        }
+
+        /** p95 delle ultime latenze (almeno minMs); -1 se i campioni sono pochi. */
+        synchronized long hedgeDelayMs(long minMs) {
+            if (size < MIN_HEDGE_SAMPLES)
+                return -1;
+            long[] copy = Arrays.copyOf(latencies, size);
+            Arrays.sort(copy);
+            return Math.max(minMs, copy[(int) Math.ceil(size * 0.95) - 1]);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package it.overzoom.ordinainchat.service;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.util.JsonUtils;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Risposte a template per i risultati di products_search (elenchi, freschezza,
+ * prezzi), senza un secondo giro sull'LLM. Se la domanda non rientra nei
+ * template ritorna vuoto e si passa a OpenAI come prima.
+ */
+@Service
+public class AnswerComposer {
+
+    private static final ZoneId ROME = ZoneId.of("Europe/Rome");
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("dd/MM", Locale.ITALY);
+
+    // pattern su testo normalizzato (TextUtils.normalize)
+    private static final Pattern OPEN_ENDED = Pattern.compile(
+            "\\b(consigli\\w*|meglio|differenz\\w*|ricett\\w*|cucin\\w*|come si|perche|quale scelgo|abbin\\w*"
+                    + "|quanto ne serve|quante persone|per quanti)\\b");
+    private static final Pattern LIST = Pattern.compile(
+            "\\b(cosa hai|che cosa hai|cosa avete|cosa c e|che c e|cosa ce|offert\\w*|promo\\w*|elenco|lista"
+                    + "|disponibil\\w*|mostra\\w*|fammi vedere|cosa proponi)\\b");
+    private static final Pattern FRESHNESS = Pattern.compile(
+            "\\b(fresc\\w*|surgelat\\w*|congelat\\w*|oggi|giornata|pescat\\w*)\\b");
+    private static final Pattern PRICE = Pattern.compile(
+            "\\b(quanto costa\\w*|quanto viene|quanto vengono|prezz\\w*|a quanto|costo|costano)\\b");
+    private static final Pattern TODAY = Pattern.compile("\\b(oggi|giornata)\\b");
+    // "oggi" riferito al pescato ("fresco di oggi"), non a offerte o promo
+    private static final Pattern CAUGHT = Pattern.compile("\\b(fresc\\w*|pescat\\w*)\\b");
+
+    private final RenderService render;
+    private final IntentService intents;
+    private final ProductService products;
+
+    public AnswerComposer(RenderService render, IntentService intents, ProductService products) {
+        this.render = render;
+        this.intents = intents;
+        this.products = products;
+    }
+
+    /** Risposta locale per il risultato di products_search, se la domanda lo permette. */
+    public Optional<String> compose(String userText, JsonNode args, McpProductPage page) {
+        String q = TextUtils.normalize(userText);
+        if (q.isEmpty() || OPEN_ENDED.matcher(q).find())
+            return Optional.empty();
+
+        List<McpProduct> items = page.items();
+        boolean hasText = args != null && args.hasNonNull("textSearch");
+        boolean askToday = TODAY.matcher(q).find();
+        LocalDate today = LocalDate.now(ROME);
+
+        // elenco solo se chiesto esplicitamente; il resto lo valuta l'LLM
+        if (LIST.matcher(q).find()) {
+            String heading = intents.headingForImplicitIntent(userText.toLowerCase(Locale.ITALY));
+            if (!askToday || !CAUGHT.matcher(q).find() || page.isEmpty())
+                return Optional.of(render.productsList(page, heading, products::cacheName));
+            // "fresco di oggi" = data di pesca di oggi (Europe/Rome), non solo FRESH;
+            // il filtro vede solo la pagina ricevuta
+            List<McpProduct> caughtToday = items.stream()
+                    .filter(p -> today.equals(catchDay(p.catchDate())))
+                    .toList();
+            if (caughtToday.isEmpty())
+                return Optional.of((page.total() != null && page.total() > items.size())
+                        ? "Tra i primi " + items.size() + " prodotti trovati nessuno risulta pescato oggi."
+                        : "Tra i prodotti disponibili nessuno risulta pescato oggi.");
+            return Optional.of(render.productsList(McpProductPage.of(caughtToday), heading, products::cacheName));
+        }
+        if (items.isEmpty())
+            return Optional.of("Al momento non trovo " + (hasText ? "\"" + args.get("textSearch").asText() + "\"" : "articoli")
+                    + " tra i prodotti disponibili.");
+
+        boolean askFresh = FRESHNESS.matcher(q).find();
+        boolean askPrice = PRICE.matcher(q).find();
+        if (!askFresh && !askPrice)
+            return Optional.empty();
+
+        List<String> lines = new ArrayList<>();
+        for (McpProduct p : items) {
+            String name = p.displayName();
+            if (name.isBlank())
+                continue;
+            products.cache(p);
+            StringBuilder sb = new StringBuilder(TextUtils.capitalizeWords(name)).append(":");
+            List<String> parts = new ArrayList<>();
+            if (askFresh)
+                parts.add(freshnessText(p, askToday, today));
+            if (askPrice || items.size() == 1) {
+                String price = priceText(p);
+                if (!price.isBlank())
+                    parts.add(price);
+            }
+            parts.removeIf(String::isBlank);
+            if (parts.isEmpty())
+                continue;
+            sb.append(" ").append(String.join(", ", parts));
+            lines.add(sb.toString());
+        }
+        if (lines.isEmpty())
+            return Optional.empty();
+        if (lines.size() == 1)
+            return Optional.of(lines.get(0) + ".");
+        StringBuilder out = new StringBuilder();
+        for (String l : lines)
+            out.append("• ").append(l).append("\n");
+        return Optional.of(out.toString().trim());
+    }
+
+    private String freshnessText(McpProduct p, boolean askToday, LocalDate today) {
+        String freshness = (p.freshness() == null) ? "" : p.freshness().trim();
+        LocalDate caught = catchDay(p.catchDate());
+        String base = "FROZEN".equalsIgnoreCase(freshness) ? "surgelato"
+                : "FRESH".equalsIgnoreCase(freshness) ? "fresco" : "";
+        if (caught != null) {
+            String when = caught.equals(today) ? "pescato oggi"
+                    : caught.equals(today.minusDays(1)) ? "pescato ieri"
+                            : "pescato il " + caught.format(DAY);
+            return base.isBlank() ? when : base + ", " + when;
+        }
+        if (askToday && "FRESH".equalsIgnoreCase(freshness))
+            return "fresco (data di pesca non indicata)";
+        return base;
+    }
+
+    private String priceText(McpProduct p) {
+        if (p.priceKg() != null)
+            return JsonUtils.formatPrice(p.priceKg(), Locale.ITALY) + "/kg";
+        if (p.pricePiece() != null)
+            return JsonUtils.formatPrice(p.pricePiece(), Locale.ITALY) + "/pz";
+        String eur = JsonUtils.formatPrice(p.priceEur(), Locale.ITALY);
+        return eur.isBlank() ? "" : eur + "/kg";
+    }
+
+    /** catchDate come data locale Europe/Rome (accetta yyyy-MM-dd o ISO con offset). */
+    static LocalDate catchDay(String raw) {
+        if (raw == null || raw.isBlank())
+            return null;
+        try {
+            if (raw.length() > 10)
+                return OffsetDateTime.parse(raw).atZoneSameInstant(ROME).toLocalDate();
+            return LocalDate.parse(raw);
+        } catch (Exception e) {
+            try {
+                return LocalDate.parse(raw.substring(0, Math.min(10, raw.length())));
+            } catch (Exception ignore) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package it.overzoom.ordinainchat.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.overzoom.ordinainchat.util.AliasLexicon;
+
+/**
+ * Lessico dei sinonimi compilato sul catalogo: per ogni termine, la forma
+ * usata nei nomi dei prodotti (il sinonimo che compare in più nomi) e gli
+ * ordinali dei prodotti che la contengono. Ordinali di {@link CatalogTable}.
+ */
+final class CatalogAliasIndex {
+
+    static final CatalogAliasIndex EMPTY = new CatalogAliasIndex(Map.of(), Map.of(), 0);
+
+    /** Esito di {@link #resolve}: id trovato (null se nessuno o ambiguo) e query riscritta. */
+    record Match(Long id, String rewritten) {
+    }
+
+    private final Map<String, String> catalogForm;
+    private final Map<String, int[]> ordinals;
+    private final int maxTokens;
+
+    private CatalogAliasIndex(Map<String, String> catalogForm, Map<String, int[]> ordinals, int maxTokens) {
+        this.catalogForm = catalogForm;
+        this.ordinals = ordinals;
+        this.maxTokens = maxTokens;
+    }
+
+    static CatalogAliasIndex build(CatalogTable table, AliasLexicon lexicon) {
+        if (lexicon.isEmpty() || table.size() == 0)
+            return EMPTY;
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int ord = 0; ord < table.size(); ord++)
+            for (String t : table.tokens(ord)) {
+                List<Integer> l = postings.computeIfAbsent(t, k -> new ArrayList<>());
+                if (l.isEmpty() || l.get(l.size() - 1) != ord)
+                    l.add(ord);
+            }
+
+        Map<String, String> forms = new HashMap<>();
+        Map<String, int[]> ords = new HashMap<>();
+        int maxTokens = 0;
+        for (List<String> group : lexicon.groups()) {
+            // la forma del catalogo è il sinonimo che compare in più nomi
+            String best = null;
+            int[] bestOrds = new int[0];
+            for (String term : group) {
+                int[] found = containing(table, postings, term);
+                if (found.length > bestOrds.length) {
+                    best = term;
+                    bestOrds = found;
+                }
+            }
+            if (best == null)
+                continue;
+            for (String term : group) {
+                if (term.equals(best))
+                    continue;
+                forms.put(term, best);
+                ords.put(term, bestOrds);
+                maxTokens = Math.max(maxTokens, term.split(" ").length);
+            }
+        }
+        return new CatalogAliasIndex(Map.copyOf(forms), Map.copyOf(ords), maxTokens);
+    }
+
+    int size() {
+        return catalogForm.size();
+    }
+
+    /**
+     * Cerca nella query (normalizzata) il primo termine del lessico, il più
+     * lungo a parità di posizione, e lo sostituisce con la forma del catalogo.
+     * Se la riscrittura è un nome esatto vince quello; altrimenti il prodotto
+     * è trovato se uno solo, tra quelli con la forma del catalogo, contiene
+     * anche tutte le altre parole della query. Null se nessun termine della
+     * query è nel lessico.
+     */
+    Match resolve(String query, CatalogTable table) {
+        if (catalogForm.isEmpty() || query.isEmpty())
+            return null;
+        String[] tokens = query.split(" ");
+        for (int start = 0; start < tokens.length; start++) {
+            for (int len = Math.min(maxTokens, tokens.length - start); len >= 1; len--) {
+                String term = String.join(" ", Arrays.copyOfRange(tokens, start, start + len));
+                String form = catalogForm.get(term);
+                if (form == null)
+                    continue;
+                List<String> before = Arrays.asList(tokens).subList(0, start);
+                List<String> after = Arrays.asList(tokens).subList(start + len, tokens.length);
+                List<String> parts = new ArrayList<>(before);
+                parts.add(form);
+                parts.addAll(after);
+                String rewritten = String.join(" ", parts);
+                int exact = table.ordinalByNormalized(rewritten);
+                if (exact >= 0)
+                    return new Match(table.id(exact), rewritten);
+
+                Long found = null;
+                for (int ord : ordinals.get(term)) {
+                    List<String> nameTokens = table.tokens(ord);
+                    if (!nameTokens.containsAll(before) || !nameTokens.containsAll(after))
+                        continue;
+                    if (found != null)
+                        return new Match(null, rewritten); // ambiguo
+                    found = table.id(ord);
+                }
+                return new Match(found, rewritten);
+            }
+        }
+        return null;
+    }
+
+    /** Ordinali dei nomi che contengono la frase {@code term}, a confini di parola. */
+    private static int[] containing(CatalogTable table, Map<String, List<Integer>> postings, String term) {
+        String first = term.split(" ", 2)[0];
+        List<Integer> candidates = postings.getOrDefault(first, List.of());
+        String needle = " " + term + " ";
+        return candidates.stream()
+                .mapToInt(Integer::intValue)
+                .filter(ord -> (" " + table.normalized(ord) + " ").contains(needle))
+                .toArray();
+    }
+}
@@ -0,0 +1,23 @@
+package it.overzoom.ordinainchat.service;
+
+import java.util.Map;
+import java.util.Set;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+
+/**
+ * Pubblicato da {@link ProductCatalogService} quando un refresh trova
+ * prodotti nuovi o modificati ({@code changed}) o spariti ({@code removed}).
+ * {@code version} è la versione dello {@link CatalogSnapshot} che li contiene.
+ */
+public record CatalogChangedEvent(long version, Map<Long, McpProduct> changed, Set<Long> removed) {
+
+    public CatalogChangedEvent {
+        changed = Map.copyOf(changed);
+        removed = Set.copyOf(removed);
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && removed.isEmpty();
+    }
+}
@@ -0,0 +1,39 @@
+package it.overzoom.ordinainchat.service;
+
+import java.time.Instant;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stato del catalogo in /actuator/health: DOWN se vuoto, STALE (non pesa
+ * sull'aggregato) se l'ultimo sync riuscito è più vecchio di stale-after-ms.
+ */
+@Component("catalog")
+public class CatalogHealthIndicator implements HealthIndicator {
+
+    private static final Status STALE = new Status("STALE", "Catalogo non aggiornato");
+
+    private final ProductCatalogService catalog;
+
+    public CatalogHealthIndicator(ProductCatalogService catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public Health health() {
+        CatalogSnapshot snapshot = catalog.snapshot();
+        Instant lastSync = catalog.lastSyncAt();
+        boolean stale = catalog.isStale();
+
+        Health.Builder b = snapshot.isEmpty() ? Health.down() : stale ? Health.status(STALE) : Health.up();
+        b.withDetail("version", snapshot.version())
+                .withDetail("size", snapshot.size())
+                .withDetail("lastSyncAt", lastSync == null ? "mai" : lastSync.toString());
+        if (stale && lastSync != null)
+            b.withDetail("staleSince", lastSync.toString());
+        return b.build();
+    }
+}
@@ -0,0 +1,224 @@
+package it.overzoom.ordinainchat.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.util.SpellDictionary;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Indici a bitset sugli attributi dello snapshot per rispondere in locale ai
+ * filtri di products_search. Un bit per prodotto, nell'ordine di
+ * {@link CatalogTable}; i filtri si combinano in AND. Una parola
+ * di textSearch che non trova niente si riprova corretta dal dizionario.
+ */
+final class CatalogSearchIndex {
+
+    /** Argomenti che sappiamo valutare; con qualsiasi altro si va su MCP. */
+    static final Set<String> SUPPORTED = Set.of("textSearch", "freshness", "source", "maxPrice", "onlyOnOffer",
+            "originCountry", "faoAreaPrefix", "originAreaLike", "landingPortLike", "page", "size");
+
+    private final CatalogTable table;
+    private final SpellDictionary spelling;
+    private final int size;
+    private final Map<String, BitSet> freshness = new HashMap<>();
+    private final Map<String, BitSet> source = new HashMap<>();
+    private final Map<String, BitSet> country = new HashMap<>();
+    private final Map<String, BitSet> faoArea = new HashMap<>();
+    private final Map<String, BitSet> originArea = new HashMap<>();
+    private final Map<String, BitSet> landingPort = new HashMap<>();
+    private final BitSet onOffer = new BitSet();
+    // ordinali con prezzo, in ordine crescente di prezzo
+    private final int[] byPrice;
+    // nome + descrizione normalizzati, per textSearch
+    private final String[] text;
+
+    CatalogSearchIndex(CatalogTable table, SpellDictionary spelling) {
+        this(table, spelling, null, null);
+    }
+
+    /**
+     * Indice per la versione successiva: il testo normalizzato delle righe
+     * con stesso nome e stessa descrizione ({@code from}, come in
+     * {@link CatalogTable.Change}) si riprende da {@code previous}.
+     */
+    CatalogSearchIndex(CatalogTable table, SpellDictionary spelling, CatalogSearchIndex previous, int[] from) {
+        this.table = table;
+        this.spelling = spelling;
+        this.size = table.size();
+        this.text = new String[size];
+        List<Integer> priced = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            McpProduct p = table.product(i);
+            add(freshness, upper(p.freshness()), i);
+            add(source, upper(p.source()), i);
+            add(country, upper(p.originCountry()), i);
+            add(faoArea, trim(p.faoArea()), i);
+            add(originArea, lower(p.originArea()), i);
+            add(landingPort, lower(p.landingPort()), i);
+            if (table.has(i, CatalogTable.ON_OFFER))
+                onOffer.set(i);
+            if (table.price(i) != null)
+                priced.add(i);
+            int old = (from == null) ? -1 : from[i];
+            if (old >= 0 && Objects.equals(previous.table.product(old).description(), p.description())) {
+                text[i] = previous.text[old];
+            } else {
+                String desc = TextUtils.normalize(p.description());
+                text[i] = desc.isEmpty() ? table.normalized(i) : table.normalized(i) + " " + desc;
+            }
+        }
+        priced.sort(Comparator.comparing(table::price));
+        this.byPrice = priced.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Pagina di risultati, o vuoto se gli argomenti chiedono qualcosa che non sappiamo valutare. */
+    Optional<McpProductPage> search(JsonNode args) {
+        BitSet hits = new BitSet(size);
+        hits.set(0, size);
+        if (args != null) {
+            for (Iterator<String> it = args.fieldNames(); it.hasNext();) {
+                String k = it.next();
+                if (!SUPPORTED.contains(k) && !args.get(k).isNull()
+                        && !(args.get(k).isBoolean() && !args.get(k).asBoolean()))
+                    return Optional.empty();
+            }
+            String f = text(args, "freshness");
+            if (f != null)
+                hits.and(exact(freshness, f.toUpperCase(Locale.ROOT)));
+            String src = text(args, "source");
+            if (src != null)
+                hits.and(exact(source, src.toUpperCase(Locale.ROOT)));
+            String c = text(args, "originCountry");
+            if (c != null)
+                hits.and(exact(country, c.toUpperCase(Locale.ROOT)));
+            String fao = text(args, "faoAreaPrefix");
+            if (fao != null)
+                hits.and(matching(faoArea, v -> v.startsWith(fao)));
+            String area = text(args, "originAreaLike");
+            if (area != null)
+                hits.and(like(originArea, area));
+            String port = text(args, "landingPortLike");
+            if (port != null)
+                hits.and(like(landingPort, port));
+            if (args.path("onlyOnOffer").asBoolean(false))
+                hits.and(onOffer);
+            if (args.hasNonNull("maxPrice"))
+                hits.and(priceAtMost(args.get("maxPrice").decimalValue()));
+            String q = text(args, "textSearch");
+            if (q != null)
+                filterText(hits, TextUtils.normalize(q));
+        }
+
+        int pageNo = Math.max(0, (args == null) ? 0 : args.path("page").asInt(0));
+        int pageSize = Math.max(1, (args == null) ? 10 : args.path("size").asInt(10));
+        long total = hits.cardinality();
+        List<McpProduct> items = new ArrayList<>(Math.min(pageSize, (int) total));
+        long skip = (long) pageNo * pageSize; // page e size arrivano dal modello: niente overflow
+        for (int i = hits.nextSetBit(0); i >= 0 && items.size() < pageSize; i = hits.nextSetBit(i + 1)) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            items.add(table.product(i));
+        }
+        return Optional.of(new McpProductPage(items, pageNo, pageSize, total, List.of(), null));
+    }
+
+    private BitSet priceAtMost(BigDecimal max) {
+        BitSet out = new BitSet(size);
+        for (int ord : byPrice) {
+            if (table.price(ord).compareTo(max) > 0)
+                break;
+            out.set(ord);
+        }
+        return out;
+    }
+
+    // come un LIKE: ogni parola della query dentro nome o descrizione
+    private void filterText(BitSet hits, String q) {
+        if (q.isEmpty())
+            return;
+        for (String w : q.split(" ")) {
+            BitSet kept = containing(hits, w);
+            if (kept.isEmpty()) {
+                String fixed = spelling.correct(w);
+                if (fixed != null && !fixed.equals(w))
+                    kept = containing(hits, fixed);
+            }
+            hits.and(kept);
+        }
+    }
+
+    private BitSet containing(BitSet hits, String word) {
+        BitSet out = new BitSet(size);
+        for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1))
+            if (text[i].contains(word))
+                out.set(i);
+        return out;
+    }
+
+    /** "bari|brindisi": valori che contengono almeno una delle alternative. */
+    private static BitSet like(Map<String, BitSet> index, String pattern) {
+        String[] alts = pattern.toLowerCase(Locale.ITALY).split("\\|");
+        return matching(index, v -> {
+            for (String a : alts)
+                if (!a.isBlank() && v.contains(a.trim()))
+                    return true;
+            return false;
+        });
+    }
+
+    private static BitSet matching(Map<String, BitSet> index, java.util.function.Predicate<String> test) {
+        BitSet out = new BitSet();
+        index.forEach((v, bits) -> {
+            if (test.test(v))
+                out.or(bits);
+        });
+        return out;
+    }
+
+    private static BitSet exact(Map<String, BitSet> index, String value) {
+        BitSet b = index.get(value);
+        return (b == null) ? new BitSet() : b;
+    }
+
+    private static void add(Map<String, BitSet> index, String value, int ord) {
+        if (value != null && !value.isEmpty())
+            index.computeIfAbsent(value, k -> new BitSet()).set(ord);
+    }
+
+    private static String text(JsonNode args, String field) {
+        JsonNode n = args.get(field);
+        if (n == null || n.isNull())
+            return null;
+        String v = n.asText("").trim();
+        return v.isEmpty() ? null : v;
+    }
+
+    private static String upper(String s) {
+        return (s == null) ? null : s.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static String lower(String s) {
+        return (s == null) ? null : s.trim().toLowerCase(Locale.ITALY);
+    }
+
+    private static String trim(String s) {
+        return (s == null) ? null : s.trim();
+    }
+}
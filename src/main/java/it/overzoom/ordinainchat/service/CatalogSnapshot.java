@@ -0,0 +1,277 @@
+package it.overzoom.ordinainchat.service;
+
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.util.AliasLexicon;
+import it.overzoom.ordinainchat.util.SpellDictionary;
+import it.overzoom.ordinainchat.util.TextUtils;
+import it.overzoom.ordinainchat.util.TrigramIndex;
+
+/**
+ * Vista immutabile del catalogo a una certa versione. Si costruisce a parte e
+ * si pubblica con un solo swap di riferimento: i lettori non prendono lock e
+ * non vedono mai un catalogo a metà. L'indice di trigrammi per la ricerca
+ * fuzzy, il correttore ortografico sulle parole dei nomi e gli indici dei
+ * filtri di products_search si costruiscono insieme allo snapshot. Una nuova
+ * versione parte da quella precedente: si rielaborano solo le righe nuove o
+ * rinominate e, se i nomi non cambiano, gli indici sui nomi si riusano. Il
+ * lessico dei sinonimi regionali passa da una versione all'altra e si compila
+ * sui nomi del catalogo.
+ */
+public final class CatalogSnapshot {
+
+    public static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, Instant.EPOCH, CatalogTable.EMPTY,
+            AliasLexicon.EMPTY);
+
+    /** Prodotto con nome pulito e forma normalizzata (vista su una riga della tabella). */
+    public record Entry(McpProduct product, String name, String normalized) {
+
+        public long id() {
+            return product.id();
+        }
+
+        public List<String> tokens() {
+            return normalized.isEmpty() ? List.of() : List.of(normalized.split(" "));
+        }
+    }
+
+    private final long version;
+    private final Instant builtAt;
+    // prodotti in colonne; l'ordinale è anche quello degli indici
+    private final CatalogTable table;
+    private final TrigramIndex nameIndex;
+    private final SpellDictionary spelling;
+    private final CatalogSearchIndex searchIndex;
+    private final AliasLexicon lexicon;
+    private final CatalogAliasIndex aliasIndex;
+    // parola dei nomi → numero di prodotti che la contengono, per il correttore
+    private final Map<String, Integer> vocabulary;
+
+    private CatalogSnapshot(long version, Instant builtAt, CatalogTable table, AliasLexicon lexicon) {
+        this.version = version;
+        this.builtAt = builtAt;
+        this.table = table;
+        List<String> names = new ArrayList<>(table.size());
+        Map<String, Integer> words = new HashMap<>();
+        for (int ord = 0; ord < table.size(); ord++) {
+            names.add(table.name(ord));
+            count(words, table, ord, 1);
+        }
+        this.vocabulary = words;
+        this.nameIndex = TrigramIndex.build(names);
+        this.spelling = SpellDictionary.build(vocabulary);
+        this.searchIndex = new CatalogSearchIndex(table, spelling);
+        this.lexicon = lexicon;
+        this.aliasIndex = CatalogAliasIndex.build(table, lexicon);
+    }
+
+    // versione successiva: si rielaborano solo le righe nuove o rinominate;
+    // se i nomi restano gli stessi agli stessi ordinali gli indici sui nomi si riusano
+    private CatalogSnapshot(CatalogSnapshot previous, long version, CatalogTable.Change change) {
+        this.version = version;
+        this.builtAt = Instant.now();
+        this.table = change.table();
+        this.lexicon = previous.lexicon;
+        int[] from = change.from();
+        if (change.sameNames()) {
+            this.vocabulary = previous.vocabulary;
+            this.nameIndex = previous.nameIndex;
+            this.spelling = previous.spelling;
+            this.aliasIndex = previous.aliasIndex;
+        } else {
+            Map<String, Integer> words = new HashMap<>(previous.vocabulary);
+            boolean[] carried = new boolean[previous.table.size()];
+            List<String> names = new ArrayList<>(table.size());
+            for (int ord = 0; ord < table.size(); ord++) {
+                names.add(table.name(ord));
+                if (from[ord] >= 0)
+                    carried[from[ord]] = true;
+                else
+                    count(words, table, ord, 1);
+            }
+            for (int old = 0; old < carried.length; old++)
+                if (!carried[old])
+                    count(words, previous.table, old, -1);
+            this.vocabulary = words;
+            this.nameIndex = previous.nameIndex.update(from, names);
+            this.spelling = previous.spelling.update(vocabulary);
+            this.aliasIndex = CatalogAliasIndex.build(table, lexicon);
+        }
+        this.searchIndex = new CatalogSearchIndex(table, spelling, previous.searchIndex, from);
+    }
+
+    // stesso catalogo con un altro lessico: si ricompila solo l'indice dei sinonimi
+    private CatalogSnapshot(CatalogSnapshot base, long version, AliasLexicon lexicon) {
+        this.version = version;
+        this.builtAt = Instant.now();
+        this.table = base.table;
+        this.nameIndex = base.nameIndex;
+        this.spelling = base.spelling;
+        this.searchIndex = base.searchIndex;
+        this.lexicon = lexicon;
+        this.aliasIndex = CatalogAliasIndex.build(table, lexicon);
+        this.vocabulary = base.vocabulary;
+    }
+
+    /** Snapshot completo: i prodotti senza id o senza nome vengono scartati. */
+    public static CatalogSnapshot of(long version, Collection<McpProduct> products) {
+        return new CatalogSnapshot(version, Instant.now(), CatalogTable.build(products), AliasLexicon.EMPTY);
+    }
+
+    /** Nuova versione con i prodotti cambiati sostituiti e i rimossi tolti. */
+    public CatalogSnapshot with(long newVersion, Collection<McpProduct> changed, Collection<Long> removed) {
+        return new CatalogSnapshot(this, newVersion, table.with(changed, removed));
+    }
+
+    /** Nuova versione con un altro lessico dei sinonimi, stessi prodotti. */
+    public CatalogSnapshot withAliases(long newVersion, AliasLexicon aliases) {
+        return new CatalogSnapshot(this, newVersion, aliases);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public Instant builtAt() {
+        return builtAt;
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public boolean isEmpty() {
+        return table.size() == 0;
+    }
+
+    public boolean contains(long id) {
+        return table.ordinal(id) >= 0;
+    }
+
+    public Entry entry(long id) {
+        int ord = table.ordinal(id);
+        return (ord < 0) ? null : entryAt(ord);
+    }
+
+    public McpProduct product(long id) {
+        int ord = table.ordinal(id);
+        return (ord < 0) ? null : table.product(ord);
+    }
+
+    public String nameOf(long id) {
+        int ord = table.ordinal(id);
+        return (ord < 0) ? null : table.name(ord);
+    }
+
+    /** Id per nome già normalizzato con {@link TextUtils#normalize}. */
+    public Long idByNormalized(String normalized) {
+        int ord = table.ordinalByNormalized(normalized);
+        return (ord < 0) ? null : table.id(ord);
+    }
+
+    /**
+     * Id del nome più simile secondo {@link TextUtils#similarity}, se almeno
+     * {@code minScore}; candidati dall'indice di trigrammi invece di scorrere
+     * tutto il catalogo.
+     */
+    public Long fuzzyMatch(String name, double minScore) {
+        int ord = nameIndex.bestMatch(name, minScore);
+        return (ord < 0) ? null : table.id(ord);
+    }
+
+    /**
+     * {@code name} normalizzato, con le parole che non compaiono in nessun
+     * nome sostituite da quella del catalogo più vicina ("spigla" → "spigola").
+     */
+    public String correctSpelling(String name) {
+        return spelling.correctPhrase(name);
+    }
+
+    /** Come {@link #idByNormalized}, ma dopo aver corretto gli errori di battitura. */
+    public Long idByCorrectedName(String name) {
+        return idByNormalized(spelling.correctPhrase(name));
+    }
+
+    /** Termini del lessico che il catalogo sa ricondurre a un proprio nome. */
+    public int aliasCount() {
+        return aliasIndex.size();
+    }
+
+    /**
+     * Nome risolto col lessico dei sinonimi ("spinola fresca" → "spigola
+     * fresca"): null se nessuna parola del nome è un sinonimo noto, altrimenti
+     * l'esito con id null se il prodotto resta ambiguo.
+     */
+    CatalogAliasIndex.Match resolveAlias(String name) {
+        return aliasIndex.resolve(TextUtils.normalize(name), table);
+    }
+
+    /** {@code name} normalizzato con i sinonimi sostituiti dalla forma del catalogo. */
+    public String expandAliases(String name) {
+        String norm = TextUtils.normalize(name);
+        CatalogAliasIndex.Match m = aliasIndex.resolve(norm, table);
+        return (m == null) ? norm : m.rewritten();
+    }
+
+    /**
+     * products_search valutata sullo snapshot (filtri in AND, ordine per nome).
+     * Vuoto se gli argomenti contengono filtri che solo il server sa valutare,
+     * come {@code availableOnly}.
+     */
+    public Optional<McpProductPage> search(JsonNode args) {
+        Optional<McpProductPage> page = searchIndex.search(args);
+        // niente col testo dell'utente: si riprova coi nomi del catalogo ("alici" → "acciughe")
+        if (page.isPresent() && page.get().isEmpty() && args instanceof ObjectNode o && o.hasNonNull("textSearch")) {
+            String text = o.get("textSearch").asText();
+            String expanded = expandAliases(text);
+            if (!expanded.equals(TextUtils.normalize(text)))
+                return searchIndex.search(o.deepCopy().put("textSearch", expanded));
+        }
+        return page;
+    }
+
+    /** Prodotti in ordine di nome (viste create a richiesta). */
+    public List<Entry> entries() {
+        return new AbstractList<>() {
+            @Override
+            public Entry get(int ord) {
+                return entryAt(ord);
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+
+    public Collection<Long> ids() {
+        List<Long> ids = new ArrayList<>(table.size());
+        for (int ord = 0; ord < table.size(); ord++)
+            ids.add(table.id(ord));
+        return ids;
+    }
+
+    // parole distinte del nome alla riga ord, contate una volta per prodotto
+    private static void count(Map<String, Integer> words, CatalogTable table, int ord, int delta) {
+        for (String t : new HashSet<>(table.tokens(ord)))
+            words.merge(t, delta, (a, b) -> (a + b == 0) ? null : a + b);
+    }
+
+    private Entry entryAt(int ord) {
+        return new Entry(table.product(ord), table.name(ord), table.normalized(ord));
+    }
+}
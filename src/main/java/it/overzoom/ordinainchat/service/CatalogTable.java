@@ -0,0 +1,290 @@
+package it.overzoom.ordinainchat.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.util.LongIntHashMap;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Prodotti del catalogo in colonne parallele indicizzate per ordinale
+ * (ordine per nome normalizzato, poi id). L'id porta all'ordinale con una
+ * tabella long → int a indirizzamento aperto, il nome normalizzato con una
+ * seconda tabella di int: nessun oggetto per entry, nessun Long.
+ *
+ * <p>
+ * Le stringhe si condividono: il nome pulito è la stessa istanza del nome
+ * originale quando coincidono, idem il normalizzato; gli attributi ripetuti
+ * (FRESH, WILD_CAUGHT, IT, zona FAO, porto...) passano da un pool, così ogni
+ * valore distinto esiste una volta sola. Immutabile dopo la costruzione.
+ */
+final class CatalogTable {
+
+    static final byte ON_OFFER = 1;
+    static final byte FRESH = 2;
+    static final byte FROZEN = 4;
+    static final byte BY_PIECE = 8;
+
+    private record Row(McpProduct product, String name, String normalized) {
+    }
+
+    private static final Comparator<Row> ROW_ORDER = Comparator.comparing(Row::normalized)
+            .thenComparingLong(r -> r.product().id());
+
+    static final CatalogTable EMPTY = build(List.of());
+
+    private final long[] ids;
+    private final McpProduct[] products;
+    private final String[] names;
+    private final String[] normalized;
+    private final BigDecimal[] prices;
+    private final byte[] flags;
+    private final LongIntHashMap slotById;
+    // ordinale + 1 per hash del nome normalizzato (0 = vuoto), linear probing
+    private final int[] nameSlots;
+    // valori distinti degli attributi ripetuti, ripreso dalla versione successiva
+    private final Map<String, String> pool;
+
+    private CatalogTable(McpProduct[] products, String[] names, String[] normalized, Map<String, String> pool) {
+        int n = products.length;
+        this.products = products;
+        this.pool = pool;
+        this.names = names;
+        this.normalized = normalized;
+        this.ids = new long[n];
+        this.prices = new BigDecimal[n];
+        this.flags = new byte[n];
+        this.slotById = new LongIntHashMap(n);
+        this.nameSlots = new int[Integer.highestOneBit(Math.max(2, n) * 2 - 1) << 1];
+        for (int ord = 0; ord < n; ord++) {
+            McpProduct p = products[ord];
+            ids[ord] = p.id();
+            prices[ord] = p.referencePrice();
+            flags[ord] = flagsOf(p);
+            slotById.put(p.id(), ord);
+            // a parità di nome resta il primo (id più basso)
+            if (ordinalByNormalized(normalized[ord]) < 0)
+                nameSlots[freeNameSlot(normalized[ord])] = ord + 1;
+        }
+    }
+
+    /**
+     * Esito di {@link #with}: {@code from[ord]} è l'ordinale nella tabella
+     * precedente della riga con lo stesso id e lo stesso nome normalizzato, -1
+     * per le righe nuove o rinominate; le righe portate avanti restano
+     * nell'ordine di prima. {@code sameNames}: stessi nomi agli stessi ordinali.
+     */
+    record Change(CatalogTable table, int[] from, boolean sameNames) {
+    }
+
+    /** Tabella dai prodotti: senza id o senza nome si scartano, con id ripetuto vince l'ultimo. */
+    static CatalogTable build(Collection<McpProduct> source) {
+        List<McpProduct> unique = unique(source);
+        int n = unique.size();
+        Map<String, String> pool = new HashMap<>();
+        Row[] rows = new Row[n];
+        for (int i = 0; i < n; i++)
+            rows[i] = row(unique.get(i), pool);
+        Arrays.sort(rows, ROW_ORDER);
+        return from(rows, pool);
+    }
+
+    /**
+     * Nuova tabella con i prodotti cambiati sostituiti e i rimossi tolti. Le
+     * righe non toccate si portano avanti così come sono (già normalizzate e in
+     * ordine); si normalizzano e ordinano solo i cambiati, poi si fondono.
+     */
+    Change with(Collection<McpProduct> changed, Collection<Long> removed) {
+        List<McpProduct> fresh = unique(changed);
+        LongIntHashMap skip = new LongIntHashMap(fresh.size() + removed.size());
+        for (McpProduct p : fresh)
+            skip.put(p.id(), 0);
+        for (Long id : removed)
+            if (id != null && id > 0)
+                skip.put(id, 1);
+
+        Map<String, String> nextPool = new HashMap<>(pool);
+        List<Row> added = new ArrayList<>(fresh.size());
+        for (McpProduct p : fresh)
+            if (skip.get(p.id()) == 0) // cambiato e poi rimosso: fuori
+                added.add(row(p, nextPool));
+        added.sort(ROW_ORDER);
+
+        List<Row> merged = new ArrayList<>(size() + added.size());
+        List<Integer> from = new ArrayList<>(size() + added.size());
+        int a = 0;
+        for (int ord = 0; ord < size(); ord++) {
+            if (skip.containsKey(ids[ord]))
+                continue;
+            Row kept = new Row(products[ord], names[ord], normalized[ord]);
+            for (; a < added.size() && ROW_ORDER.compare(added.get(a), kept) < 0; a++) {
+                merged.add(added.get(a));
+                from.add(sameName(added.get(a)));
+            }
+            merged.add(kept);
+            from.add(ord);
+        }
+        for (; a < added.size(); a++) {
+            merged.add(added.get(a));
+            from.add(sameName(added.get(a)));
+        }
+
+        int[] fromOrd = from.stream().mapToInt(Integer::intValue).toArray();
+        boolean sameNames = fromOrd.length == size();
+        for (int ord = 0; sameNames && ord < fromOrd.length; ord++)
+            sameNames = fromOrd[ord] == ord;
+        return new Change(from(merged.toArray(Row[]::new), nextPool), fromOrd, sameNames);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /** Ordinale dell'id, -1 se non c'è. */
+    int ordinal(long id) {
+        return slotById.get(id);
+    }
+
+    /** Ordinale del nome già normalizzato, -1 se non c'è. */
+    int ordinalByNormalized(String norm) {
+        if (norm == null)
+            return -1;
+        int mask = nameSlots.length - 1;
+        for (int i = mix(norm.hashCode()) & mask;; i = (i + 1) & mask) {
+            int slot = nameSlots[i];
+            if (slot == 0)
+                return -1;
+            if (normalized[slot - 1].equals(norm))
+                return slot - 1;
+        }
+    }
+
+    long id(int ord) {
+        return ids[ord];
+    }
+
+    McpProduct product(int ord) {
+        return products[ord];
+    }
+
+    String name(int ord) {
+        return names[ord];
+    }
+
+    String normalized(int ord) {
+        return normalized[ord];
+    }
+
+    List<String> tokens(int ord) {
+        String norm = normalized[ord];
+        return norm.isEmpty() ? List.of() : List.of(norm.split(" "));
+    }
+
+    /** Prezzo di riferimento ({@link McpProduct#referencePrice()}), null se manca. */
+    BigDecimal price(int ord) {
+        return prices[ord];
+    }
+
+    boolean has(int ord, byte flag) {
+        return (flags[ord] & flag) != 0;
+    }
+
+    private int freeNameSlot(String norm) {
+        int mask = nameSlots.length - 1;
+        int i = mix(norm.hashCode()) & mask;
+        while (nameSlots[i] != 0)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    // ordinale del prodotto se c'era già con lo stesso nome normalizzato, altrimenti -1
+    private int sameName(Row r) {
+        int old = ordinal(r.product().id());
+        return (old >= 0 && normalized[old].equals(r.normalized())) ? old : -1;
+    }
+
+    private static List<McpProduct> unique(Collection<McpProduct> source) {
+        LongIntHashMap seen = new LongIntHashMap(source.size());
+        List<McpProduct> unique = new ArrayList<>(source.size());
+        for (McpProduct p : source) {
+            if (p == null || p.id() <= 0 || p.displayName().isBlank())
+                continue;
+            int at = seen.get(p.id());
+            if (at >= 0) {
+                unique.set(at, p);
+            } else {
+                seen.put(p.id(), unique.size());
+                unique.add(p);
+            }
+        }
+        return unique;
+    }
+
+    // riga con attributi dal pool e nomi pulito e normalizzato che condividono l'istanza se uguali
+    private static Row row(McpProduct source, Map<String, String> pool) {
+        McpProduct p = pooled(source, pool);
+        String name = p.displayName();
+        if (name.equals(p.name()))
+            name = p.name();
+        String norm = TextUtils.normalize(name);
+        return new Row(p, name, norm.equals(name) ? name : norm);
+    }
+
+    private static CatalogTable from(Row[] rows, Map<String, String> pool) {
+        int n = rows.length;
+        McpProduct[] products = new McpProduct[n];
+        String[] names = new String[n];
+        String[] normalized = new String[n];
+        for (int ord = 0; ord < n; ord++) {
+            products[ord] = rows[ord].product();
+            names[ord] = rows[ord].name();
+            normalized[ord] = rows[ord].normalized();
+        }
+        return new CatalogTable(products, names, normalized, pool);
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static byte flagsOf(McpProduct p) {
+        byte f = 0;
+        if (Boolean.TRUE.equals(p.onOffer()))
+            f |= ON_OFFER;
+        if ("FRESH".equalsIgnoreCase(p.freshness()))
+            f |= FRESH;
+        else if ("FROZEN".equalsIgnoreCase(p.freshness()))
+            f |= FROZEN;
+        if (p.soldByPiece())
+            f |= BY_PIECE;
+        return f;
+    }
+
+    /** Stesso prodotto con gli attributi ripetuti presi dal pool (o lui stesso se lo sono già). */
+    private static McpProduct pooled(McpProduct p, Map<String, String> pool) {
+        String freshness = intern(pool, p.freshness());
+        String source = intern(pool, p.source());
+        String catchDate = intern(pool, p.catchDate());
+        String originArea = intern(pool, p.originArea());
+        String faoArea = intern(pool, p.faoArea());
+        String originCountry = intern(pool, p.originCountry());
+        String landingPort = intern(pool, p.landingPort());
+        if (freshness == p.freshness() && source == p.source() && catchDate == p.catchDate()
+                && originArea == p.originArea() && faoArea == p.faoArea()
+                && originCountry == p.originCountry() && landingPort == p.landingPort())
+            return p;
+        return new McpProduct(p.id(), p.name(), p.description(), p.priceEur(), p.priceKg(), p.pricePiece(),
+                freshness, source, catchDate, originArea, faoArea, originCountry, landingPort, p.onOffer());
+    }
+
+    private static String intern(Map<String, String> pool, String s) {
+        return (s == null) ? null : pool.computeIfAbsent(s, k -> k);
+    }
+}
@@ -3,6 +3,8 @@ package it.overzoom.ordinainchat.service;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 
 import org.springframework.stereotype.Service;
 
@@ -11,15 +13,39 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import it.overzoom.ordinainchat.mcp.McpClient;
+import it.overzoom.ordinainchat.mcp.McpCustomer;
+import it.overzoom.ordinainchat.mcp.McpException;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
 import it.overzoom.ordinainchat.model.Message;
 import it.overzoom.ordinainchat.util.JsonUtils;
-import it.overzoom.ordinainchat.util.TextUtils;
+import it.overzoom.ordinainchat.util.QuantityParser;
 
 @Service
 public class ChatFlowService {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ChatFlowService.class);
 
+    /**
+     * Esito del flow: testo pronto per l'utente, oppure risultato tipizzato di
+     * un tool da rielaborare con un secondo giro LLM.
+     */
+    public record FlowResult(String text, String tool, ObjectNode arguments, McpProductPage result) {
+
+        public static FlowResult reply(String text) {
+            return new FlowResult(text, null, null, null);
+        }
+
+        public static FlowResult toolResult(String tool, ObjectNode arguments, McpProductPage result) {
+            return new FlowResult(null, tool, arguments, result);
+        }
+
+        public boolean needsFollowUp() {
+            return result != null;
+        }
+    }
+
     private final ObjectMapper om = new ObjectMapper();
     private final IntentService intents;
     private final RenderService render;
@@ -27,18 +53,20 @@ public class ChatFlowService {
     private final OrderService orders;
     private final McpClient mcp;
     private final CartService cartService;
+    private final AnswerComposer answers;
 
     public ChatFlowService(IntentService intents, RenderService render, ProductService products, OrderService orders,
-            McpClient mcp, CartService cartService) {
+            McpClient mcp, CartService cartService, AnswerComposer answers) {
         this.intents = intents;
         this.render = render;
         this.products = products;
         this.orders = orders;
         this.mcp = mcp;
         this.cartService = cartService;
+        this.answers = answers;
     }
 
-    public String handle(String text, String raw, String chatId, String telegramUserId,
+    public FlowResult handle(String text, String raw, String chatId, String telegramUserId,
             List<Message> context, java.util.function.Consumer<String> savePendingProduct) {
         try {
             if (raw != null && raw.toLowerCase(Locale.ITALY).contains("quanti kg")) {
@@ -46,13 +74,6 @@ public class ChatFlowService {
                 // savePendingProduct.accept(nome)
             }
 
-            BigDecimal parsedQty = TextUtils.parseQuantityKg(text);
-            if (parsedQty != null) {
-                // logica legata alla pipeline ordine: qui potresti delegare ad OrderService un
-                // metodo “handleQuantityFlow”
-                // in questo esempio rimandiamo al controller per non complicare
-            }
-
             JsonNode node = JsonUtils.safeParseAction(om, raw);
             if (node != null && node.hasNonNull("tool")) {
                 String tool = node.get("tool").asText("");
@@ -61,53 +82,52 @@ public class ChatFlowService {
                     case "greeting", "hello", "hi" -> {
                         // prendi il testo dal JSON (se presente), altrimenti fallback
                         String msg = JsonUtils.textOrNull(modelArgs, "message");
-                        return (msg != null && !msg.isBlank())
+                        return FlowResult.reply((msg != null && !msg.isBlank())
                                 ? msg
-                                : "Ciao! 👋 Posso dirti cosa c’è di fresco o in offerta, i prezzi al kg, oppure creare un ordine.";
+                                : "Ciao! 👋 Posso dirti cosa c’è di fresco o in offerta, i prezzi al kg, oppure creare un ordine.");
                     }
                     case "help" -> {
-                        return "Puoi chiedermi, ad esempio:\n• Cosa hai di fresco?\n• Cosa hai in offerta oggi?\n• A quanto vanno le triglie?\n• Le spigole sono surgelate?\n• Vorrei 1,5 kg di cozze per stasera.";
+                        return FlowResult.reply("Puoi chiedermi, ad esempio:\n• Cosa hai di fresco?\n• Cosa hai in offerta oggi?\n• A quanto vanno le triglie?\n• Le spigole sono surgelate?\n• Vorrei 1,5 kg di cozze per stasera.");
                     }
                     case "products_search" -> {
                         log.info("products_search with args: " + modelArgs);
                         ObjectNode args = sanitizeProductsSearchArgs(modelArgs, text);
 
-                        ObjectNode meta = om.createObjectNode().put("telegramUserId", telegramUserId);
-                        ObjectNode payload = om.createObjectNode();
-                        payload.put("tool", "products_search");
-                        payload.set("arguments", args);
-                        payload.set("meta", meta);
-
-                        String body = mcp.call(payload);
-
-                        ObjectNode bridge = om.createObjectNode();
-                        bridge.put("bridge_type", "tool_result");
-                        bridge.put("tool", "products_search");
-                        bridge.set("arguments", args);
-                        bridge.set("result", om.readTree(body));
-                        String bridgeJson = bridge.toString();
-                        log.info("Bridge JSON: {}", bridgeJson);
-                        return bridgeJson;
+                        McpProductPage page;
+                        try {
+                            page = products.search(args);
+                        } catch (McpException e) {
+                            return FlowResult.reply(render.mcpError(e));
+                        }
+
+                        // elenchi, freschezza e prezzi: risposta a template, niente secondo giro LLM
+                        Optional<String> local = answers.compose(text, args, page);
+                        if (local.isPresent())
+                            return FlowResult.reply(local.get());
+
+                        log.info("products_search: {} risultati da rielaborare con l'LLM", page.items().size());
+                        return FlowResult.toolResult("products_search", args, page);
                     }
                     case "ask_quantity" -> {
                         long productId = modelArgs.path("productId").asLong();
-                        JsonNode p = products.getById(productId, telegramUserId);
+                        McpProduct p = products.getById(productId).orElse(null);
 
                         if (p != null) {
-                            String name = JsonUtils.safeTxt(p, "name");
-                            if (p.hasNonNull("pricePiece")
-                                    && (p.path("priceKg").isMissingNode() || p.path("priceKg").isNull())) {
-                                return "Quanti pezzi di " + name + " desideri ordinare?";
+                            String name = p.displayName();
+                            if (p.soldByPiece()) {
+                                return FlowResult.reply("Quanti pezzi di " + name + " desideri ordinare?");
                             } else {
-                                return "Quanti kg di " + name + " desideri ordinare?";
+                                return FlowResult.reply("Quanti kg di " + name + " desideri ordinare?");
                             }
                         }
-                        return "Per questo prodotto vuoi indicare i kg o i pezzi?";
+                        return FlowResult.reply("Per questo prodotto vuoi indicare i kg o i pezzi?");
                     }
                     case "orders_create" -> {
-                        // intercetto e trasformo in cart_add
-                        ObjectNode ocArgs = orders.sanitizeOrdersCreateArgs((ObjectNode) modelArgs, telegramUserId,
-                                null);
+                        // intercetto e trasformo in cart_add; la quantità scritta dall'utente
+                        // con kg o pezzi vale più di quella ricavata dal modello, un numero
+                        // senza unità riempie solo una quantità mancante
+                        ObjectNode ocArgs = orders.sanitizeOrdersCreateArgs((ObjectNode) modelArgs, null,
+                                QuantityParser.parse(text).orElse(null));
 
                         // mappa → args per cart_add (normalizzando quantity)
                         ObjectNode cartArgs = om.createObjectNode();
@@ -130,69 +150,58 @@ public class ChatFlowService {
 
                         if (safeArgs.path("items").isArray() && safeArgs.path("items").size() > 0) {
                             cartService.addItemsToCart(safeArgs, telegramUserId);
-                            return "Ho aggiunto gli articoli al carrello. Vuoi confermare l’ordine?";
+                            return FlowResult.reply("Ho aggiunto gli articoli al carrello. Vuoi confermare l’ordine?");
                         }
-                        return "Ok. Per quale articolo e quanti kg?";
+                        return FlowResult.reply("Ok. Per quale articolo e quanti kg?");
                     }
                     case "products_byid", "product_by_id" -> {
-                        ObjectNode payload = om.createObjectNode();
-                        payload.put("tool", "products_byid");
-                        payload.set("arguments", (ObjectNode) modelArgs);
-
-                        ObjectNode metaNode = om.createObjectNode();
-                        metaNode.put("telegramUserId", telegramUserId);
-                        payload.set("meta", metaNode);
-
-                        String body = mcp.call(payload);
-                        try {
-                            products.cacheIdNameMap(products.parseIdNameMap(body));
-                        } catch (Exception ignored) {
-                        }
-                        String detail = render.productDetail(body);
-                        return detail;
+                        long productId = modelArgs.path("id").asLong(modelArgs.path("productId").asLong(0L));
+                        // getById mette già il nome in cache
+                        McpProduct p = products.getById(productId).orElse(null);
+                        return FlowResult.reply(render.productDetail(p));
                     }
                     case "customers_me" -> {
-                        ObjectNode payload = om.createObjectNode();
-                        payload.put("tool", "customers_me");
-                        payload.set("arguments", (ObjectNode) modelArgs);
-                        ObjectNode metaNode = om.createObjectNode();
-                        metaNode.put("telegramUserId", telegramUserId);
-                        payload.set("meta", metaNode);
-                        String body = mcp.call(payload);
-                        return render.customerProfile(body);
+                        try {
+                            McpCustomer me = mcp.customerMe(modelArgs, telegramUserId);
+                            return FlowResult.reply(render.customerProfile(me));
+                        } catch (McpException e) {
+                            return FlowResult.reply(render.customerProfile(null));
+                        }
                     }
                     case "cart_add" -> {
                         ObjectNode rawArgs = (ObjectNode) modelArgs;
                         ObjectNode safeArgs = cartService.sanitizeCartAddArgs(rawArgs, telegramUserId);
                         if (!safeArgs.path("items").isArray() || safeArgs.path("items").size() == 0)
-                            return "Ok. Quali articoli vuoi aggiungere al carrello?";
+                            return FlowResult.reply("Ok. Quali articoli vuoi aggiungere al carrello?");
                         cartService.addItemsToCart(safeArgs, telegramUserId);
-                        return "Perfetto. Ti serve qualcos'altro?";
+                        return FlowResult.reply("Perfetto. Ti serve qualcos'altro?");
                     }
                     case "cart_view" -> {
                         List<CartService.CartItem> items = cartService.getItems(telegramUserId);
                         if (items.isEmpty()) {
-                            return "Il carrello è vuoto.";
+                            return FlowResult.reply("Il carrello è vuoto.");
                         } else {
                             StringBuilder sb = new StringBuilder("Nel carrello hai:\n");
+                            Map<Long, String> names = products.resolveNames(
+                                    items.stream().map(CartService.CartItem::productId).toList());
                             for (CartService.CartItem it : items) {
-                                String prodName = products.resolveName(it.productId(), telegramUserId);
+                                String prodName = names.get(it.productId());
                                 String unit = (it.priceKg() != null) ? "kg" : "pz";
                                 sb.append("- ").append(it.quantity()).append(" ").append(unit).append(" di ")
                                         .append((prodName != null) ? prodName : ("prodotto #" + it.productId()))
                                         .append(" (consegna il ").append(it.deliveryDate()).append(")\n");
                             }
-                            return sb.toString();
+                            return FlowResult.reply(sb.toString());
                         }
                     }
                     case "cart_clear" -> {
                         cartService.clear(telegramUserId);
-                        return "Il carrello è stato svuotato.";
+                        return FlowResult.reply("Il carrello è stato svuotato.");
                     }
                     case "cart_checkout" -> {
                         List<CartService.CartItem> items = cartService.getItems(telegramUserId);
                         if (items.isEmpty()) {
-                            return "Il carrello è vuoto, non posso creare l’ordine.";
+                            return FlowResult.reply("Il carrello è vuoto, non posso creare l’ordine.");
                         }
 
                         // Costruisci l'arguments per orders_create
@@ -211,33 +220,25 @@ public class ChatFlowService {
                         args.put("inSite", true);
                         args.put("bookedSlot", items.get(0).deliveryDate().toString()); // semplificato
 
-                        ObjectNode meta = om.createObjectNode();
-                        meta.put("telegramUserId", telegramUserId);
-
-                        ObjectNode payload = om.createObjectNode();
-                        payload.put("tool", "orders_create");
-                        payload.set("arguments", args);
-                        payload.set("meta", meta);
-
                         // Chiama MCP server
-                        String body = mcp.call(payload);
+                        String confirmation = orders.createOrder(args, telegramUserId);
 
                         // Pulisci carrello
                         cartService.clear(telegramUserId);
 
-                        return orders.renderOrderConfirmation(body, args, telegramUserId);
+                        return FlowResult.reply(confirmation);
                     }
                     default -> {
-                        return (raw != null && !raw.isBlank()) ? raw
-                                : "Dimmi pure come posso aiutarti (offerte, prezzi, disponibilità o ordini).";
+                        return FlowResult.reply((raw != null && !raw.isBlank()) ? raw
+                                : "Dimmi pure come posso aiutarti (offerte, prezzi, disponibilità o ordini).");
                     }
                 }
             } else {
-                return (raw != null) ? raw
-                        : "Dimmi pure come posso aiutarti (offerte, prezzi, disponibilità o ordini).";
+                return FlowResult.reply((raw != null) ? raw
+                        : "Dimmi pure come posso aiutarti (offerte, prezzi, disponibilità o ordini).");
             }
         } catch (Exception e) {
-            return raw;
+            return FlowResult.reply(raw);
         }
     }
 
@@ -261,6 +262,9 @@ public class ChatFlowService {
                 args.put("freshness", f);
         }
 
+        if (JsonUtils.boolOr(modelNode, "onlyOnOffer", false))
+            args.put("onlyOnOffer", true);
+
         // Resto della logica di gestione dei filtri
         BigDecimal maxPrice = JsonUtils.decimalOrNull(modelNode, "maxPrice");
         if (maxPrice != null)
@@ -6,6 +6,8 @@ import java.util.UUID;
 import it.overzoom.ordinainchat.model.Conversation;
 import it.overzoom.ordinainchat.model.Message;
 import it.overzoom.ordinainchat.model.Message.Role;
+import it.overzoom.ordinainchat.service.OpenAiService.Usage;
+import it.overzoom.ordinainchat.type.StepType;
 
 public interface ChatHistoryService {
 
@@ -13,6 +15,9 @@ public interface ChatHistoryService {
 
     void append(UUID conversationId, Role role, String content, String model, Integer tokens);
 
+    /** Come append, salvando anche token, latenza e step del turno OpenAI. */
+    void append(UUID conversationId, Role role, String content, String model, Usage usage, StepType step);
+
     List<Message> lastMessages(UUID conversationId, int max);
 
     void save(Conversation conv);
@@ -11,6 +11,8 @@ import it.overzoom.ordinainchat.model.Conversation;
 import it.overzoom.ordinainchat.model.Message;
 import it.overzoom.ordinainchat.repository.ConversationRepository;
 import it.overzoom.ordinainchat.repository.MessageRepository;
+import it.overzoom.ordinainchat.service.OpenAiService.Usage;
+import it.overzoom.ordinainchat.type.StepType;
 
 @Service
 @Transactional
@@ -56,6 +58,26 @@ public class ChatHistoryServiceImpl implements ChatHistoryService {
         messageRepository.save(m);
     }
 
+    @Override
+    @Transactional
+    public void append(UUID conversationId, Message.Role role, String content, String model, Usage usage,
+            StepType step) {
+        Message m = new Message();
+        m.setConversationId(conversationId);
+        m.setRole(role);
+        m.setContent(content == null ? "" : content);
+        m.setModel(model);
+        m.setStep(step);
+        if (usage != null) {
+            m.setTokenCount(usage.totalTokens());
+            m.setInputTokens(usage.inputTokens());
+            m.setCachedInputTokens(usage.cachedInputTokens());
+            m.setOutputTokens(usage.outputTokens());
+            m.setLatencyMs(usage.latencyMs());
+        }
+        messageRepository.save(m);
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Message> lastMessages(UUID conversationId, int limit) {
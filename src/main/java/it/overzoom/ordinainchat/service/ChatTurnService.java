@@ -0,0 +1,245 @@
+package it.overzoom.ordinainchat.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import it.overzoom.ordinainchat.dto.TelegramUpdate;
+import it.overzoom.ordinainchat.exception.OpenAiUnavailableException;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.model.Conversation;
+import it.overzoom.ordinainchat.model.Message;
+import it.overzoom.ordinainchat.model.User;
+import it.overzoom.ordinainchat.service.ChatFlowService.FlowResult;
+import it.overzoom.ordinainchat.service.OpenAiService.ChatMessage;
+import it.overzoom.ordinainchat.telegram.ProgressiveReply;
+import it.overzoom.ordinainchat.telegram.TelegramSender;
+import it.overzoom.ordinainchat.telegram.TelegramSender.Priority;
+import it.overzoom.ordinainchat.util.JsonUtils;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Elabora un singolo turno di chat (DB, OpenAI, MCP, risposta Telegram).
+ * Gira sui worker di {@code ChatLaneExecutor}, mai sul thread del webhook.
+ */
+@Service
+public class ChatTurnService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatTurnService.class);
+    /** Valore di messages.model per le risposte del router locale. */
+    private static final String LOCAL_MODEL = "local-router";
+    /** Valore di messages.model per le risposte di cortesia con OpenAI giù. */
+    private static final String DEGRADED_MODEL = "degraded";
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final OpenAiService openAiService;
+    private final UserService userService;
+    private final PromptLoader promptLoader;
+    private final ChatHistoryService chatHistoryService;
+    private final ChatFlowService chatFlow;
+    private final TelegramSender telegramSender;
+    private final LocalIntentRouter router;
+    private final ConversationPool conversationPool;
+    private final UsageService usageService;
+
+    @Value("${openai.streaming.enabled:true}")
+    private boolean streaming;
+    @Value("${openai.resilience.degraded-reply:Il servizio è momentaneamente rallentato, riprova tra qualche minuto. Intanto puoi scrivere «carrello» o «aiuto».}")
+    private String degradedReply;
+    @Value("${openai.resilience.degraded-router-min-confidence:0.5}")
+    private double degradedRouterMinConfidence;
+
+    public ChatTurnService(OpenAiService openAiService,
+            UserService userService,
+            ChatHistoryService chatHistoryService,
+            PromptLoader promptLoader,
+            ChatFlowService chatFlow,
+            TelegramSender telegramSender,
+            LocalIntentRouter router,
+            ConversationPool conversationPool,
+            UsageService usageService) {
+        this.openAiService = openAiService;
+        this.userService = userService;
+        this.chatHistoryService = chatHistoryService;
+        this.promptLoader = promptLoader;
+        this.chatFlow = chatFlow;
+        this.telegramSender = telegramSender;
+        this.router = router;
+        this.conversationPool = conversationPool;
+        this.usageService = usageService;
+    }
+
+    public void process(TelegramUpdate update) {
+        String text = update.text();
+        String chatKey = update.chatKey();
+        String telegramUserId = update.telegramUserId();
+
+        User user = userService.findByTelegramUserId(telegramUserId)
+                .orElseGet(() -> userService.createWithTelegramId(telegramUserId));
+        Conversation conv = chatHistoryService.ensureConversation(user.getId(), chatKey);
+        chatHistoryService.append(conv.getId(), Message.Role.USER, text, null, null);
+
+        // 0) Turni banali (saluti, aiuto, carrello): risolti in locale, niente OpenAI
+        Optional<LocalIntentRouter.Route> local = router.route(text);
+        if (local.isPresent()) {
+            replyLocally(update, conv, local.get());
+            return;
+        }
+
+        try {
+            answerWithOpenAi(update, user, conv);
+        } catch (OpenAiUnavailableException e) {
+            // breaker aperto o chiamata fallita: router locale con soglia più bassa, altrimenti risposta di cortesia
+            log.warn("OpenAI non disponibile per chat {}: {}", chatKey, e.getMessage());
+            LocalIntentRouter.Route guess = router.classify(text);
+            if (guess != null && guess.confidence() >= degradedRouterMinConfidence) {
+                replyLocally(update, conv, guess);
+                return;
+            }
+            chatHistoryService.append(conv.getId(), Message.Role.ASSISTANT, degradedReply, DEGRADED_MODEL, null);
+            telegramSender.progressiveReply(chatKey, update.receivedAtNanos())
+                    .finish(degradedReply, Priority.NORMAL);
+        }
+    }
+
+    private void replyLocally(TelegramUpdate update, Conversation conv, LocalIntentRouter.Route route) {
+        String out = chatFlow.handle(update.text(), route.toActionJson(), update.chatKey(),
+                update.telegramUserId(), List.of(), guessed -> {
+                }).text();
+        chatHistoryService.append(conv.getId(), Message.Role.ASSISTANT, out, LOCAL_MODEL, null);
+        telegramSender.progressiveReply(update.chatKey(), update.receivedAtNanos())
+                .finish(TextUtils.toPlainText(out), Priority.LOW);
+    }
+
+    private void answerWithOpenAi(TelegramUpdate update, User user, Conversation conv) {
+        String text = update.text();
+        String chatKey = update.chatKey();
+        String telegramUserId = update.telegramUserId();
+
+        // 1) Se NON abbiamo ancora una conversation OpenAI -> prendila dal pool,
+        // altrimenti creala e bootstrap init
+        // il bootstrap (INIT completo) è la chiamata più cara: la si addebita al primo turno
+        OpenAiService.Usage bootstrap = OpenAiService.Usage.NONE;
+        if (conv.getOpenAiConversationId() == null || conv.getOpenAiConversationId().isBlank()) {
+            Optional<ConversationPool.Pooled> pooled = conversationPool.claim();
+            String convId;
+            if (pooled.isPresent()) {
+                convId = pooled.get().conversationId();
+                bootstrap = pooled.get().bootstrapUsage();
+            } else {
+                convId = openAiService.createConversation("OrdinaInChat - " + telegramUserId);
+                String initSystem = promptLoader.loadInitSystemPrompt(user.getId());
+                bootstrap = openAiService.bootstrapConversation(convId, initSystem);
+            }
+            conv.setOpenAiConversationId(convId);
+            chatHistoryService.save(conv);
+        }
+
+        // 2) Prepara i messaggi del turno (system dinamico + user)
+        List<Message> context = chatHistoryService.lastMessages(conv.getId(), 5);
+        // se vuoi uno snippet system per lo stato corrente
+        String dynamicSystem = promptLoader.loadDynamicSystemSnippet(user.getCurrentStep(), text, context);
+
+        List<ChatMessage> turn = new ArrayList<>();
+        if (dynamicSystem != null && !dynamicSystem.isBlank()) {
+            turn.add(new ChatMessage("system", dynamicSystem));
+        }
+        turn.add(new ChatMessage("user", text));
+
+        // 3) Chiamata Responses API nella conversation (in streaming il testo
+        // semplice compare subito in chat, il JSON dei tool resta nascosto)
+        ProgressiveReply reply = telegramSender.progressiveReply(chatKey, update.receivedAtNanos());
+        OpenAiService.Reply first = streaming
+                ? openAiService.askInConversationStreaming(conv.getOpenAiConversationId(), turn, true, reply)
+                : openAiService.askInConversation(conv.getOpenAiConversationId(), turn, true);
+        String raw = first.text();
+        OpenAiService.Usage usage = bootstrap.plus(first.usage());
+
+        // 4) Passa al flow
+        FlowResult flow = chatFlow.handle(
+                text, raw, chatKey, telegramUserId, context, guessed -> {
+                });
+
+        String finalOut = flow.text();
+        if (flow.needsFollowUp()) {
+            // Compact payload per il secondo giro
+            ArrayNode compact = om.createArrayNode();
+            for (McpProduct it : flow.result().items()) {
+                ObjectNode n = om.createObjectNode();
+                n.put("id", it.id());
+                n.put("name", it.displayName());
+                if (it.priceEur() != null)
+                    n.put("priceEur", it.priceEur().toPlainString());
+                if (it.priceKg() != null)
+                    n.put("priceKg", it.priceKg().toPlainString());
+                if (it.freshness() != null)
+                    n.put("freshness", it.freshness());
+                if (it.catchDate() != null)
+                    n.put("catchDate", it.catchDate());
+                if (it.source() != null)
+                    n.put("source", it.source());
+                compact.add(n);
+            }
+            ObjectNode toolNode = om.createObjectNode();
+            toolNode.put("tool", flow.tool());
+            toolNode.set("arguments", flow.arguments());
+            toolNode.set("items", compact);
+            String toolSummary = toolNode.toString();
+
+            // Secondo giro nella stessa conversation
+            List<OpenAiService.ChatMessage> followup = new ArrayList<>();
+            followup.add(new OpenAiService.ChatMessage(
+                    "system",
+                    "RISULTATO_TOOL: " + toolSummary + "\n" +
+                            "Istruzione: usa questi dati per rispondere alla domanda dell’utente in modo conciso. "
+                            +
+                            "Se la domanda era sulla freschezza/‘di oggi’, rispondi direttamente (FRESH/FROZEN; ‘di oggi’ se catchDate=oggi, tz Europe/Rome). "
+                            +
+                            "Niente elenco completo a meno che l’utente lo chieda."));
+            // 👉 ribadisco la domanda originale
+            followup.add(new OpenAiService.ChatMessage("user", text));
+
+            OpenAiService.Reply second = openAiService.askInConversation(conv.getOpenAiConversationId(),
+                    followup, true);
+            usage = usage.plus(second.usage());
+            finalOut = second.text(); // usa questo come risposta definitiva
+        }
+
+        // ✅ salva la risposta effettiva, con token e latenza del turno
+        chatHistoryService.append(
+                conv.getId(),
+                Message.Role.ASSISTANT,
+                finalOut,
+                System.getenv("OPENAI_MODEL"),
+                usage,
+                user.getCurrentStep());
+        usageService.recordTurn(user.getCurrentStep(), usage);
+
+        // ✅ invia quella all’utente
+        reply.finish(TextUtils.toPlainText(finalOut), priorityFor(raw));
+        log.debug("Turno completato per chat {}", chatKey);
+    }
+
+    /** Conferme d'ordine prima di tutto, saluti e chiacchiere per ultimi. */
+    private Priority priorityFor(String raw) {
+        JsonNode action = JsonUtils.safeParseAction(om, raw);
+        if (action == null || !action.hasNonNull("tool"))
+            return Priority.LOW;
+        return switch (action.get("tool").asText("").toLowerCase(Locale.ITALY)) {
+            case "cart_checkout", "orders_create" -> Priority.HIGH;
+            case "greeting", "hello", "hi", "help" -> Priority.LOW;
+            default -> Priority.NORMAL;
+        };
+    }
+}
@@ -0,0 +1,272 @@
+package it.overzoom.ordinainchat.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.overzoom.ordinainchat.service.OpenAiService.Usage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Conversation OpenAI già create e inizializzate con l'INIT, pronte per i
+ * nuovi utenti: il primo messaggio evita createConversation + bootstrap.
+ * La dimensione segue il tasso recente di nuovi utenti (media esponenziale)
+ * e il riempimento avviene in background.
+ *
+ * <p>
+ * Le conversation pronte sopravvivono al riavvio: allo shutdown gli id (con
+ * il consumo del bootstrap) vanno in {@code openai.pool.state-file} insieme
+ * all'impronta dell'INIT, e al riavvio si riprendono solo se l'INIT non è
+ * cambiato.
+ */
+@Service
+public class ConversationPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationPool.class);
+    private static final long TICK_MS = 10_000;
+
+    /** Conversation pronta con il consumo del suo bootstrap, da addebitare a chi la prende. */
+    public record Pooled(String conversationId, Usage bootstrapUsage) {
+    }
+
+    private final OpenAiService openAiService;
+    private final PromptLoader promptLoader;
+    private final boolean enabled;
+    private final int minSize;
+    private final int maxSize;
+    private final double leadTimeSeconds;
+    private final double alpha;
+    private final Path stateFile;
+    private final MeterRegistry registry;
+
+    private final ConcurrentLinkedQueue<Pooled> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final AtomicInteger creating = new AtomicInteger();
+    private final AtomicLong arrivals = new AtomicLong();
+    private final ExecutorService refillers;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter failures;
+
+    private volatile double arrivalsPerSecond;
+    private volatile int target;
+    private volatile long backoffUntil = System.nanoTime();
+
+    public ConversationPool(OpenAiService openAiService, PromptLoader promptLoader,
+            @Value("${openai.pool.enabled:true}") boolean enabled,
+            @Value("${openai.pool.min-size:2}") int minSize,
+            @Value("${openai.pool.max-size:20}") int maxSize,
+            @Value("${openai.pool.lead-time-seconds:120}") double leadTimeSeconds,
+            @Value("${openai.pool.ewma-alpha:0.2}") double alpha,
+            @Value("${openai.pool.refill-threads:2}") int refillThreads,
+            @Value("${openai.pool.state-file:}") String stateFile,
+            MeterRegistry registry) {
+        this.openAiService = openAiService;
+        this.promptLoader = promptLoader;
+        this.enabled = enabled;
+        this.minSize = Math.max(0, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.leadTimeSeconds = leadTimeSeconds;
+        this.alpha = Math.min(1d, Math.max(0.01d, alpha));
+        this.target = this.minSize;
+        this.stateFile = (stateFile == null || stateFile.isBlank()) ? null : Path.of(stateFile);
+        this.registry = registry;
+        this.refillers = Executors.newFixedThreadPool(Math.max(1, refillThreads),
+                Thread.ofPlatform().name("conv-pool-", 0).daemon(true).factory());
+
+        this.hits = Counter.builder("openai.pool.claims").tag("outcome", "hit").register(registry);
+        this.misses = Counter.builder("openai.pool.claims").tag("outcome", "miss").register(registry);
+        this.failures = Counter.builder("openai.pool.failures")
+                .description("Conversation del pool non create o non inizializzate")
+                .register(registry);
+        Gauge.builder("openai.pool.ready", readyCount, AtomicInteger::get)
+                .description("Conversation pronte nel pool")
+                .register(registry);
+    }
+
+    @PostConstruct
+    void registerGauges() {
+        Gauge.builder("openai.pool.target", this, p -> p.target)
+                .description("Dimensione obiettivo del pool")
+                .register(registry);
+        Gauge.builder("openai.pool.arrival_rate", this, p -> p.arrivalsPerSecond)
+                .description("Nuovi utenti al secondo (media esponenziale)")
+                .register(registry);
+    }
+
+    /**
+     * Prende una conversation pronta per un nuovo utente. Vuoto se il pool è
+     * disattivato o esaurito: il chiamante la crea in modo sincrono.
+     */
+    public Optional<Pooled> claim() {
+        arrivals.incrementAndGet();
+        if (!enabled)
+            return Optional.empty();
+        Pooled pooled = ready.poll();
+        if (pooled == null) {
+            misses.increment();
+            refill();
+            return Optional.empty();
+        }
+        readyCount.decrementAndGet();
+        hits.increment();
+        refill();
+        return Optional.of(pooled);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        restore();
+        refill();
+    }
+
+    /** Aggiorna il tasso di arrivo e la dimensione obiettivo. */
+    @Scheduled(fixedRate = TICK_MS)
+    public void resize() {
+        double observed = arrivals.getAndSet(0) / (TICK_MS / 1000d);
+        arrivalsPerSecond = alpha * observed + (1 - alpha) * arrivalsPerSecond;
+        int wanted = (int) Math.ceil(arrivalsPerSecond * leadTimeSeconds);
+        target = Math.min(maxSize, Math.max(minSize, wanted));
+        refill();
+    }
+
+    /** Avvia le creazioni mancanti per arrivare al target (senza bloccare). */
+    void refill() {
+        if (!enabled || System.nanoTime() - backoffUntil < 0)
+            return;
+        while (readyCount.get() + creating.get() < target) {
+            creating.incrementAndGet();
+            try {
+                refillers.execute(this::createOne);
+            } catch (RejectedExecutionException e) {
+                creating.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void createOne() {
+        try {
+            String convId = openAiService.createConversation("OrdinaInChat - pool");
+            Usage usage = openAiService.bootstrapConversation(convId, promptLoader.loadInitSystemPromptTemplate());
+            ready.add(new Pooled(convId, usage));
+            readyCount.incrementAndGet();
+        } catch (Exception e) {
+            failures.increment();
+            // OpenAI in difficoltà: niente raffica di tentativi, si riprova al prossimo tick
+            backoffUntil = System.nanoTime() + TICK_MS * 1_000_000L;
+            log.warn("Creazione conversation per il pool fallita: {}", e.getMessage());
+        } finally {
+            creating.decrementAndGet();
+        }
+    }
+
+    public int readyCount() {
+        return readyCount.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refillers.shutdownNow();
+        persist();
+    }
+
+    /** Riprende le conversation salvate allo shutdown precedente, se l'INIT è lo stesso. */
+    private void restore() {
+        if (!enabled || stateFile == null || !Files.isReadable(stateFile))
+            return;
+        try {
+            List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+            // il file si consuma: dopo un crash gli stessi id non vanno riusati due volte
+            Files.delete(stateFile);
+            if (lines.isEmpty() || !lines.get(0).equals(initFingerprint())) {
+                log.info("Pool conversation: INIT cambiato, scarto {} conversation salvate",
+                        Math.max(0, lines.size() - 1));
+                return;
+            }
+            int restored = 0;
+            for (String line : lines.subList(1, lines.size())) {
+                Pooled pooled = parse(line);
+                if (pooled != null && restored < maxSize) {
+                    ready.add(pooled);
+                    restored++;
+                }
+            }
+            readyCount.addAndGet(restored);
+            log.info("Pool conversation: riprese {} conversation dal riavvio precedente", restored);
+        } catch (IOException e) {
+            log.warn("Lettura stato pool conversation {} fallita: {}", stateFile, e.getMessage());
+        }
+    }
+
+    /** Salva gli id pronti; senza file li si perde, con il bootstrap già pagato. */
+    private void persist() {
+        List<Pooled> saved = new ArrayList<>(ready);
+        if (saved.isEmpty())
+            return;
+        if (stateFile == null) {
+            log.info("Pool conversation: {} conversation già inizializzate perse allo shutdown"
+                    + " (openai.pool.state-file non impostato)", saved.size());
+            return;
+        }
+        List<String> lines = new ArrayList<>(saved.size() + 1);
+        lines.add(initFingerprint());
+        for (Pooled p : saved) {
+            Usage u = p.bootstrapUsage();
+            lines.add(String.join("\t", p.conversationId(), String.valueOf(u.inputTokens()),
+                    String.valueOf(u.cachedInputTokens()), String.valueOf(u.outputTokens()),
+                    String.valueOf(u.latencyMs())));
+        }
+        try {
+            Path dir = stateFile.toAbsolutePath().getParent();
+            if (dir != null)
+                Files.createDirectories(dir);
+            Files.write(stateFile, lines, StandardCharsets.UTF_8);
+            log.info("Pool conversation: salvate {} conversation in {}", saved.size(), stateFile);
+        } catch (IOException e) {
+            log.warn("Salvataggio stato pool conversation {} fallito, {} conversation perse: {}", stateFile,
+                    saved.size(), e.getMessage());
+        }
+    }
+
+    /** Riga "id\tinput\tcached\toutput\tlatencyMs"; senza consumo vale Usage.NONE. */
+    private static Pooled parse(String line) {
+        String[] f = line.trim().split("\t");
+        if (f[0].isBlank())
+            return null;
+        if (f.length < 5)
+            return new Pooled(f[0], Usage.NONE);
+        try {
+            return new Pooled(f[0], new Usage(Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                    Integer.parseInt(f[3]), Long.parseLong(f[4])));
+        } catch (NumberFormatException e) {
+            return new Pooled(f[0], Usage.NONE);
+        }
+    }
+
+    private String initFingerprint() {
+        return "init:" + Integer.toHexString(promptLoader.loadInitSystemPromptTemplate().hashCode());
+    }
+}
@@ -0,0 +1,113 @@
+package it.overzoom.ordinainchat.service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Router deterministico prima dell'LLM: riconosce i turni banali (saluti,
+ * aiuto, vedi/svuota carrello) e li risolve in locale. Sotto la soglia di
+ * confidenza il turno passa a OpenAI come sempre.
+ */
+@Service
+public class LocalIntentRouter {
+
+    public record Route(String tool, double confidence) {
+        /** Azione nello stesso formato prodotto dal modello, per ChatFlowService. */
+        public String toActionJson() {
+            return "{\"tool\":\"" + tool + "\",\"arguments\":{}}";
+        }
+    }
+
+    private record Rule(String tool, Pattern pattern, double confidence) {
+    }
+
+    // pattern su testo normalizzato (minuscolo, senza accenti né punteggiatura)
+    private static final Pattern NEGATION = Pattern.compile("\\b(non|no|mai)\\b");
+    private static final List<Rule> RULES = List.of(
+            new Rule("greeting", Pattern.compile(
+                    "^(ciao|salve|hey|ehi|buongiorno|buonasera|buon pomeriggio|hello|hi)( a (te|tutti|voi))?$"),
+                    0.95),
+            new Rule("help", Pattern.compile(
+                    "^(aiuto|help|istruzioni|come funziona|cosa sai fare|cosa puoi fare|che cosa (sai|puoi) fare)$"),
+                    0.95),
+            new Rule("cart_clear", Pattern.compile(
+                    "^(per favore )?(svuota|svuotami|cancella|elimina|azzera|pulisci)( tutto)?( il| il mio)? carrello( per favore)?$"),
+                    0.95),
+            new Rule("cart_view", Pattern.compile(
+                    "^(cosa|che cosa) (ho|c e|ce) nel( mio)? carrello$"
+                            + "|^(mostra|mostrami|fammi vedere|vedi|visualizza|apri)( il| il mio)? carrello$"
+                            + "|^(il mio )?carrello$"),
+                    0.9),
+            // match parziali: utili come segnale ma sotto soglia, decide l'LLM
+            new Rule("greeting", Pattern.compile("^(ciao|salve|buongiorno|buonasera)\\b"), 0.5),
+            new Rule("help", Pattern.compile("\\b(aiuto|help)\\b"), 0.6),
+            new Rule("cart_view", Pattern.compile("\\bcarrello\\b"), 0.4));
+
+    private final double minConfidence;
+    private final Counter bypassed;
+    private final Counter fallthrough;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    public LocalIntentRouter(@Value("${router.min-confidence:0.85}") double minConfidence,
+            MeterRegistry registry) {
+        this.minConfidence = minConfidence;
+        this.bypassed = Counter.builder("router.decisions").tag("outcome", "bypass").register(registry);
+        this.fallthrough = Counter.builder("router.decisions").tag("outcome", "fallthrough").register(registry);
+        AtomicLong seen = total; // niente this nel costruttore: il gauge legge i soli contatori
+        Gauge.builder("router.bypass.ratio", hits, h -> ratio(h.get(), seen.get()))
+                .description("Quota di turni risolti senza chiamare OpenAI")
+                .register(registry);
+    }
+
+    /** Route locale se la confidenza supera la soglia configurata. */
+    public Optional<Route> route(String text) {
+        return route(text, minConfidence);
+    }
+
+    public Optional<Route> route(String text, double threshold) {
+        Route best = classify(text);
+        total.incrementAndGet();
+        if (best != null && best.confidence() >= threshold) {
+            hits.incrementAndGet();
+            bypassed.increment();
+            return Optional.of(best);
+        }
+        fallthrough.increment();
+        return Optional.empty();
+    }
+
+    /** Miglior regola che combacia (anche sotto soglia), o null. */
+    public Route classify(String text) {
+        String n = TextUtils.normalize(text);
+        if (n.isEmpty() || n.length() > 60)
+            return null;
+        // "non svuotare il carrello" & co.: meglio non indovinare
+        boolean negated = NEGATION.matcher(n).find();
+        Route best = null;
+        for (Rule r : RULES) {
+            if (best != null && best.confidence() >= r.confidence())
+                continue;
+            if (r.pattern().matcher(n).find()) {
+                double c = negated ? r.confidence() * 0.5 : r.confidence();
+                if (best == null || c > best.confidence())
+                    best = new Route(r.tool(), c);
+            }
+        }
+        return best;
+    }
+
+    private static double ratio(long hits, long total) {
+        return (total == 0) ? 0d : (double) hits / total;
+    }
+}
@@ -1,22 +1,53 @@
 package it.overzoom.ordinainchat.service;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface OpenAiService {
     record ChatMessage(String role, String content) {
     }
 
+    /** Token (dal blocco "usage" della Responses API) e durata di una chiamata. */
+    record Usage(int inputTokens, int cachedInputTokens, int outputTokens, long latencyMs) {
+        public static final Usage NONE = new Usage(0, 0, 0, 0);
+
+        public int totalTokens() {
+            return inputTokens + outputTokens;
+        }
+
+        public Usage plus(Usage o) {
+            if (o == null)
+                return this;
+            return new Usage(inputTokens + o.inputTokens, cachedInputTokens + o.cachedInputTokens,
+                    outputTokens + o.outputTokens, latencyMs + o.latencyMs);
+        }
+    }
+
+    /** Testo assistant più consumo della chiamata. */
+    record Reply(String text, Usage usage) {
+    }
+
     /** Crea una conversation e ritorna l'id. */
     String createConversation(String title);
 
-    /** Inietta l'init-system-prompt nella conversation (una volta sola). */
-    void bootstrapConversation(String conversationId, String initSystemPrompt);
+    /**
+     * Inietta l'init-system-prompt nella conversation (una volta sola) e
+     * ritorna il consumo della chiamata, da attribuire al primo turno.
+     */
+    Usage bootstrapConversation(String conversationId, String initSystemPrompt);
 
     /**
      * Invia i messaggi del turno dentro la conversation e ritorna il testo
-     * assistant.
+     * assistant con il relativo consumo.
+     */
+    Reply askInConversation(String conversationId, List<ChatMessage> messages, boolean store);
+
+    /**
+     * Come askInConversation, ma in streaming (SSE): onDelta riceve i frammenti
+     * di testo appena arrivano. Ritorna comunque il testo completo.
      */
-    String askInConversation(String conversationId, List<ChatMessage> messages, boolean store);
+    Reply askInConversationStreaming(String conversationId, List<ChatMessage> messages, boolean store,
+            Consumer<String> onDelta);
 
     // deprecabile: vecchio metodo
     String askChatGpt(List<ChatMessage> messages);
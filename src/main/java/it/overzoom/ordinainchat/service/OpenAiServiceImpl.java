@@ -1,24 +1,44 @@
 package it.overzoom.ordinainchat.service;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.overzoom.ordinainchat.exception.OpenAiUnavailableException;
+import it.overzoom.ordinainchat.resilience.OpenAiResilience;
+
 @Service
 public class OpenAiServiceImpl implements OpenAiService {
 
     private static final Logger log = LoggerFactory.getLogger(OpenAiServiceImpl.class);
+    // nomi degli endpoint per circuit breaker e metriche
+    private static final String CONVERSATIONS = "conversations";
+    private static final String RESPONSES = "responses";
 
     @Value("${openai.api-key}")
     private String openAiApiKey;
@@ -29,7 +49,21 @@ public class OpenAiServiceImpl implements OpenAiService {
     @Value("${openai.max-tokens:800}")
     private int maxTokens;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final ObjectMapper om = new ObjectMapper();
+    private final RestTemplate restTemplate;
+    private final Timer firstToken;
+    private final MeterRegistry registry;
+    private final OpenAiResilience resilience;
+
+    public OpenAiServiceImpl(@Qualifier("openAiRestTemplate") RestTemplate restTemplate, MeterRegistry registry,
+            OpenAiResilience resilience) {
+        this.restTemplate = restTemplate;
+        this.registry = registry;
+        this.resilience = resilience;
+        this.firstToken = Timer.builder("openai.stream.first_token")
+                .description("Tempo dalla richiesta al primo frammento di testo in streaming")
+                .register(registry);
+    }
 
     // ---------- NEW: Conversations ----------
     @Override
@@ -41,23 +75,32 @@ public class OpenAiServiceImpl implements OpenAiService {
         // Corpo vuoto: l'API crea la conversation senza parametri
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(Map.of(), headers);
 
-        ResponseEntity<String> resp = restTemplate.postForEntity(url, entity, String.class);
-        log.info("OpenAI createConversation response: {}", resp);
+        try {
+            ResponseEntity<String> resp = resilience.call(CONVERSATIONS, false,
+                    () -> restTemplate.postForEntity(url, entity, String.class));
+            log.info("OpenAI createConversation response: {}", resp);
 
-        String body = resp.getBody();
-        if (body == null || body.isBlank())
-            throw new RuntimeException("Empty createConversation response");
+            String body = resp.getBody();
+            if (body == null || body.isBlank())
+                throw new IllegalStateException("Empty createConversation response");
 
-        org.json.JSONObject obj = new org.json.JSONObject(body);
-        return obj.getString("id"); // es. "conv_abc123"
+            org.json.JSONObject obj = new org.json.JSONObject(body);
+            return obj.getString("id"); // es. "conv_abc123"
+        } catch (OpenAiUnavailableException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            // senza conversation il turno non parte: stessa risposta degradata del breaker aperto
+            log.error("OpenAI createConversation fallita: {}", ex.getMessage(), ex);
+            throw new OpenAiUnavailableException("createConversation fallita: " + ex.getMessage(), ex);
+        }
     }
 
     @Override
-    public void bootstrapConversation(String conversationId, String initSystemPrompt) {
+    public Usage bootstrapConversation(String conversationId, String initSystemPrompt) {
         if (conversationId == null || conversationId.isBlank())
             throw new IllegalArgumentException("conversationId is required");
         if (initSystemPrompt == null || initSystemPrompt.isBlank())
-            return; // niente da fare
+            return Usage.NONE; // niente da fare
 
         final String url = "https://api.openai.com/v1/responses";
 
@@ -75,14 +118,25 @@ public class OpenAiServiceImpl implements OpenAiService {
 
         HttpHeaders headers = authJson();
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-        ResponseEntity<String> resp = restTemplate.postForEntity(url, entity, String.class);
-        log.info("OpenAI bootstrap responses: {}", resp);
-        if (resp.getStatusCode().isError())
-            throw new RuntimeException("Bootstrap failed: " + resp);
+        long start = System.nanoTime();
+        try {
+            ResponseEntity<String> resp = resilience.call(RESPONSES, false,
+                    () -> restTemplate.postForEntity(url, entity, String.class));
+            log.info("OpenAI bootstrap responses: {}", resp);
+            if (resp.getStatusCode().isError())
+                throw new IllegalStateException("Bootstrap failed: " + resp);
+            return record("bootstrap", parseUsage(resp.getBody(), start));
+        } catch (OpenAiUnavailableException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            log.error("OpenAI bootstrap fallito per {}: {}", conversationId, ex.getMessage(), ex);
+            elapsed("bootstrap", start);
+            throw new OpenAiUnavailableException("Bootstrap conversation fallito: " + ex.getMessage(), ex);
+        }
     }
 
     @Override
-    public String askInConversation(String conversationId, List<ChatMessage> messages, boolean store) {
+    public Reply askInConversation(String conversationId, List<ChatMessage> messages, boolean store) {
         final String url = "https://api.openai.com/v1/responses";
 
         Map<String, Object> payload = new HashMap<>();
@@ -99,22 +153,74 @@ public class OpenAiServiceImpl implements OpenAiService {
         payload.put("input", input);
 
         HttpHeaders headers = authJson();
+        long start = System.nanoTime();
         try {
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
+            ResponseEntity<String> response = resilience.call(RESPONSES, false,
+                    () -> restTemplate.postForEntity(url, entity, String.class));
             log.info("OpenAI responses: {}", response);
 
             String body = response.getBody();
             if (body == null || body.isBlank())
-                throw new RuntimeException("Empty responses body");
+                throw new IllegalStateException("Empty responses body");
 
-            return extractAssistantTextFromResponses(body);
+            Usage usage = record("ask", parseUsage(body, start));
+            return new Reply(extractAssistantTextFromResponses(body), usage);
+        } catch (OpenAiUnavailableException ex) {
+            throw ex;
         } catch (HttpStatusCodeException ex) {
             log.error("OpenAI responses error {}: {}", ex.getStatusCode(), ex.getResponseBodyAsString(), ex);
-            return "❌ Errore chiamando OpenAI (" + ex.getStatusCode() + ").";
+            elapsed("ask", start);
+            throw new OpenAiUnavailableException("OpenAI responses " + ex.getStatusCode(), ex);
         } catch (Exception e) {
             log.error("Errore generico nella chiamata OpenAI", e);
-            return "❌ Errore inatteso chiamando OpenAI.";
+            elapsed("ask", start);
+            throw new OpenAiUnavailableException("Errore chiamando OpenAI: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Reply askInConversationStreaming(String conversationId, List<ChatMessage> messages, boolean store,
+            Consumer<String> onDelta) {
+        final String url = "https://api.openai.com/v1/responses";
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", openAiModel);
+        payload.put("conversation", conversationId);
+        payload.put("store", store);
+        payload.put("max_output_tokens", maxTokens);
+        payload.put("temperature", temperature);
+        payload.put("stream", true);
+
+        List<Map<String, String>> input = new java.util.ArrayList<>();
+        for (ChatMessage m : messages) {
+            input.add(Map.of("role", m.role(), "content", m.content()));
+        }
+        payload.put("input", input);
+
+        long start = System.nanoTime();
+        try {
+            byte[] body = om.writeValueAsBytes(payload);
+            // gli errori HTTP arrivano prima del body: un retry non ripete delta già mostrati
+            Reply reply = resilience.call(RESPONSES, false,
+                    () -> restTemplate.execute(url, HttpMethod.POST, req -> {
+                        req.getHeaders().addAll(authJson());
+                        req.getHeaders().setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+                        // niente gzip sullo stream: ogni evento deve arrivare subito
+                        req.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "identity");
+                        req.getBody().write(body);
+                    }, resp -> readEventStream(resp.getBody(), onDelta, start)));
+            return reply == null ? new Reply("", elapsed("stream", start)) : reply;
+        } catch (OpenAiUnavailableException ex) {
+            throw ex;
+        } catch (HttpStatusCodeException ex) {
+            log.error("OpenAI responses (stream) error {}: {}", ex.getStatusCode(), ex.getResponseBodyAsString(), ex);
+            elapsed("stream", start);
+            throw new OpenAiUnavailableException("OpenAI responses (stream) " + ex.getStatusCode(), ex);
+        } catch (Exception e) {
+            log.error("Errore generico nella chiamata OpenAI in streaming", e);
+            elapsed("stream", start);
+            throw new OpenAiUnavailableException("Errore chiamando OpenAI in streaming: " + e.getMessage(), e);
         }
     }
 
@@ -137,14 +243,20 @@ public class OpenAiServiceImpl implements OpenAiService {
         payload.put("input", input);
 
         HttpHeaders headers = authJson();
+        long start = System.nanoTime();
         try {
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
+            // senza conversation: retry anche su timeout e hedging consentiti
+            ResponseEntity<String> response = resilience.call(RESPONSES, true,
+                    () -> restTemplate.postForEntity(url, entity, String.class));
             log.info("OpenAI responses (legacy path): {}", response);
             String body = response.getBody();
             if (body == null || body.isBlank())
                 return "❌ OpenAI API returned an empty response.";
+            record("legacy", parseUsage(body, start));
             return extractAssistantTextFromResponses(body);
+        } catch (OpenAiUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Errore generico Responses", e);
             return "❌ Errore inatteso chiamando OpenAI.";
@@ -159,6 +271,91 @@ public class OpenAiServiceImpl implements OpenAiService {
         return headers;
     }
 
+    /**
+     * Legge gli eventi SSE della Responses API: accumula i delta di testo e li
+     * inoltra a onDelta; se non arriva nessun delta usa la risposta completa.
+     */
+    private Reply readEventStream(InputStream in, Consumer<String> onDelta, long start) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String completed = null;
+        JsonNode usageNode = null;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // righe "event:", commenti e separatori: il tipo è anche nel JSON
+            if (!line.startsWith("data:"))
+                continue;
+            String data = line.substring(5).trim();
+            if (data.isEmpty() || "[DONE]".equals(data))
+                continue;
+            JsonNode ev = om.readTree(data);
+            switch (ev.path("type").asText("")) {
+                case "response.output_text.delta" -> {
+                    String delta = ev.path("delta").asText("");
+                    if (!delta.isEmpty()) {
+                        if (text.length() == 0)
+                            firstToken.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        text.append(delta);
+                        notifyDelta(onDelta, delta);
+                    }
+                }
+                case "response.completed" -> {
+                    completed = ev.path("response").toString();
+                    usageNode = ev.path("response").path("usage");
+                }
+                case "response.failed", "error" -> throw new IllegalStateException("Streaming OpenAI fallito: " + data);
+                default -> {
+                }
+            }
+        }
+        Usage usage = record("stream", parseUsage(usageNode, start));
+        if (text.length() == 0 && completed != null)
+            return new Reply(extractAssistantTextFromResponses(completed), usage);
+        return new Reply(text.toString().trim(), usage);
+    }
+
+    /** Blocco "usage" della Responses API (token a zero se assente). */
+    private Usage parseUsage(String body, long start) {
+        try {
+            return parseUsage(body == null ? null : om.readTree(body).path("usage"), start);
+        } catch (Exception e) {
+            return parseUsage((JsonNode) null, start);
+        }
+    }
+
+    private Usage parseUsage(JsonNode usage, long start) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (usage == null || !usage.isObject())
+            return new Usage(0, 0, 0, ms);
+        return new Usage(usage.path("input_tokens").asInt(0),
+                usage.path("input_tokens_details").path("cached_tokens").asInt(0),
+                usage.path("output_tokens").asInt(0), ms);
+    }
+
+    private Usage elapsed(String call, long start) {
+        return record(call, parseUsage((JsonNode) null, start));
+    }
+
+    /** Metriche per tipo di chiamata: token e durata. */
+    private Usage record(String call, Usage u) {
+        registry.timer("openai.call.latency", "call", call).record(u.latencyMs(), TimeUnit.MILLISECONDS);
+        registry.counter("openai.call.tokens", "call", call, "type", "input").increment(u.inputTokens());
+        registry.counter("openai.call.tokens", "call", call, "type", "cached_input").increment(u.cachedInputTokens());
+        registry.counter("openai.call.tokens", "call", call, "type", "output").increment(u.outputTokens());
+        return u;
+    }
+
+    private void notifyDelta(Consumer<String> onDelta, String delta) {
+        if (onDelta == null)
+            return;
+        try {
+            onDelta.accept(delta);
+        } catch (Exception e) {
+            // un problema lato Telegram non deve interrompere lo stream
+            log.warn("Errore inoltrando un delta di streaming: {}", e.getMessage());
+        }
+    }
+
     /**
      * Responses API: proviamo prima "output_text", altrimenti compattiamo l'array
      * "output".
@@ -1,7 +1,9 @@
 package it.overzoom.ordinainchat.service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.stereotype.Service;
@@ -11,11 +13,21 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import it.overzoom.ordinainchat.mcp.McpClient;
+import it.overzoom.ordinainchat.mcp.McpException;
+import it.overzoom.ordinainchat.mcp.McpOrder;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.mcp.McpToolException;
 import it.overzoom.ordinainchat.util.JsonUtils;
+import it.overzoom.ordinainchat.util.QuantityParser;
 import it.overzoom.ordinainchat.util.TextUtils;
 
 @Service
 public class OrderService {
+    // nomi del catalogo che contengono tutte le parole dette (TextUtils.similarity)
+    private static final double FUZZY_MIN_SCORE = 0.9;
+
     private final ObjectMapper om = new ObjectMapper();
     private final McpClient mcp;
     private final ProductService products;
@@ -25,7 +37,8 @@ public class OrderService {
         this.products = products;
     }
 
-    public ObjectNode sanitizeOrdersCreateArgs(ObjectNode modelArgs, String telegramUserId, String candidateFromCtx) {
+    public ObjectNode sanitizeOrdersCreateArgs(ObjectNode modelArgs, String candidateFromCtx,
+            QuantityParser.Quantity stated) {
         ObjectNode out = om.createObjectNode();
         ArrayNode cleanItems = om.createArrayNode();
 
@@ -33,15 +46,18 @@ public class OrderService {
         if (!items.isArray())
             items = om.createArrayNode().add(modelArgs);
 
+        // la quantità del messaggio vale solo se l'ordine ha un articolo
+        boolean single = items.size() == 1;
         for (JsonNode it : items) {
             BigDecimal qty = parseQty(it.path("quantity").asText(null));
-            if (qty == null || qty.compareTo(BigDecimal.ZERO) <= 0)
+            boolean noQty = qty == null || qty.compareTo(BigDecimal.ZERO) <= 0;
+            if (noQty && (stated == null || !single))
                 continue;
 
             long pid = it.path("productId").asLong(0L);
             String resolvedName = null;
             if (pid > 0) {
-                resolvedName = products.resolveName(pid, telegramUserId);
+                resolvedName = products.resolveName(pid);
                 if (isBlank(resolvedName))
                     pid = 0L;
             }
@@ -53,40 +69,39 @@ public class OrderService {
                 if (isBlank(candidateName))
                     continue;
 
-                // search e best-match
-                try {
-                    ObjectNode searchArgs = om.createObjectNode();
-                    searchArgs.put("textSearch", candidateName);
-                    searchArgs.put("page", 0);
-                    searchArgs.put("size", 10);
-                    ObjectNode meta = om.createObjectNode().put("telegramUserId", telegramUserId);
-                    ObjectNode payload = om.createObjectNode();
-                    payload.put("tool", "products_search");
-                    payload.set("arguments", searchArgs);
-                    payload.set("meta", meta);
-
-                    String body = mcp.call(payload);
-                    JsonNode root = om.readTree(body == null ? "{}" : body);
-                    JsonNode data = root.path("data");
-                    if (data.isMissingNode())
-                        data = root;
-                    JsonNode list = data.path("items");
-                    if (list.isArray() && list.size() > 0) {
-                        JsonNode best = products.pickBestMatch(list, candidateName);
-                        if (best != null) {
-                            pid = best.path("id").asLong(0L);
-                            String bestName = JsonUtils.safeTxt(best, "name");
-                            if (pid > 0 && !bestName.isBlank()) {
-                                products.cacheName(pid, bestName.trim().replaceAll("\\s+", " "));
-                                resolvedName = bestName;
-                            }
+                // nome del catalogo, anche scritto male o incompleto: niente search
+                McpProduct known = products.findByName(candidateName)
+                        .or(() -> products.findByNameFuzzy(candidateName, FUZZY_MIN_SCORE))
+                        .orElse(null);
+                if (known != null) {
+                    pid = known.id();
+                    resolvedName = known.displayName();
+                } else {
+                    // search e best-match
+                    try {
+                        ObjectNode searchArgs = om.createObjectNode();
+                        searchArgs.put("textSearch", candidateName);
+                        searchArgs.put("page", 0);
+                        searchArgs.put("size", 10);
+
+                        McpProductPage page = products.search(searchArgs);
+                        McpProduct best = products.pickBestMatch(page.items(), candidateName);
+                        if (best != null && best.id() > 0 && !best.displayName().isBlank()) {
+                            pid = best.id();
+                            products.cache(best);
+                            resolvedName = best.displayName();
                         }
+                    } catch (McpException ignored) {
                     }
-                } catch (Exception ignored) {
                 }
             }
             if (pid <= 0)
                 continue;
+            BigDecimal said = single ? statedFor(stated, pid, noQty) : null;
+            if (said != null)
+                qty = said;
+            else if (noQty)
+                continue;
 
             ObjectNode clean = om.createObjectNode();
             clean.put("productId", pid);
@@ -103,30 +118,30 @@ public class OrderService {
         return out;
     }
 
-    public String renderOrderConfirmation(String mcpResponseBody, ObjectNode argsSent, String telegramUserId) {
+    /** Crea l'ordine sul gestionale e ritorna il testo di conferma (o l'errore). */
+    public String createOrder(ObjectNode args, String telegramUserId) {
         try {
-            JsonNode root = om.readTree(mcpResponseBody == null ? "{}" : mcpResponseBody);
-            if ("error".equalsIgnoreCase(root.path("status").asText(""))) {
-                String msg = root.path("message").asText("Errore MCP");
-                return "Errore nel creare l’ordine: " + msg;
-            }
-            String orderId = firstNonBlank(
-                    root.path("data").path("orderId").asText(""),
-                    root.path("orderId").asText(""));
+            McpOrder order = mcp.createOrder(args, telegramUserId);
+            return renderOrderConfirmation(order, args);
+        } catch (McpToolException e) {
+            return "Errore nel creare l’ordine: " + e.getMessage();
+        } catch (McpException e) {
+            return "Errore nel creare l’ordine: il gestionale non risponde, riprova tra poco.";
+        }
+    }
+
+    public String renderOrderConfirmation(McpOrder order, ObjectNode argsSent) {
+        try {
+            String orderId = (order == null) ? null : order.orderId();
 
             Map<Long, String> namesFromOrder = new HashMap<>();
-            JsonNode dataItems = root.path("data").path("items");
-            if (dataItems.isArray()) {
-                for (JsonNode it : dataItems) {
-                    long pid = it.path("productId").asLong(0L);
-                    String n = firstNonBlank(
-                            it.path("name").asText(null),
-                            it.path("productName").asText(null),
-                            it.path("title").asText(null));
-                    if (pid > 0 && n != null && !n.isBlank()) {
+            if (order != null) {
+                for (McpOrder.Item it : order.items()) {
+                    String n = it.name();
+                    if (it.productId() > 0 && n != null && !n.isBlank()) {
                         n = n.trim().replaceAll("\\s+", " ");
-                        namesFromOrder.put(pid, n);
-                        products.cacheName(pid, n);
+                        namesFromOrder.put(it.productId(), n);
+                        products.cacheName(it.productId(), n);
                     }
                 }
             }
@@ -134,12 +149,19 @@ public class OrderService {
             StringBuilder itemsTxt = new StringBuilder();
             JsonNode items = argsSent.path("items");
             if (items.isArray()) {
+                // i nomi che l'ordine non riporta si risolvono tutti insieme
+                List<Long> unnamed = new ArrayList<>();
+                for (JsonNode it : items) {
+                    long pid = it.path("productId").asLong(0L);
+                    if (isBlank(namesFromOrder.get(pid)))
+                        unnamed.add(pid);
+                }
+                namesFromOrder.putAll(products.resolveNames(unnamed));
+
                 for (JsonNode it : items) {
                     long pid = it.path("productId").asLong(0L);
                     String qty = it.path("quantity").asText("").replace('.', ',');
                     String name = namesFromOrder.get(pid);
-                    if (isBlank(name))
-                        name = products.resolveName(pid, telegramUserId);
                     if (isBlank(name))
                         name = "articolo";
                     if (itemsTxt.length() > 0)
@@ -158,6 +180,22 @@ public class OrderService {
         }
     }
 
+    /**
+     * Quantità detta dall'utente se l'unità è quella con cui si vende il
+     * prodotto (kg o pezzi), altrimenti null. Un numero senza unità serve solo
+     * a riempire una quantità che il modello non ha ricavato.
+     */
+    private BigDecimal statedFor(QuantityParser.Quantity stated, long pid, boolean missing) {
+        if (stated == null || stated.value().signum() <= 0 || stated.unit() == QuantityParser.Unit.CRATE)
+            return null;
+        if (stated.unit() == QuantityParser.Unit.UNSPECIFIED)
+            return missing ? stated.value() : null;
+        McpProduct p = products.getById(pid).orElse(null);
+        if (p == null)
+            return null;
+        return (p.soldByPiece() == (stated.unit() == QuantityParser.Unit.PIECE)) ? stated.value() : null;
+    }
+
     private static BigDecimal parseQty(String s) {
         if (s == null)
             return null;
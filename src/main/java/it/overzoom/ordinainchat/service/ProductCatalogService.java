@@ -1,180 +1,395 @@
 package it.overzoom.ordinainchat.service;
 
-import java.util.ArrayList;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import it.overzoom.ordinainchat.data.AliasLexiconStore;
+import it.overzoom.ordinainchat.data.CatalogSnapshotStore;
+import it.overzoom.ordinainchat.mcp.McpClient;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.util.AliasLexicon;
 import it.overzoom.ordinainchat.util.TextUtils;
 import jakarta.annotation.PostConstruct;
 
+/**
+ * Catalogo prodotti in memoria. Di norma si scaricano solo i prodotti cambiati
+ * dall'ultimo cursore ({@code updatedSince}), pagina per pagina, con gli id
+ * rimossi come tombstone; la riconciliazione completa gira su una schedulazione
+ * lenta o quando il numero di prodotti non torna con quello del server.
+ * Ogni aggiornamento produce un nuovo {@link CatalogSnapshot} immutabile,
+ * pubblicato con uno swap atomico: le letture non prendono lock. I sync sono
+ * serializzati da un lock tenuto anche durante le chiamate MCP (ReentrantLock:
+ * niente pinning dei virtual thread), lo swap da un secondo lock breve che non
+ * aspetta mai la rete. All'avvio si parte dalla copia su disco e il primo sync
+ * gira in background. Il lessico dei sinonimi regionali è compilato nello
+ * snapshot e si ricarica a caldo.
+ */
 @Service
 public class ProductCatalogService {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductCatalogService.class);
+    // margine sul cursore locale per gli orologi non allineati col server
+    private static final Duration CURSOR_SKEW = Duration.ofSeconds(5);
+    private static final int MAX_PAGES = 1000;
+
     private final ObjectMapper om = new ObjectMapper();
-    private final McpService mcpService;
+    private final McpClient mcp;
+    private final ApplicationEventPublisher events;
+    private final MeterRegistry registry;
+    private final CatalogSnapshotStore store;
+    private final AliasLexiconStore aliasStore;
+    private final int pageSize;
+    private final Duration staleAfter;
+    private final int driftCheckEvery;
 
-    // indici
-    private final Map<Long, String> idToName = new ConcurrentHashMap<>();
-    private final Map<String, Long> normNameToId = new ConcurrentHashMap<>();
+    // versione pubblicata; si scrive solo sotto swapLock
+    private final AtomicReference<CatalogSnapshot> snapshot = new AtomicReference<>(CatalogSnapshot.EMPTY);
+    // updatedSince per il prossimo delta; null finché non c'è stata una riconciliazione
+    private volatile String cursor;
+    // ultimo sync riuscito (o salvataggio dello snapshot letto da disco); null = mai
+    private volatile Instant lastSyncAt;
+    // un sync alla volta, rete compresa
+    private final ReentrantLock syncLock = new ReentrantLock();
+    // calcolo e pubblicazione di una nuova versione, senza I/O
+    private final ReentrantLock swapLock = new ReentrantLock();
+    // delta dall'ultimo controllo del totale sul server
+    private int deltasSinceDriftCheck;
 
-    public ProductCatalogService(McpService mcpService) {
-        this.mcpService = mcpService;
+    public ProductCatalogService(McpClient mcp, ApplicationEventPublisher events, MeterRegistry registry,
+            CatalogSnapshotStore store, AliasLexiconStore aliasStore,
+            @Value("${mcp.catalog.page-size:500}") int pageSize,
+            @Value("${mcp.catalog.stale-after-ms:600000}") long staleAfterMs,
+            @Value("${mcp.catalog.drift-check-every:10}") int driftCheckEvery) {
+        this.mcp = mcp;
+        this.events = events;
+        this.registry = registry;
+        this.store = store;
+        this.aliasStore = aliasStore;
+        this.pageSize = Math.max(1, pageSize);
+        this.staleAfter = Duration.ofMillis(staleAfterMs);
+        this.driftCheckEvery = Math.max(1, driftCheckEvery);
+        registry.gauge("catalog.version", snapshot, s -> s.get().version());
+        registry.gauge("catalog.size", snapshot, s -> s.get().size());
+        registry.gauge("catalog.alias.terms", snapshot, s -> s.get().aliasCount());
     }
 
+    /** Carica la copia su disco (millisecondi) e lancia il primo sync senza bloccare l'avvio. */
     @PostConstruct
     public void init() {
-        refreshProducts();
+        AliasLexicon lexicon = aliasStore.load();
+        snapshot.set(CatalogSnapshot.EMPTY.withAliases(0, lexicon));
+        store.load().ifPresent(stored -> {
+            snapshot.set(stored.snapshot().withAliases(stored.snapshot().version(), lexicon));
+            cursor = stored.cursor();
+            lastSyncAt = stored.savedAt();
+            log.info("Catalogo caricato da disco: {} prodotti, versione {}, salvato il {}",
+                    stored.snapshot().size(), stored.snapshot().version(), stored.savedAt());
+        });
+        Thread.ofVirtual().name("catalog-warmup").start(this::refreshProducts);
     }
 
-    /** Aggiorna l’intero catalogo (es. ogni 2.5 minuti). */
-    @Scheduled(fixedDelay = 150_000)
+    /** Delta dall'ultimo cursore (es. ogni 2.5 minuti). */
+    @Scheduled(fixedDelayString = "${mcp.catalog.delta-interval-ms:150000}",
+            initialDelayString = "${mcp.catalog.delta-interval-ms:150000}")
     public void refreshProducts() {
+        syncLock.lock();
         try {
-            ObjectNode payload = om.createObjectNode();
-            payload.put("tool", "products_search");
-            ObjectNode args = om.createObjectNode();
-            args.put("onlyOnOffer", false);
-            args.put("page", 0);
-            args.put("size", 5000); // alto per coprire l’intero db
-            payload.set("arguments", args);
-
-            String body = mcpService.callMcp(payload);
-            List<Item> items = parseIdNameList(body);
+            if (cursor == null) {
+                reconcile();
+                return;
+            }
+            syncDelta();
+            // il totale costa una chiamata in più: lo si chiede solo ogni drift-check-every delta
+            if (++deltasSinceDriftCheck >= driftCheckEvery) {
+                deltasSinceDriftCheck = 0;
+                if (drifted()) {
+                    registry.counter("catalog.sync.drift").increment();
+                    log.info("Catalogo disallineato col server, riconciliazione completa");
+                    reconcile();
+                }
+            }
+        } catch (Exception e) {
+            registry.counter("catalog.sync", "mode", "delta", "outcome", "error").increment();
+            log.warn("Delta catalogo fallito: {}", e.getMessage());
+        } finally {
+            syncLock.unlock();
+        }
+    }
 
-            rebuildIndexes(items);
+    /** Riconciliazione completa, su schedulazione lenta. */
+    @Scheduled(fixedDelayString = "${mcp.catalog.full-interval-ms:3600000}",
+            initialDelayString = "${mcp.catalog.full-interval-ms:3600000}")
+    public void reconcileProducts() {
+        syncLock.lock();
+        try {
+            reconcile();
         } catch (Exception e) {
-            // logga, ma non esplodere
-            e.printStackTrace();
+            registry.counter("catalog.sync", "mode", "full", "outcome", "error").increment();
+            log.warn("Riconciliazione catalogo fallita: {}", e.getMessage());
+        } finally {
+            syncLock.unlock();
         }
     }
 
-    /** Ingest di una PO di search/ordine per aggiornare subito gli indici. */
-    public void ingestFromMcp(String mcpBody) {
+    /** Rilegge il lessico dei sinonimi se il file esterno è cambiato. */
+    @Scheduled(fixedDelayString = "${mcp.catalog.aliases.reload-interval-ms:30000}",
+            initialDelayString = "${mcp.catalog.aliases.reload-interval-ms:30000}")
+    public void reloadAliases() {
+        aliasStore.loadIfChanged().ifPresent(lexicon -> {
+            swapLock.lock();
+            try {
+                CatalogSnapshot current = snapshot.get();
+                snapshot.set(current.withAliases(current.version() + 1, lexicon));
+            } finally {
+                swapLock.unlock();
+            }
+            log.info("Lessico sinonimi aggiornato: {} termini riconducibili al catalogo",
+                    snapshot.get().aliasCount());
+        });
+    }
+
+    /**
+     * Ingest dei prodotti di una search MCP: aggiunge subito quelli che il
+     * catalogo non conosce ancora (gli altri li aggiorna il delta). Prima del
+     * primo caricamento non fa niente: il catalogo lo costruisce il sync.
+     */
+    public void ingest(List<McpProduct> products) {
+        CatalogSnapshot seen = snapshot.get();
+        if (lastSyncAt == null || products.stream().allMatch(p -> p.id() <= 0 || seen.contains(p.id())))
+            return;
+        swapLock.lock();
         try {
-            List<Item> items = parseIdNameList(mcpBody);
-            if (!items.isEmpty())
-                addOrUpdate(items);
-        } catch (Exception ignore) {
+            CatalogSnapshot current = snapshot.get();
+            List<McpProduct> unknown = products.stream()
+                    .filter(p -> p.id() > 0 && !current.contains(p.id()))
+                    .toList();
+            if (!unknown.isEmpty())
+                snapshot.set(current.with(current.version() + 1, unknown, List.of()));
+        } finally {
+            swapLock.unlock();
         }
     }
 
+    /** Ora dell'ultimo sync riuscito; null se il catalogo non è mai stato caricato. */
+    public Instant lastSyncAt() {
+        return lastSyncAt;
+    }
+
+    /** Nessun sync riuscito negli ultimi stale-after-ms (o mai). */
+    public boolean isStale() {
+        Instant last = lastSyncAt;
+        return last == null || last.plus(staleAfter).isBefore(Instant.now());
+    }
+
+    /** Versione corrente del catalogo (immutabile, senza lock). */
+    public CatalogSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    public long version() {
+        return snapshot.get().version();
+    }
+
     /** Lookup name by id (display). */
     public String getNameById(long id) {
-        return idToName.get(id);
+        return snapshot.get().nameOf(id);
     }
 
     /** Lookup id by nome (exact/normalize). */
     public Long getIdByNameExact(String name) {
         if (name == null)
             return null;
-        return normNameToId.get(TextUtils.normalize(name));
+        return snapshot.get().idByNormalized(TextUtils.normalize(name));
     }
 
-    public Long getIdByNameFuzzy(String name, double minScore) {
+    /**
+     * Lookup id per nome esatto, anche detto con un sinonimo regionale
+     * ("spinola" → "spigola") o con qualche errore di battitura ("spigla").
+     */
+    public Long getIdByNameCorrected(String name) {
         if (name == null)
             return null;
-        String desired = TextUtils.normalize(name);
-        Long exact = normNameToId.get(desired);
+        CatalogSnapshot catalog = snapshot.get();
+        Long exact = catalog.idByNormalized(TextUtils.normalize(name));
         if (exact != null)
             return exact;
+        Long alias = byAlias(catalog, name);
+        return (alias != null) ? alias : catalog.idByCorrectedName(name);
+    }
 
-        double best = -1;
-        Long bestId = null;
-        for (Map.Entry<Long, String> e : idToName.entrySet()) {
-            double s = TextUtils.similarity(e.getValue(), name);
-            if (s > best) {
-                best = s;
-                bestId = e.getKey();
-            }
-            if (s >= 0.999)
-                return e.getKey();
-        }
-        return (best >= minScore) ? bestId : null;
+    public Long getIdByNameFuzzy(String name, double minScore) {
+        if (name == null)
+            return null;
+        CatalogSnapshot catalog = snapshot.get();
+        Long exact = catalog.idByNormalized(TextUtils.normalize(name));
+        if (exact != null)
+            return exact;
+        Long alias = byAlias(catalog, name);
+        if (alias != null)
+            return alias;
+        String corrected = catalog.correctSpelling(catalog.expandAliases(name));
+        Long fixed = catalog.idByNormalized(corrected);
+        if (fixed != null)
+            return fixed;
+        return catalog.fuzzyMatch(corrected, minScore);
     }
 
-    public void addOrUpdate(List<Item> items) {
-        for (Item it : items) {
-            if (it.id() <= 0 || it.name() == null || it.name().isBlank())
-                continue;
-            String display = it.name().trim().replaceAll("\\s+", " ");
-            String norm = TextUtils.normalize(display);
-            idToName.put(it.id(), display);
-            normNameToId.put(norm, it.id());
-        }
+    /**
+     * Lessico dei sinonimi, consultato dopo il match esatto. Le metriche
+     * catalog.alias.lookups danno l'hit rate: hit (prodotto trovato),
+     * ambiguous (sinonimo noto ma più prodotti possibili), miss.
+     */
+    private Long byAlias(CatalogSnapshot catalog, String name) {
+        CatalogAliasIndex.Match m = catalog.resolveAlias(name);
+        String outcome = (m == null) ? "miss" : (m.id() == null) ? "ambiguous" : "hit";
+        registry.counter("catalog.alias.lookups", "outcome", outcome).increment();
+        return (m == null) ? null : m.id();
     }
 
-    // ---------- parsing & indexing ----------
+    // ---------- sync ----------
 
-    public record Item(long id, String name) {
+    private void syncDelta() {
+        Instant started = Instant.now();
+        CatalogSnapshot current = snapshot.get();
+        Map<Long, McpProduct> changed = new HashMap<>();
+        Set<Long> removed = new HashSet<>();
+        String next = fetchPages(cursor, page -> {
+            for (McpProduct p : page.items())
+                if (p.id() > 0 && !p.equals(current.product(p.id())))
+                    changed.put(p.id(), p);
+            for (Long id : page.deletedIds())
+                if (id != null && current.contains(id))
+                    removed.add(id);
+        });
+        changed.keySet().removeAll(removed);
+        CatalogSnapshot published = current;
+        if (!changed.isEmpty() || !removed.isEmpty())
+            published = apply(changed.values(), removed);
+
+        cursor = (next != null) ? next : started.minus(CURSOR_SKEW).toString();
+        lastSyncAt = Instant.now();
+        if (published != current)
+            store.save(published, cursor);
+        registry.counter("catalog.sync", "mode", "delta", "outcome", "ok").increment();
+        registry.counter("catalog.sync.items", "mode", "delta").increment(changed.size() + removed.size());
+        publish(published.version(), changed, removed);
     }
 
-    private List<Item> parseIdNameList(String json) throws Exception {
-        List<Item> out = new ArrayList<>();
-        JsonNode root = om.readTree(json == null ? "{}" : json);
-        JsonNode data = root.path("data");
-        if (data.isMissingNode())
-            data = root;
+    private void reconcile() {
+        Instant started = Instant.now();
+        Map<Long, McpProduct> fresh = new HashMap<>();
+        String nextCursor = fetchPages(null, page -> {
+            for (McpProduct p : page.items())
+                if (p.id() > 0)
+                    fresh.put(p.id(), p);
+        });
+        CatalogSnapshot current = snapshot.get();
+        boolean firstLoad = current.isEmpty();
 
-        JsonNode items = data.path("items");
-        if (!items.isArray()) {
-            if (data.isArray())
-                items = data;
-            else if (root.path("items").isArray())
-                items = root.path("items");
-            else
-                return out;
-        }
+        Map<Long, McpProduct> changed = new HashMap<>();
+        for (Map.Entry<Long, McpProduct> e : fresh.entrySet())
+            if (!e.getValue().equals(current.product(e.getKey())))
+                changed.put(e.getKey(), e.getValue());
+        Set<Long> removed = new HashSet<>(current.ids());
+        removed.removeAll(fresh.keySet());
 
-        for (JsonNode p : items) {
-            long id = p.path("id").asLong(0L);
-            String name = firstNonBlank(
-                    textOrNull(p, "name"),
-                    textOrNull(p, "productName"),
-                    textOrNull(p, "title"),
-                    textOrNull(p, "label"));
-            if (id > 0 && name != null && !name.isBlank()) {
-                out.add(new Item(id, name));
-            }
+        // costruito a parte (riusando gli indici della versione corrente), poi un solo swap
+        CatalogSnapshot next = apply(changed.values(), removed);
+
+        cursor = (nextCursor != null) ? nextCursor : started.minus(CURSOR_SKEW).toString();
+        lastSyncAt = Instant.now();
+        if (next != current)
+            store.save(next, cursor);
+        registry.counter("catalog.sync", "mode", "full", "outcome", "ok").increment();
+        registry.counter("catalog.sync.items", "mode", "full").increment(fresh.size());
+        if (!firstLoad) // primo caricamento: niente da invalidare
+            publish(next.version(), changed, removed);
+    }
+
+    /**
+     * Nuova versione con i cambi applicati all'ultima pubblicata (nel frattempo
+     * un ingest può averla aggiornata) e un solo swap. Senza cambi resta la
+     * versione corrente.
+     */
+    private CatalogSnapshot apply(Collection<McpProduct> changed, Collection<Long> removed) {
+        if (changed.isEmpty() && removed.isEmpty())
+            return snapshot.get();
+        swapLock.lock();
+        try {
+            CatalogSnapshot current = snapshot.get();
+            CatalogSnapshot next = current.with(current.version() + 1, changed, removed);
+            snapshot.set(next);
+            return next;
+        } finally {
+            swapLock.unlock();
         }
-        return out;
     }
 
-    private void rebuildIndexes(List<Item> items) {
-        if (items == null)
-            return;
-        // ricostruisci da zero (evita residui)
-        Map<Long, String> newIdToName = new ConcurrentHashMap<>();
-        Map<String, Long> newNormToId = new ConcurrentHashMap<>();
-        for (Item it : items) {
-            String display = it.name().trim().replaceAll("\\s+", " ");
-            String norm = TextUtils.normalize(display);
-            newIdToName.put(it.id(), display);
-            newNormToId.put(norm, it.id());
+    /**
+     * Scarica le pagine (tutte, o solo i cambi da {@code since}) passandole al
+     * sink una alla volta. Ritorna il cursore proposto dal server, se c'è.
+     */
+    private String fetchPages(String since, Consumer<McpProductPage> sink) {
+        String serverCursor = null;
+        for (int page = 0; page < MAX_PAGES; page++) {
+            ObjectNode args = om.createObjectNode();
+            args.put("onlyOnOffer", false);
+            args.put("page", page);
+            args.put("size", pageSize);
+            if (since != null) {
+                args.put("updatedSince", since);
+                args.put("includeDeleted", true);
+            }
+            McpProductPage result = mcp.searchProducts(args, null);
+            sink.accept(result);
+            if (result.cursor() != null)
+                serverCursor = result.cursor();
+
+            long seen = (long) (page + 1) * pageSize;
+            boolean last = result.items().size() < pageSize
+                    || (result.total() != null && seen >= result.total())
+                    // server senza paginazione: ha già restituito tutto
+                    || (result.page() != null && result.page() != page);
+            if (last)
+                break;
         }
-        idToName.clear();
-        idToName.putAll(newIdToName);
-        normNameToId.clear();
-        normNameToId.putAll(newNormToId);
+        return serverCursor;
     }
 
-    private String textOrNull(JsonNode n, String key) {
-        return (n != null && n.hasNonNull(key)) ? n.get(key).asText() : null;
+    /** Il server dichiara un totale diverso da quello che abbiamo in memoria. */
+    private boolean drifted() {
+        ObjectNode args = om.createObjectNode();
+        args.put("onlyOnOffer", false);
+        args.put("page", 0);
+        args.put("size", 1);
+        Long total = mcp.searchProducts(args, null).total();
+        return total != null && total != snapshot.get().size();
     }
 
-    private String firstNonBlank(String... vals) {
-        if (vals == null)
-            return null;
-        for (String v : vals)
-            if (v != null && !v.isBlank())
-                return v;
-        return null;
+    private void publish(long version, Map<Long, McpProduct> changed, Set<Long> removed) {
+        CatalogChangedEvent event = new CatalogChangedEvent(version, changed, removed);
+        if (!event.isEmpty())
+            events.publishEvent(event);
     }
 }
@@ -1,114 +1,161 @@
 package it.overzoom.ordinainchat.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import it.overzoom.ordinainchat.data.ProductCache;
 import it.overzoom.ordinainchat.data.ProductNameCache;
-import it.overzoom.ordinainchat.util.JsonUtils;
+import it.overzoom.ordinainchat.data.ProductSearchCache;
+import it.overzoom.ordinainchat.mcp.McpClient;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
 import it.overzoom.ordinainchat.util.TextUtils;
 
 @Service
 public class ProductService {
-    private final ObjectMapper om = new ObjectMapper();
     private final McpClient mcp;
+    private final ProductCache productCache;
+    private final ProductSearchCache searchCache;
+    private final ProductCatalogService catalog;
+    private final MeterRegistry registry;
+    private final boolean localSearch;
     private final ProductNameCache cache = new ProductNameCache();
 
-    public ProductService(McpClient mcp) {
+    public ProductService(McpClient mcp, ProductCache productCache, ProductSearchCache searchCache,
+            ProductCatalogService catalog, MeterRegistry registry,
+            @Value("${mcp.catalog.local-search.enabled:true}") boolean localSearch) {
         this.mcp = mcp;
+        this.productCache = productCache;
+        this.searchCache = searchCache;
+        this.catalog = catalog;
+        this.registry = registry;
+        this.localSearch = localSearch;
     }
 
-    public Map<Long, String> parseIdNameMap(String json) throws Exception {
-        JsonNode root = om.readTree(json == null ? "{}" : json);
-        Map<Long, String> out = new HashMap<>();
-        JsonNode data = root.path("data");
-        if (data.isMissingNode())
-            data = root;
-        JsonNode items = data.path("items");
-        if (!items.isArray()) {
-            if (data.isArray())
-                items = data;
-            else if (root.path("items").isArray())
-                items = root.path("items");
-            else
-                return out;
-        }
-        for (JsonNode p : items) {
-            long id = p.path("id").asLong(0L);
-            String name = Optional.ofNullable(JsonUtils.textOrNull(p, "name", "productName", "title", "label"))
-                    .orElse("");
-            if (id > 0 && !name.isBlank())
-                out.put(id, name.trim().replaceAll("\\s+", " "));
+    /**
+     * products_search: sul catalogo in memoria se è aggiornato e i filtri si
+     * possono valutare in locale, altrimenti (disponibilità, catalogo vecchio)
+     * MCP passando dalla cache dei risultati. Il risultato non dipende
+     * dall'utente, quindi la chiamata parte senza telegramUserId.
+     */
+    public McpProductPage search(JsonNode args) {
+        if (localSearch && !catalog.isStale()) {
+            CatalogSnapshot snapshot = catalog.snapshot();
+            Optional<McpProductPage> local = snapshot.isEmpty() ? Optional.empty() : snapshot.search(args);
+            if (local.isPresent()) {
+                registry.counter("catalog.search", "source", "local").increment();
+                local.get().items().forEach(this::cache);
+                return local.get();
+            }
         }
-        return out;
+        registry.counter("catalog.search", "source", "mcp").increment();
+        McpProductPage page = searchCache.get(args, () -> {
+            McpProductPage fresh = mcp.searchProducts(args, null);
+            // prodotti nuovi visti prima del prossimo delta: subito nel catalogo (non da una
+            // pagina in cache, che potrebbe riportare un prodotto già tolto dal delta)
+            catalog.ingest(fresh.items());
+            return fresh;
+        });
+        page.items().forEach(this::cache);
+        return page;
     }
 
-    public String resolveName(long productId, String telegramUserId) {
+    public String resolveName(long productId) {
         if (productId <= 0)
             return null;
+        String known = catalog.snapshot().nameOf(productId);
+        if (known != null)
+            return known;
         String cached = cache.get(productId);
         if (cached != null && !cached.isBlank())
             return cached;
 
-        try {
-            ObjectNode args = om.createObjectNode().put("id", productId);
-            ObjectNode payload = om.createObjectNode();
-            payload.put("tool", "products_byid");
-            payload.set("arguments", args);
-            ObjectNode meta = om.createObjectNode();
-            if (telegramUserId != null && !telegramUserId.isBlank())
-                meta.put("telegramUserId", telegramUserId);
-            payload.set("meta", meta);
-
-            String body = mcp.call(payload);
-            JsonNode root = om.readTree(body == null ? "{}" : body);
-            JsonNode data = root.path("data");
-            if (data.isMissingNode())
-                data = root;
-
-            String name = Optional.ofNullable(JsonUtils.textOrNull(data, "name", "productName", "title", "label"))
-                    .orElse("");
-            if (!name.isBlank()) {
-                name = name.trim().replaceAll("\\s+", " ");
-                cache.put(productId, name);
-                return name;
-            }
-        } catch (Exception ignored) {
+        Optional<McpProduct> p = getById(productId);
+        if (p.isPresent()) {
+            String name = p.get().displayName();
+            cache.put(productId, name);
+            return name;
         }
         return cached;
     }
 
-    public JsonNode getById(long productId, String telegramUserId) {
-        try {
-            ObjectNode args = om.createObjectNode().put("id", productId);
-            ObjectNode payload = om.createObjectNode();
-            payload.put("tool", "products_byid");
-            payload.set("arguments", args);
-            ObjectNode meta = om.createObjectNode();
-            if (telegramUserId != null && !telegramUserId.isBlank())
-                meta.put("telegramUserId", telegramUserId);
-            payload.set("meta", meta);
-
-            String body = mcp.call(payload);
-            JsonNode root = om.readTree(body == null ? "{}" : body);
-            JsonNode data = root.path("data");
-            return data.isMissingNode() ? root : data;
-        } catch (Exception e) {
-            return null;
+    /**
+     * Nomi per più id: prima il catalogo e la cache dei nomi, poi tutti i
+     * mancanti insieme (una chiamata multi-id o lookup paralleli). Gli id non
+     * risolti mancano.
+     */
+    public Map<Long, String> resolveNames(Collection<Long> productIds) {
+        Map<Long, String> out = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        CatalogSnapshot snapshot = catalog.snapshot();
+        for (Long id : productIds) {
+            if (id == null || id <= 0 || out.containsKey(id))
+                continue;
+            String known = snapshot.nameOf(id);
+            if (known != null) {
+                out.put(id, known);
+                continue;
+            }
+            String cached = cache.get(id);
+            if (cached != null && !cached.isBlank())
+                out.put(id, cached);
+            else
+                missing.add(id);
+        }
+        for (McpProduct p : productCache.getAll(missing).values()) {
+            cache(p);
+            out.put(p.id(), p.displayName());
         }
+        return out;
     }
 
-    public JsonNode pickBestMatch(JsonNode items, String desiredName) {
+    /**
+     * Prodotto del catalogo in memoria con questo nome, tollerando errori di
+     * battitura sulle singole parole; vuoto se il nome non corrisponde.
+     */
+    public Optional<McpProduct> findByName(String name) {
+        Long id = catalog.getIdByNameCorrected(name);
+        McpProduct p = (id == null) ? null : catalog.snapshot().product(id);
+        if (p != null)
+            cache(p);
+        return Optional.ofNullable(p);
+    }
+
+    /**
+     * Prodotto del catalogo col nome più simile ({@link TextUtils#similarity}
+     * almeno {@code minScore}), dopo sinonimi e correzione ortografica; a pari
+     * punteggio il primo in ordine di nome. Vuoto se nessuno ci arriva.
+     */
+    public Optional<McpProduct> findByNameFuzzy(String name, double minScore) {
+        Long id = catalog.getIdByNameFuzzy(name, minScore);
+        McpProduct p = (id == null) ? null : catalog.snapshot().product(id);
+        if (p != null)
+            cache(p);
+        return Optional.ofNullable(p);
+    }
+
+    /** Prodotto da products_byid (via cache); vuoto se non esiste o il gestionale non risponde. */
+    public Optional<McpProduct> getById(long productId) {
+        Optional<McpProduct> p = productCache.get(productId);
+        p.ifPresent(this::cache);
+        return p;
+    }
+
+    public McpProduct pickBestMatch(Collection<McpProduct> items, String desiredName) {
         double bestScore = -1.0;
-        JsonNode best = null;
-        for (JsonNode p : items) {
-            String name = JsonUtils.safeTxt(p, "name");
+        McpProduct best = null;
+        for (McpProduct p : items) {
+            String name = p.displayName();
             if (name.isBlank())
                 continue;
             double s = TextUtils.similarity(name, desiredName);
@@ -129,4 +176,10 @@ public class ProductService {
     public void cacheName(long id, String name) {
         cache.put(id, name);
     }
+
+    /** I nomi che il catalogo ha già non si copiano nella cache. */
+    public void cache(McpProduct p) {
+        if (p != null && !p.displayName().equals(catalog.snapshot().nameOf(p.id())))
+            cache.put(p.id(), p.displayName());
+    }
 }
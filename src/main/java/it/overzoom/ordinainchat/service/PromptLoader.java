@@ -27,14 +27,26 @@ public class PromptLoader {
      * API).
      */
     public String loadInitSystemPrompt(UUID userId) {
-        String init = initCache.updateAndGet(curr -> {
+        String init = loadInitTemplate();
+        return (userId == null)
+                ? init
+                : init.replace(PLACEHOLDER_USER, userId.toString());
+    }
+
+    /**
+     * INIT senza sostituzioni, per le conversation create in anticipo dal pool
+     * (l'utente non è ancora noto).
+     */
+    public String loadInitSystemPromptTemplate() {
+        return loadInitTemplate();
+    }
+
+    private String loadInitTemplate() {
+        return initCache.updateAndGet(curr -> {
             if (curr != null)
                 return curr;
             return safeReadClasspath(INIT_PATH);
         });
-        return (userId == null)
-                ? init
-                : init.replace(PLACEHOLDER_USER, userId.toString());
     }
 
     /**
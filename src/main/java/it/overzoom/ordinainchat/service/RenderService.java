@@ -5,137 +5,115 @@ import java.util.List;
 
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
+import it.overzoom.ordinainchat.mcp.McpCustomer;
+import it.overzoom.ordinainchat.mcp.McpException;
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
 import it.overzoom.ordinainchat.util.JsonUtils;
 
 @Service
 public class RenderService {
-    private final ObjectMapper om = new ObjectMapper();
 
-    public String productsList(String mcpResponseBody, String heading,
+    public String productsList(McpProductPage page, String heading,
             java.util.function.BiConsumer<Long, String> cachePut) {
-        try {
-            JsonNode root = om.readTree(mcpResponseBody == null ? "{}" : mcpResponseBody);
-            if ("error".equalsIgnoreCase(root.path("status").asText(""))) {
-                String msg = root.path("message").asText("Errore MCP");
-                return "Errore dal gestionale: " + msg;
-            }
-            JsonNode data = root.path("data");
-            if (data.isMissingNode())
-                data = root;
-            JsonNode items = data.path("items");
-            if (!items.isArray() || items.size() == 0)
-                return "Al momento non risultano articoli disponibili per la ricerca richiesta.";
+        if (page == null || page.isEmpty())
+            return "Al momento non risultano articoli disponibili per la ricerca richiesta.";
 
-            StringBuilder sb = new StringBuilder(heading).append("\n");
-            for (JsonNode p : items) {
-                long id = p.path("id").asLong(0L);
-                String name = JsonUtils.safeTxt(p, "name");
-                if (id > 0 && !name.isBlank() && cachePut != null)
-                    cachePut.accept(id, name.trim().replaceAll("\\s+", " "));
-                String desc = JsonUtils.safeTxt(p, "description");
-                String price = JsonUtils.formatPrice(p.path("priceEur"), java.util.Locale.ITALY);
-                String freshness = JsonUtils.safeTxt(p, "freshness");
-                String source = JsonUtils.safeTxt(p, "source");
+        StringBuilder sb = new StringBuilder(heading).append("\n");
+        for (McpProduct p : page.items()) {
+            String name = p.displayName();
+            if (p.id() > 0 && !name.isBlank() && cachePut != null)
+                cachePut.accept(p.id(), name);
+            String desc = blankIfNull(p.description());
+            String price = JsonUtils.formatPrice(p.priceEur(), java.util.Locale.ITALY);
+            String freshness = blankIfNull(p.freshness());
+            String source = blankIfNull(p.source());
 
-                List<String> extra = new ArrayList<>();
-                String originArea = JsonUtils.safeTxt(p, "originArea");
-                String faoArea = JsonUtils.safeTxt(p, "faoArea");
-                String originCountry = JsonUtils.safeTxt(p, "originCountry");
-                if (!originArea.isBlank())
-                    extra.add(originArea);
-                if (!faoArea.isBlank())
-                    extra.add("FAO " + faoArea);
-                if (!originCountry.isBlank())
-                    extra.add(originCountry);
+            List<String> extra = new ArrayList<>();
+            if (!blankIfNull(p.originArea()).isBlank())
+                extra.add(p.originArea().trim());
+            if (!blankIfNull(p.faoArea()).isBlank())
+                extra.add("FAO " + p.faoArea().trim());
+            if (!blankIfNull(p.originCountry()).isBlank())
+                extra.add(p.originCountry().trim());
 
-                sb.append("• ").append(name);
-                if (!desc.isBlank())
-                    sb.append(" — ").append(desc);
-                if (!price.isBlank())
-                    sb.append(" — ").append(price).append("/kg");
+            sb.append("• ").append(name);
+            if (!desc.isBlank())
+                sb.append(" — ").append(desc);
+            if (!price.isBlank())
+                sb.append(" — ").append(price).append("/kg");
 
-                List<String> tags = new ArrayList<>();
-                if (freshness.equalsIgnoreCase("FRESH"))
-                    tags.add("fresco");
-                if (freshness.equalsIgnoreCase("FROZEN"))
-                    tags.add("surgelato");
-                if (source.equalsIgnoreCase("WILD_CAUGHT"))
-                    tags.add("pescato");
-                if (source.equalsIgnoreCase("FARMED"))
-                    tags.add("allevato");
-                if (!tags.isEmpty())
-                    sb.append(" (").append(String.join(", ", tags)).append(")");
+            List<String> tags = new ArrayList<>();
+            if (freshness.equalsIgnoreCase("FRESH"))
+                tags.add("fresco");
+            if (freshness.equalsIgnoreCase("FROZEN"))
+                tags.add("surgelato");
+            if (source.equalsIgnoreCase("WILD_CAUGHT"))
+                tags.add("pescato");
+            if (source.equalsIgnoreCase("FARMED"))
+                tags.add("allevato");
+            if (!tags.isEmpty())
+                sb.append(" (").append(String.join(", ", tags)).append(")");
 
-                if (!extra.isEmpty())
-                    sb.append(" — ").append(String.join(", ", extra));
-                sb.append("\n");
-            }
-            return sb.toString().trim();
-        } catch (Exception e) {
-            return "Errore nel parsing della risposta dal gestionale.";
+            if (!extra.isEmpty())
+                sb.append(" — ").append(String.join(", ", extra));
+            sb.append("\n");
         }
+        return sb.toString().trim();
     }
 
-    public String productDetail(String mcpResponseBody) {
-        try {
-            JsonNode root = om.readTree(mcpResponseBody == null ? "{}" : mcpResponseBody);
-            JsonNode d = root.path("data");
-            if (d.isMissingNode())
-                d = root;
-            String name = d.path("name").asText("");
-            String price = d.path("priceEur").asText("");
-            String freshness = d.path("freshness").asText("");
-            String source = d.path("source").asText("");
-            String origin = d.path("originArea").asText("");
+    public String productDetail(McpProduct d) {
+        if (d == null)
+            return "Dettaglio prodotto non disponibile.";
+        String name = d.displayName();
+        String freshness = blankIfNull(d.freshness());
+        String source = blankIfNull(d.source());
+        String origin = blankIfNull(d.originArea());
 
-            StringBuilder sb = new StringBuilder();
-            if (!name.isBlank())
-                sb.append(name);
-            if (!price.isBlank())
-                sb.append(" — € ").append(price.replace('.', ',')).append("/kg");
-            if (!freshness.isBlank() || !source.isBlank()) {
-                sb.append(" (");
-                if ("FRESH".equalsIgnoreCase(freshness))
-                    sb.append("fresco");
-                else if ("FROZEN".equalsIgnoreCase(freshness))
-                    sb.append("surgelato");
-                if (!source.isBlank()) {
-                    if (sb.charAt(sb.length() - 1) != '(')
-                        sb.append(", ");
-                    sb.append("WILD_CAUGHT".equalsIgnoreCase(source) ? "pescato"
-                            : "FARMED".equalsIgnoreCase(source) ? "allevato"
-                                    : source.toLowerCase(java.util.Locale.ITALY));
-                }
-                sb.append(")");
+        StringBuilder sb = new StringBuilder();
+        if (!name.isBlank())
+            sb.append(name);
+        if (d.priceEur() != null)
+            sb.append(" — € ").append(d.priceEur().toPlainString().replace('.', ',')).append("/kg");
+        if (!freshness.isBlank() || !source.isBlank()) {
+            sb.append(" (");
+            if ("FRESH".equalsIgnoreCase(freshness))
+                sb.append("fresco");
+            else if ("FROZEN".equalsIgnoreCase(freshness))
+                sb.append("surgelato");
+            if (!source.isBlank()) {
+                if (sb.charAt(sb.length() - 1) != '(')
+                    sb.append(", ");
+                sb.append("WILD_CAUGHT".equalsIgnoreCase(source) ? "pescato"
+                        : "FARMED".equalsIgnoreCase(source) ? "allevato"
+                                : source.toLowerCase(java.util.Locale.ITALY));
             }
-            if (!origin.isBlank())
-                sb.append(" — ").append(origin);
-            String out = sb.toString().trim();
-            return out.isEmpty() ? "Dettaglio prodotto non disponibile." : out;
-        } catch (Exception e) {
-            return "Dettaglio prodotto non disponibile.";
+            sb.append(")");
         }
+        if (!origin.isBlank())
+            sb.append(" — ").append(origin);
+        String out = sb.toString().trim();
+        return out.isEmpty() ? "Dettaglio prodotto non disponibile." : out;
     }
 
-    public String customerProfile(String mcpResponseBody) {
-        try {
-            JsonNode root = om.readTree(mcpResponseBody == null ? "{}" : mcpResponseBody);
-            JsonNode d = root.path("data");
-            if (d.isMissingNode())
-                d = root;
-            String name = d.path("name").asText("");
-            String phone = d.path("phone").asText("");
-            String out = "Profilo cliente aggiornato.";
-            if (!name.isBlank())
-                out += " Nome: " + name + ".";
-            if (!phone.isBlank())
-                out += " Telefono: " + phone + ".";
+    public String customerProfile(McpCustomer d) {
+        String out = "Profilo cliente aggiornato.";
+        if (d == null)
             return out;
-        } catch (Exception e) {
-            return "Profilo cliente aggiornato.";
-        }
+        if (!blankIfNull(d.name()).isBlank())
+            out += " Nome: " + d.name() + ".";
+        if (!blankIfNull(d.phone()).isBlank())
+            out += " Telefono: " + d.phone() + ".";
+        return out;
+    }
+
+    /** Messaggio per l'utente quando il gestionale risponde con un errore. */
+    public String mcpError(McpException e) {
+        String msg = (e.getMessage() == null || e.getMessage().isBlank()) ? "Errore MCP" : e.getMessage();
+        return "Errore dal gestionale: " + msg;
+    }
+
+    private static String blankIfNull(String s) {
+        return (s == null) ? "" : s.trim();
     }
 }
@@ -0,0 +1,69 @@
+package it.overzoom.ordinainchat.service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.overzoom.ordinainchat.repository.MessageRepository;
+import it.overzoom.ordinainchat.repository.MessageRepository.UsageTotals;
+import it.overzoom.ordinainchat.service.OpenAiService.Usage;
+import it.overzoom.ordinainchat.type.StepType;
+
+/**
+ * Consumo OpenAI per turno: metriche per step (cardinalità bassa) e totali
+ * per utente, conversation e step letti dai messaggi salvati.
+ */
+@Service
+public class UsageService {
+
+    private final MessageRepository messageRepository;
+    private final MeterRegistry registry;
+
+    public UsageService(MessageRepository messageRepository, MeterRegistry registry) {
+        this.messageRepository = messageRepository;
+        this.registry = registry;
+    }
+
+    /** Metriche di un turno completo (somma delle chiamate OpenAI del turno). */
+    public void recordTurn(StepType step, Usage usage) {
+        if (usage == null)
+            return;
+        String s = (step == null) ? StepType.START.name() : step.name();
+        Timer.builder("chat.turn.latency").tag("step", s)
+                .description("Tempo speso in OpenAI per turno")
+                .register(registry)
+                .record(usage.latencyMs(), TimeUnit.MILLISECONDS);
+        DistributionSummary.builder("chat.turn.tokens").tag("step", s).tag("type", "input")
+                .register(registry).record(usage.inputTokens());
+        DistributionSummary.builder("chat.turn.tokens").tag("step", s).tag("type", "cached_input")
+                .register(registry).record(usage.cachedInputTokens());
+        DistributionSummary.builder("chat.turn.tokens").tag("step", s).tag("type", "output")
+                .register(registry).record(usage.outputTokens());
+    }
+
+    @Transactional(readOnly = true)
+    public List<UsageTotals> byUser(Duration window) {
+        return messageRepository.usageByUser(since(window));
+    }
+
+    @Transactional(readOnly = true)
+    public List<UsageTotals> byConversation(Duration window) {
+        return messageRepository.usageByConversation(since(window));
+    }
+
+    @Transactional(readOnly = true)
+    public List<UsageTotals> byStep(Duration window) {
+        return messageRepository.usageByStep(since(window));
+    }
+
+    private static OffsetDateTime since(Duration window) {
+        return OffsetDateTime.now().minus(window);
+    }
+}
@@ -0,0 +1,144 @@
+package it.overzoom.ordinainchat.telegram;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool di worker con una lane FIFO per chat: i turni della stessa chat restano
+ * ordinati, chat diverse vengono elaborate in parallelo.
+ */
+@Component
+public class ChatLaneExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatLaneExecutor.class);
+
+    private final ExecutorService workers;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int maxPending;
+    private final int shutdownTimeoutSeconds;
+
+    public ChatLaneExecutor(@Value("${telegram.worker.threads:8}") int threads,
+            @Value("${telegram.worker.max-pending:1000}") int maxPending,
+            @Value("${telegram.worker.shutdown-timeout-seconds:30}") int shutdownTimeoutSeconds,
+            MeterRegistry registry) {
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads),
+                Thread.ofPlatform().name("chat-worker-", 0).factory());
+        this.maxPending = maxPending;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+
+        Gauge.builder("telegram.queue.depth", pending, AtomicInteger::get)
+                .description("Turni in attesa o in elaborazione")
+                .register(registry);
+        Gauge.builder("telegram.queue.lanes", lanes, Map::size)
+                .description("Chat con almeno un turno in coda")
+                .register(registry);
+    }
+
+    /**
+     * Accoda il task nella lane della chat. Ritorna false se la coda globale è
+     * satura (il chiamante può far ritentare Telegram).
+     */
+    public boolean submit(String chatKey, Runnable task) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            return false;
+        }
+        lanes.compute(chatKey, (k, current) -> {
+            Lane lane = (current != null) ? current : new Lane(k);
+            lane.tasks.add(task);
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                schedule(lane);
+            }
+            return lane;
+        });
+        return true;
+    }
+
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    public int laneCount() {
+        return lanes.size();
+    }
+
+    /**
+     * Esegue UN task della lane e poi la rimette in coda al pool: così una chat
+     * molto attiva non monopolizza un worker a scapito delle altre.
+     */
+    private void drainOne(Lane lane) {
+        Runnable next = lane.tasks.poll();
+        if (next != null) {
+            try {
+                next.run();
+            } catch (Exception e) {
+                log.error("Errore elaborando un turno della chat {}", lane.key, e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+        // rilascia la lane solo se vuota; l'aggiunta concorrente passa da compute()
+        lanes.compute(lane.key, (k, current) -> {
+            if (current != lane)
+                return current;
+            if (lane.tasks.isEmpty()) {
+                lane.scheduled = false;
+                return null;
+            }
+            schedule(lane);
+            return lane;
+        });
+    }
+
+    private void schedule(Lane lane) {
+        try {
+            workers.execute(() -> drainOne(lane));
+        } catch (RejectedExecutionException e) {
+            // pool in shutdown: i turni residui vengono scartati
+            log.warn("Worker pool chiuso, scarto {} turni della chat {}", lane.tasks.size(), lane.key);
+            pending.addAndGet(-lane.tasks.size());
+            lane.tasks.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS))
+                workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Lane {
+        private final String key;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // modificato solo dentro lanes.compute(), che serializza per chiave
+        private boolean scheduled;
+
+        private Lane(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package it.overzoom.ordinainchat.telegram;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dedup in memoria: finestra temporale + limite di voci (le più vecchie escono
+ * per prime). Non sopravvive ai riavvii e non è condiviso tra repliche.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.dedup.mode", havingValue = "memory", matchIfMissing = true)
+public class InMemoryUpdateDedupStore implements UpdateDedupStore {
+
+    // updateId -> istante di ricezione (ms), in ordine di inserimento
+    private final LinkedHashMap<Long, Long> seen = new LinkedHashMap<>();
+    private final long windowMillis;
+    private final int maxEntries;
+
+    public InMemoryUpdateDedupStore(@Value("${telegram.dedup.window-seconds:3600}") long windowSeconds,
+            @Value("${telegram.dedup.max-entries:100000}") int maxEntries) {
+        this.windowMillis = windowSeconds * 1000L;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    @Override
+    public synchronized boolean markIfNew(long updateId) {
+        long now = System.currentTimeMillis();
+        evict(now);
+        Long at = seen.get(updateId);
+        if (at != null && now - at < windowMillis)
+            return false;
+        seen.remove(updateId);
+        seen.put(updateId, now);
+        return true;
+    }
+
+    @Override
+    public synchronized void forget(long updateId) {
+        seen.remove(updateId);
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<Long, Long>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> e = it.next();
+            if (seen.size() >= maxEntries || now - e.getValue() >= windowMillis)
+                it.remove();
+            else
+                break;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package it.overzoom.ordinainchat.telegram;
+
+import java.time.OffsetDateTime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dedup su Postgres (tabella processed_updates): sopravvive ai riavvii ed è
+ * condiviso tra repliche. Un update già visto fuori finestra conta come nuovo.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.dedup.mode", havingValue = "postgres")
+public class PostgresUpdateDedupStore implements UpdateDedupStore {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresUpdateDedupStore.class);
+
+    private static final String MARK_SQL = """
+            INSERT INTO processed_updates (update_id, received_at) VALUES (?, ?)
+            ON CONFLICT (update_id) DO UPDATE SET received_at = EXCLUDED.received_at
+            WHERE processed_updates.received_at < ?
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final long windowSeconds;
+
+    public PostgresUpdateDedupStore(JdbcTemplate jdbc,
+            @Value("${telegram.dedup.window-seconds:3600}") long windowSeconds) {
+        this.jdbc = jdbc;
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public boolean markIfNew(long updateId) {
+        OffsetDateTime now = OffsetDateTime.now();
+        // 1 riga inserita/aggiornata = nuovo; 0 = duplicato dentro la finestra
+        return jdbc.update(MARK_SQL, updateId, now, now.minusSeconds(windowSeconds)) > 0;
+    }
+
+    @Override
+    public void forget(long updateId) {
+        jdbc.update("DELETE FROM processed_updates WHERE update_id = ?", updateId);
+    }
+
+    /** Pulizia periodica delle voci fuori finestra. */
+    @Scheduled(fixedDelayString = "${telegram.dedup.cleanup-interval-ms:600000}")
+    public void purgeExpired() {
+        int removed = jdbc.update("DELETE FROM processed_updates WHERE received_at < ?",
+                OffsetDateTime.now().minusSeconds(windowSeconds));
+        if (removed > 0)
+            log.debug("processed_updates: rimossi {} update scaduti", removed);
+    }
+}
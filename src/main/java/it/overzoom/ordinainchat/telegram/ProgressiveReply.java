@@ -0,0 +1,105 @@
+package it.overzoom.ordinainchat.telegram;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import it.overzoom.ordinainchat.telegram.TelegramSender.Priority;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/**
+ * Risposta mostrata man mano che arriva dallo streaming OpenAI: primo messaggio
+ * appena c'è un po' di testo, poi editMessageText a frequenza limitata. Se il
+ * modello sta scrivendo il JSON di un tool lo stream resta nascosto.
+ * Non thread-safe: i delta arrivano dal solo thread che legge lo stream.
+ */
+public class ProgressiveReply implements Consumer<String> {
+
+    private enum Mode {
+        UNDECIDED, TEXT, TOOL
+    }
+
+    private final TelegramSender sender;
+    private final String chatId;
+    private final long receivedAtNanos;
+    private final int minChars;
+    private final long editIntervalNanos;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private Mode mode = Mode.UNDECIDED;
+    private CompletableFuture<Long> firstMessage;
+    private String lastShown = "";
+    private long lastEditAt;
+
+    ProgressiveReply(TelegramSender sender, String chatId, long receivedAtNanos, int minChars,
+            long editIntervalNanos) {
+        this.sender = sender;
+        this.chatId = chatId;
+        this.receivedAtNanos = receivedAtNanos;
+        this.minChars = Math.max(1, minChars);
+        this.editIntervalNanos = editIntervalNanos;
+    }
+
+    @Override
+    public void accept(String delta) {
+        buffer.append(delta);
+        if (mode == Mode.UNDECIDED) {
+            String head = buffer.toString().stripLeading();
+            if (head.isEmpty())
+                return;
+            char c = head.charAt(0);
+            // JSON di tool (anche dentro ``` ): si bufferizza e non si mostra
+            mode = (c == '{' || c == '[' || c == '`') ? Mode.TOOL : Mode.TEXT;
+        }
+        if (mode == Mode.TOOL || buffer.length() > TelegramSender.MAX_TEXT)
+            return;
+
+        long now = System.nanoTime();
+        if (firstMessage == null) {
+            if (buffer.length() < minChars)
+                return;
+            show(now);
+            firstMessage = sender.sendEditable(chatId, lastShown, Priority.NORMAL);
+            firstMessage.thenRun(() -> sender.recordFirstVisible(receivedAtNanos));
+            return;
+        }
+        if (now - lastEditAt < editIntervalNanos)
+            return;
+        Long messageId = firstMessage.getNow(null);
+        if (messageId != null && messageId > 0 && show(now))
+            sender.edit(chatId, messageId, lastShown);
+    }
+
+    /**
+     * Testo definitivo del turno: aggiorna il messaggio già visibile oppure, se
+     * lo stream non ha mostrato nulla, lo invia con la priorità indicata.
+     */
+    public void finish(String finalText, Priority priority) {
+        String text = (finalText == null) ? "" : finalText;
+        if (firstMessage == null) {
+            sender.send(chatId, text, priority).thenRun(() -> sender.recordFirstVisible(receivedAtNanos));
+            return;
+        }
+        firstMessage.whenComplete((messageId, err) -> {
+            if (err != null || messageId == null || messageId <= 0) {
+                sender.send(chatId, text, priority);
+                return;
+            }
+            List<String> parts = TelegramSender.split(text);
+            if (!parts.get(0).equals(lastShown))
+                sender.edit(chatId, messageId, parts.get(0));
+            for (int i = 1; i < parts.size(); i++)
+                sender.send(chatId, parts.get(i), priority);
+        });
+    }
+
+    /** Aggiorna lastShown; false se non c'è niente di nuovo da mostrare. */
+    private boolean show(long now) {
+        String text = TextUtils.toPlainText(buffer.toString());
+        if (text.isBlank() || text.equals(lastShown))
+            return false;
+        lastShown = text;
+        lastEditAt = now;
+        return true;
+    }
+}
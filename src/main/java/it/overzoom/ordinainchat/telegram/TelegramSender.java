@@ -0,0 +1,444 @@
+package it.overzoom.ordinainchat.telegram;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Invio messaggi Telegram con coda a priorità e limiti di frequenza (globale e
+ * per chat). I messaggi della stessa chat in coda vengono accorpati e partono
+ * uno alla volta, nell'ordine: il successivo aspetta consegna o abbandono del
+ * precedente, ritentativi compresi. 429 e errori transitori vengono ritentati
+ * rispettando retry_after, che vale per tutto il bot e non solo per la chat.
+ */
+@Component
+public class TelegramSender {
+
+    private static final Logger log = LoggerFactory.getLogger(TelegramSender.class);
+
+    /** Limite Telegram sulla lunghezza di un messaggio. */
+    static final int MAX_TEXT = 4096;
+
+    public enum Priority {
+        HIGH, // conferme d'ordine
+        NORMAL,
+        LOW // saluti, chiacchiere
+    }
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final RestTemplate rest;
+    private final String apiBaseUrl;
+
+    private final PriorityBlockingQueue<Outbound> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong seq = new AtomicLong();
+    private final TokenBucket global;
+    // retry_after dell'ultimo 429: il flood limit Telegram è per bot
+    private volatile long globalBlockedUntil = System.nanoTime();
+    private final Map<String, ChatState> chats = new ConcurrentHashMap<>();
+    private final double perChatPerSecond;
+    private final double groupPerMinute;
+    private final int maxAttempts;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("telegram-retry").daemon().factory());
+    private final ExecutorService delivery;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    private final Timer latency;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter dropped;
+    private final Timer firstVisible;
+
+    @Value("${telegram.streaming.min-chars:40}")
+    private int streamingMinChars;
+    @Value("${telegram.streaming.edit-interval-ms:1200}")
+    private long streamingEditIntervalMs;
+
+    public TelegramSender(@Value("${telegram.webhook.token}") String botToken,
+            @Value("${telegram.sender.global-per-second:30}") double globalPerSecond,
+            @Value("${telegram.sender.per-chat-per-second:1}") double perChatPerSecond,
+            @Value("${telegram.sender.group-per-minute:20}") double groupPerMinute,
+            @Value("${telegram.sender.max-attempts:5}") int maxAttempts,
+            @Value("${telegram.sender.delivery-threads:4}") int deliveryThreads,
+            @Qualifier("telegramRestTemplate") RestTemplate rest,
+            MeterRegistry registry) {
+        this.rest = rest;
+        this.apiBaseUrl = "https://api.telegram.org/bot" + botToken;
+        this.global = new TokenBucket(globalPerSecond, globalPerSecond);
+        this.perChatPerSecond = perChatPerSecond;
+        this.groupPerMinute = groupPerMinute;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.delivery = Executors.newFixedThreadPool(Math.max(1, deliveryThreads),
+                Thread.ofPlatform().name("telegram-send-", 0).factory());
+        this.dispatcher = Thread.ofPlatform().name("telegram-dispatcher").daemon().unstarted(this::dispatchLoop);
+
+        this.latency = Timer.builder("telegram.send.latency")
+                .description("Tempo da accodamento a consegna")
+                .register(registry);
+        this.sent = Counter.builder("telegram.send.sent").register(registry);
+        this.retried = Counter.builder("telegram.send.retried").register(registry);
+        this.dropped = Counter.builder("telegram.send.dropped").register(registry);
+        Gauge.builder("telegram.send.queue", queue, PriorityBlockingQueue::size).register(registry);
+        this.firstVisible = Timer.builder("telegram.reply.first_visible")
+                .description("Tempo dalla ricezione dell'update al primo testo visibile all'utente")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        dispatcher.start();
+        scheduler.scheduleWithFixedDelay(this::evictIdleChats, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Accoda un messaggio. Il future si completa con il message_id del (primo)
+     * messaggio consegnato, o eccezionalmente se l'invio viene abbandonato.
+     */
+    public CompletableFuture<Long> send(String chatId, String text, Priority priority) {
+        return send(chatId, text, priority, false);
+    }
+
+    /**
+     * Come {@link #send}, per un messaggio che verrà poi modificato con
+     * {@link #edit}: non si accorpa con altri, perché l'edit ne sostituirebbe
+     * il testo o finirebbe sul messaggio di un altro invio.
+     */
+    CompletableFuture<Long> sendEditable(String chatId, String text, Priority priority) {
+        return send(chatId, text, priority, true);
+    }
+
+    private CompletableFuture<Long> send(String chatId, String text, Priority priority, boolean editable) {
+        List<String> parts = split(text == null ? "" : text);
+        CompletableFuture<Long> first = null;
+        for (String part : parts) {
+            Outbound m = new Outbound(chatId, part, priority, seq.incrementAndGet(), 0L, editable && first == null);
+            if (first == null)
+                first = m.future;
+            queue.add(m);
+        }
+        return first;
+    }
+
+    /**
+     * Aggiorna il testo di un messaggio già inviato. Un edit ancora in coda per
+     * lo stesso messaggio viene sostituito: conta solo il testo più recente.
+     */
+    public void edit(String chatId, long messageId, String text) {
+        if (messageId <= 0 || text == null || text.isBlank())
+            return;
+        queue.removeIf(o -> o.editOf == messageId && o.chatId.equals(chatId));
+        ChatState chat = chats.get(chatId);
+        if (chat != null)
+            synchronized (chat) {
+                chat.waiting.removeIf(o -> o.editOf == messageId);
+            }
+        queue.add(new Outbound(chatId, text, Priority.NORMAL, seq.incrementAndGet(), messageId, false));
+    }
+
+    /**
+     * Risposta progressiva per una chat: riceve i delta dello streaming e li
+     * mostra con un primo messaggio seguito da edit a frequenza limitata.
+     */
+    public ProgressiveReply progressiveReply(String chatId, long receivedAtNanos) {
+        return new ProgressiveReply(this, chatId, receivedAtNanos, streamingMinChars,
+                TimeUnit.MILLISECONDS.toNanos(streamingEditIntervalMs));
+    }
+
+    void recordFirstVisible(long receivedAtNanos) {
+        firstVisible.record(System.nanoTime() - receivedAtNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // ---------- dispatch ----------
+
+    private void dispatchLoop() {
+        while (running) {
+            Outbound m;
+            try {
+                m = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long blocked = globalBlockedUntil - System.nanoTime();
+            if (blocked > 0L)
+                LockSupport.parkNanos(blocked);
+            ChatState chat = chatState(m.chatId);
+            if (!chat.claim(m))
+                continue; // c'è un invio in corso per la chat: riparte quando finisce
+            long wait = Math.max(0L, chat.blockedUntil - System.nanoTime());
+            if (wait == 0L)
+                wait = chat.bucket.tryAcquire();
+            if (wait > 0L) {
+                // la chat non può ancora ricevere: rimetto in coda senza bloccare le altre
+                // (il messaggio resta in volo, gli altri della chat lo aspettano)
+                later(m, wait);
+                continue;
+            }
+            long globalWait;
+            while ((globalWait = global.tryAcquire()) > 0L)
+                LockSupport.parkNanos(globalWait);
+
+            absorbQueued(m);
+            delivery.execute(() -> deliver(m));
+        }
+    }
+
+    /**
+     * Accorpa nel messaggio i successivi in coda per la stessa chat e priorità.
+     * Edit e messaggi da modificare in seguito restano a sé.
+     */
+    private void absorbQueued(Outbound head) {
+        if (head.editOf > 0 || head.editable)
+            return;
+        List<Outbound> same = new ArrayList<>();
+        for (Outbound o : queue)
+            if (o.editOf == 0 && !o.editable && o.chatId.equals(head.chatId) && o.priority == head.priority && o.seq > head.seq)
+                same.add(o);
+        if (same.isEmpty())
+            return;
+        same.sort(Comparator.comparingLong(o -> o.seq));
+        for (Outbound o : same) {
+            if (head.text.length() + 2 + o.text.length() > MAX_TEXT)
+                break;
+            if (!queue.remove(o))
+                continue;
+            head.text = head.text + "\n\n" + o.text;
+            head.followers.add(o.future);
+        }
+    }
+
+    private void deliver(Outbound m) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        Map<String, Object> body = (m.editOf > 0)
+                ? Map.of("chat_id", m.chatId, "message_id", m.editOf, "text", m.text)
+                : Map.of("chat_id", m.chatId, "text", m.text);
+        String method = (m.editOf > 0) ? "/editMessageText" : "/sendMessage";
+        try {
+            ResponseEntity<String> resp = rest.postForEntity(apiBaseUrl + method,
+                    new HttpEntity<>(body, headers), String.class);
+            long messageId = m.editOf;
+            try {
+                messageId = om.readTree(resp.getBody()).path("result").path("message_id").asLong(0L);
+            } catch (Exception ignore) {
+            }
+            latency.record(System.nanoTime() - m.enqueuedAt, TimeUnit.NANOSECONDS);
+            sent.increment();
+            m.complete(messageId);
+            release(m);
+        } catch (HttpClientErrorException.TooManyRequests e) {
+            long retryAfter = retryAfterSeconds(e.getResponseBodyAsString());
+            long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter);
+            chatState(m.chatId).blockedUntil = until;
+            if (until - globalBlockedUntil > 0)
+                globalBlockedUntil = until;
+            log.warn("Telegram 429 per chat {}: invii sospesi per {}s", m.chatId, retryAfter);
+            retry(m, TimeUnit.SECONDS.toNanos(retryAfter));
+        } catch (HttpClientErrorException e) {
+            if (m.editOf > 0 && e.getResponseBodyAsString().contains("message is not modified")) {
+                m.complete(m.editOf);
+                release(m);
+                return;
+            }
+            // 400/403 ecc.: ritentare non serve (chat inesistente, bot bloccato...)
+            log.warn("Telegram {} per chat {}: messaggio scartato ({})", e.getStatusCode(), m.chatId,
+                    e.getResponseBodyAsString());
+            drop(m, e);
+        } catch (Exception e) {
+            // 5xx o errore di rete: backoff esponenziale
+            log.warn("Invio Telegram fallito per chat {} (tentativo {}): {}", m.chatId, m.attempts + 1,
+                    e.getMessage());
+            retry(m, TimeUnit.SECONDS.toNanos(1L << Math.min(m.attempts, 5)));
+        }
+    }
+
+    private void retry(Outbound m, long delayNanos) {
+        if (++m.attempts >= maxAttempts) {
+            drop(m, new IllegalStateException("Troppi tentativi di invio verso la chat " + m.chatId));
+            return;
+        }
+        retried.increment();
+        later(m, delayNanos);
+    }
+
+    private void drop(Outbound m, Exception cause) {
+        dropped.increment();
+        m.fail(cause);
+        release(m);
+    }
+
+    /** Fine dell'invio in volo per la chat: i messaggi in attesa tornano in coda. */
+    private void release(Outbound m) {
+        ChatState chat = chats.get(m.chatId);
+        if (chat == null)
+            return;
+        synchronized (chat) {
+            if (chat.inFlight != m)
+                return;
+            chat.inFlight = null;
+            queue.addAll(chat.waiting);
+            chat.waiting.clear();
+        }
+    }
+
+    private void later(Outbound m, long delayNanos) {
+        scheduler.schedule(() -> queue.add(m), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private long retryAfterSeconds(String body) {
+        try {
+            long s = om.readTree(body).path("parameters").path("retry_after").asLong(1L);
+            return Math.max(1L, s);
+        } catch (Exception e) {
+            return 1L;
+        }
+    }
+
+    private ChatState chatState(String chatId) {
+        ChatState s = chats.computeIfAbsent(chatId, id -> {
+            // chat di gruppo (id negativo): 20 msg/min
+            double rate = id.startsWith("-") ? Math.min(perChatPerSecond, groupPerMinute / 60d) : perChatPerSecond;
+            return new ChatState(new TokenBucket(1, rate));
+        });
+        s.lastUsed = System.nanoTime();
+        return s;
+    }
+
+    private void evictIdleChats() {
+        long idleLimit = System.nanoTime() - TimeUnit.MINUTES.toNanos(5);
+        long now = System.nanoTime();
+        chats.entrySet().removeIf(e -> e.getValue().lastUsed - idleLimit < 0
+                && e.getValue().isIdle()
+                && e.getValue().blockedUntil - now < 0
+                && e.getValue().bucket.isFull());
+    }
+
+    /** Spezza i testi oltre il limite Telegram, preferibilmente su un a capo. */
+    static List<String> split(String text) {
+        List<String> out = new ArrayList<>();
+        String rest = text;
+        while (rest.length() > MAX_TEXT) {
+            int cut = rest.lastIndexOf('\n', MAX_TEXT);
+            if (cut <= 0)
+                cut = MAX_TEXT;
+            out.add(rest.substring(0, cut));
+            rest = rest.substring(cut).stripLeading();
+        }
+        out.add(rest);
+        return out;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        scheduler.shutdownNow();
+        delivery.shutdown();
+        try {
+            delivery.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------- stato ----------
+
+    private static final class ChatState {
+        private final TokenBucket bucket;
+        // istanti System.nanoTime(): confronti solo per differenza
+        private volatile long blockedUntil = System.nanoTime();
+        private volatile long lastUsed = blockedUntil;
+        // invio in corso (ritentativi compresi) e messaggi che lo aspettano; sotto lock
+        private Outbound inFlight;
+        private final List<Outbound> waiting = new ArrayList<>();
+
+        private ChatState(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        /** Il messaggio diventa quello in volo, o va in attesa se ce n'è già un altro. */
+        private synchronized boolean claim(Outbound m) {
+            if (inFlight != null && inFlight != m) {
+                waiting.add(m);
+                return false;
+            }
+            inFlight = m;
+            return true;
+        }
+
+        private synchronized boolean isIdle() {
+            return inFlight == null && waiting.isEmpty();
+        }
+    }
+
+    private static final class Outbound implements Comparable<Outbound> {
+        private final String chatId;
+        private final Priority priority;
+        private final long seq;
+        private final long editOf; // message_id da modificare, 0 = nuovo messaggio
+        private final boolean editable; // il message_id servirà per degli edit: mai accorpato
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final List<CompletableFuture<Long>> followers = new ArrayList<>();
+        private String text;
+        private int attempts;
+
+        private Outbound(String chatId, String text, Priority priority, long seq, long editOf, boolean editable) {
+            this.chatId = chatId;
+            this.text = text;
+            this.priority = priority == null ? Priority.NORMAL : priority;
+            this.seq = seq;
+            this.editOf = editOf;
+            this.editable = editable;
+        }
+
+        private void complete(long messageId) {
+            future.complete(messageId);
+            followers.forEach(f -> f.complete(messageId));
+        }
+
+        private void fail(Exception e) {
+            future.completeExceptionally(e);
+            followers.forEach(f -> f.completeExceptionally(e));
+        }
+
+        @Override
+        public int compareTo(Outbound o) {
+            int c = priority.compareTo(o.priority);
+            return (c != 0) ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
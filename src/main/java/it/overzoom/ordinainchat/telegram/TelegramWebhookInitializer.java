@@ -1,5 +1,6 @@
 package it.overzoom.ordinainchat.telegram;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
@@ -15,10 +16,15 @@ public class TelegramWebhookInitializer {
     @Value("${telegram.webhook.url}")
     private String webhookUrl;
 
+    private final RestTemplate restTemplate;
+
+    public TelegramWebhookInitializer(@Qualifier("telegramRestTemplate") RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+
     @PostConstruct
     public void setTelegramWebhook() {
         String url = String.format("https://api.telegram.org/bot%s/setWebhook?url=%s", botToken, webhookUrl);
-        RestTemplate restTemplate = new RestTemplate();
         String response = restTemplate.getForObject(url, String.class);
         System.out.println("Telegram setWebhook response: " + response);
     }
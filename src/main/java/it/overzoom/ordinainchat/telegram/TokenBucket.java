@@ -0,0 +1,38 @@
+package it.overzoom.ordinainchat.telegram;
+
+/** Token bucket minimale (thread-safe), usato per i limiti di invio Telegram. */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double capacity, double perSecond) {
+        this.capacity = Math.max(1d, capacity);
+        this.tokensPerNano = perSecond / 1_000_000_000d;
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /** Prende un token: ritorna 0 se disponibile, altrimenti i ns da attendere. */
+    synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1d) {
+            tokens -= 1d;
+            return 0L;
+        }
+        return (long) Math.ceil((1d - tokens) / tokensPerNano);
+    }
+
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
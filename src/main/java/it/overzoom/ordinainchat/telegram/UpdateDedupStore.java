@@ -0,0 +1,17 @@
+package it.overzoom.ordinainchat.telegram;
+
+/**
+ * Registro degli update_id già ricevuti, per scartare i re-invii di Telegram
+ * prima di fare qualunque lavoro.
+ */
+public interface UpdateDedupStore {
+
+    /**
+     * Registra l'update e ritorna true se è nuovo (o visto fuori dalla finestra
+     * temporale), false se è un duplicato.
+     */
+    boolean markIfNew(long updateId);
+
+    /** Dimentica l'update (es. se non è stato accodato e Telegram deve ritentare). */
+    void forget(long updateId);
+}
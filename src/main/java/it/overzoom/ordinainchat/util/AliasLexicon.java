@@ -0,0 +1,76 @@
+package it.overzoom.ordinainchat.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lessico di sinonimi regionali e dialettali dei prodotti ("spinola" per
+ * spigola, "cicale di mare" per canocchie). Una riga per gruppo, termini
+ * separati da virgola o da {@code =}; {@code #} apre un commento:
+ *
+ * <pre>
+ * spigola = spinola, lupo di mare
+ * alici, acciughe
+ * </pre>
+ *
+ * I gruppi valgono in entrambe le direzioni: quale termine usi il catalogo lo
+ * decide chi compila l'indice. Termini normalizzati con
+ * {@link TextUtils#normalize}; un termine già visto in un gruppo precedente
+ * resta lì (il primo vince).
+ */
+public final class AliasLexicon {
+
+    public static final AliasLexicon EMPTY = new AliasLexicon(List.of(), Map.of());
+
+    private final List<List<String>> groups;
+    private final Map<String, Integer> groupOf;
+
+    private AliasLexicon(List<List<String>> groups, Map<String, Integer> groupOf) {
+        this.groups = groups;
+        this.groupOf = groupOf;
+    }
+
+    public static AliasLexicon parse(List<String> lines) {
+        List<List<String>> groups = new ArrayList<>();
+        Map<String, Integer> groupOf = new HashMap<>();
+        for (String line : lines) {
+            int hash = line.indexOf('#');
+            String body = (hash >= 0) ? line.substring(0, hash) : line;
+            Set<String> terms = new LinkedHashSet<>();
+            for (String raw : body.split("[,=]")) {
+                String t = TextUtils.normalize(raw);
+                if (!t.isEmpty() && !groupOf.containsKey(t))
+                    terms.add(t);
+            }
+            if (terms.size() < 2)
+                continue;
+            int g = groups.size();
+            terms.forEach(t -> groupOf.put(t, g));
+            groups.add(List.copyOf(terms));
+        }
+        return new AliasLexicon(List.copyOf(groups), Map.copyOf(groupOf));
+    }
+
+    /** Gruppi di sinonimi, nell'ordine del file. */
+    public List<List<String>> groups() {
+        return groups;
+    }
+
+    /** Sinonimi di {@code term} (lui compreso), vuoto se non è nel lessico. */
+    public List<String> synonyms(String term) {
+        Integer g = groupOf.get(term);
+        return (g == null) ? List.of() : groups.get(g);
+    }
+
+    public int size() {
+        return groupOf.size();
+    }
+
+    public boolean isEmpty() {
+        return groups.isEmpty();
+    }
+}
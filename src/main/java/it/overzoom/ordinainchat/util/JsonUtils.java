@@ -75,10 +75,13 @@ public final class JsonUtils {
         if (n == null || n.isMissingNode() || n.isNull())
             return "";
         try {
-            java.math.BigDecimal bd = new java.math.BigDecimal(n.asText());
-            return String.format(locale, "€ %.2f", bd);
+            return formatPrice(new java.math.BigDecimal(n.asText()), locale);
         } catch (Exception e) {
             return "";
         }
     }
+
+    public static String formatPrice(java.math.BigDecimal bd, java.util.Locale locale) {
+        return (bd == null) ? "" : String.format(locale, "€ %.2f", bd);
+    }
 }
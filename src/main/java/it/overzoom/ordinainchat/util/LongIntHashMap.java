@@ -0,0 +1,83 @@
+package it.overzoom.ordinainchat.util;
+
+/**
+ * Mappa long → int a indirizzamento aperto (linear probing), senza oggetti
+ * per entry né boxing: due array paralleli, 12 byte per slot. Le chiavi
+ * devono essere diverse da 0 (slot vuoto); {@link #get} ritorna -1 se la
+ * chiave manca, quindi i valori utili sono >= 0. Non thread-safe: si riempie
+ * in costruzione e poi si pubblica in sola lettura.
+ */
+public final class LongIntHashMap {
+
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    /** Dimensionata per {@code expected} chiavi con fattore di carico <= 0.5. */
+    public LongIntHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        keys = new long[cap];
+        values = new int[cap];
+        mask = cap - 1;
+    }
+
+    public void put(long key, int value) {
+        if (key == 0)
+            throw new IllegalArgumentException("chiave 0 non ammessa");
+        if ((size + 1) * 2 > keys.length)
+            grow();
+        int i = slot(key);
+        while (keys[i] != 0 && keys[i] != key)
+            i = (i + 1) & mask;
+        if (keys[i] == 0)
+            size++;
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /** Valore della chiave, -1 se assente. */
+    public int get(long key) {
+        if (key == 0)
+            return -1;
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key)
+                return values[i];
+            if (k == 0)
+                return -1;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        long h = key * MIX;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != 0)
+                put(oldKeys[i], oldValues[i]);
+    }
+
+    @Override
+    public String toString() {
+        return "LongIntHashMap[size=" + size + ", capacity=" + keys.length + "]";
+    }
+}
@@ -0,0 +1,352 @@
+package it.overzoom.ordinainchat.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Quantità in un messaggio in italiano: cifre ("1,5", "1/2"), numerali
+ * ("due", "duecentocinquanta"), frazioni ("mezzo", "tre quarti"), composti
+ * ("due chili e mezzo", "un chilo e 200 grammi") e unità (kg, etti, grammi,
+ * pezzi, cassette). Un solo passaggio sui caratteri per i token, poi una
+ * piccola macchina a stati sulla prima quantità riconosciuta.
+ */
+public final class QuantityParser {
+
+    public enum Unit {
+        KG, PIECE, CRATE,
+        /** Numero senza unità né oggetto contabile ("2", "1,5 per domani"). */
+        UNSPECIFIED
+    }
+
+    /** Valore (in kg per pesi, etti e grammi) e unità. */
+    public record Quantity(BigDecimal value, Unit unit) {
+    }
+
+    private record UnitWord(Unit unit, BigDecimal scale) {
+    }
+
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    private static final BigDecimal TWELVE = BigDecimal.valueOf(12);
+    private static final BigDecimal FOUR = BigDecimal.valueOf(4);
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    private static final Map<String, UnitWord> UNITS = units();
+    private static final Set<String> HALVES = Set.of("mezzo", "mezza");
+    private static final Set<String> ONE = Set.of("un", "uno", "una");
+    // numerali che da soli sono anche parole comuni ("sei sicuro?")
+    private static final Set<String> WEAK = Set.of("un", "uno", "una", "sei");
+    private static final Set<String> MONEY = Set.of("euro", "eur", "centesimi", "percento");
+    // prima di un numero indicano ora o data, non quantità ("per le 19")
+    private static final Set<String> TIME_BEFORE = Set.of("alle", "le", "ore", "il", "entro", "dalle", "verso");
+    // indirizzi: il numero che segue (anche dopo il nome della via) è un civico
+    private static final Set<String> ADDRESS = Set.of("via", "viale", "piazza", "piazzale", "corso", "largo",
+            "vicolo", "contrada", "civico", "n", "nr", "numero");
+    private static final int MAX_STREET_WORDS = 4;
+    private static final Set<String> STOP = Set.of("di", "del", "dello", "della", "dei", "degli", "delle", "per",
+            "a", "al", "allo", "alla", "alle", "ai", "agli", "e", "ed", "o", "che", "in", "da", "con", "su", "tra",
+            "fra", "il", "lo", "la", "i", "gli", "le", "oggi", "domani", "stasera", "ore", "volte", "giorni",
+            "minuti", "anni", "mesi", "settimane", "persone");
+
+    private static final String[] SMALL = { "zero", "uno", "due", "tre", "quattro", "cinque", "sei", "sette",
+            "otto", "nove", "dieci", "undici", "dodici", "tredici", "quattordici", "quindici", "sedici",
+            "diciassette", "diciotto", "diciannove" };
+    private static final String[] TENS = { "venti", "trenta", "quaranta", "cinquanta", "sessanta", "settanta",
+            "ottanta", "novanta" };
+
+    private QuantityParser() {
+    }
+
+    public static Optional<Quantity> parse(String text) {
+        if (text == null || text.isBlank())
+            return Optional.empty();
+        List<Tok> toks = tokenize(text);
+        for (int i = 0; i < toks.size(); i++) {
+            Quantity q = tryAt(toks, i);
+            if (q != null)
+                return Optional.of(q);
+        }
+        return Optional.empty();
+    }
+
+    // ---------- macchina a stati ----------
+
+    private static Quantity tryAt(List<Tok> toks, int i) {
+        Tok t = toks.get(i);
+        BigDecimal v;
+        boolean weak = false;
+        int j = i + 1;
+        if (t.number != null) {
+            if (TIME_BEFORE.contains(word(toks, i - 1)) || afterAddress(toks, i))
+                return null;
+            v = t.number;
+        } else if (HALVES.contains(t.word)) {
+            v = HALF;
+        } else if (UNITS.containsKey(t.word) && "e".equals(word(toks, i + 1))
+                && HALVES.contains(word(toks, i + 2))) {
+            // "chilo e mezzo" senza numero davanti
+            v = BigDecimal.ONE;
+            j = i;
+        } else {
+            int n = italianNumber(t.word);
+            // "grazie mille", "alle sette"
+            if (n <= 0 || ("mille".equals(t.word) && "grazie".equals(word(toks, i - 1)))
+                    || TIME_BEFORE.contains(word(toks, i - 1)))
+                return null;
+            v = ONE.contains(t.word) ? BigDecimal.ONE : BigDecimal.valueOf(n);
+            weak = WEAK.contains(t.word);
+        }
+
+        Unit defaultUnit = null;
+        String w = word(toks, j);
+        if ("quarto".equals(w) || "quarti".equals(w)) {
+            v = v.divide(FOUR);
+            j++;
+            weak = false;
+        } else if ("paio".equals(w) || "paia".equals(w)) {
+            v = v.multiply(TWO);
+            j++;
+            weak = false;
+        }
+        w = word(toks, j);
+        if ("dozzina".equals(w) || "dozzine".equals(w)) {
+            v = v.multiply(TWELVE);
+            defaultUnit = Unit.PIECE;
+            j++;
+            weak = false;
+        }
+        // "due e mezzo chili"
+        if ("e".equals(word(toks, j)) && HALVES.contains(word(toks, j + 1)) && !weak) {
+            v = v.add(HALF);
+            j += 2;
+        }
+
+        int k = j;
+        String di = word(toks, k);
+        if ("di".equals(di) || "d".equals(di))
+            k++;
+        String unitWord = word(toks, k);
+        if (MONEY.contains(unitWord))
+            return null;
+        UnitWord u = UNITS.get(unitWord);
+        if (u != null) {
+            BigDecimal value = v;
+            int after = k + 1;
+            if ("e".equals(word(toks, after))) {
+                if (HALVES.contains(word(toks, after + 1))) {
+                    value = value.add(HALF);
+                } else if (u.unit() == Unit.KG) {
+                    // "un chilo e 200 grammi"
+                    BigDecimal extra = numberAt(toks, after + 1);
+                    UnitWord u2 = UNITS.get(word(toks, after + 2));
+                    if (extra != null && u2 != null && u2.unit() == Unit.KG)
+                        return result(value.multiply(u.scale()).add(extra.multiply(u2.scale())), Unit.KG);
+                }
+            }
+            return result(value.multiply(u.scale()), u.unit());
+        }
+
+        if (weak)
+            return null;
+        if (defaultUnit != null)
+            return result(v, defaultUnit);
+        String noun = word(toks, k);
+        boolean integral = v.stripTrailingZeros().scale() <= 0;
+        if (integral && noun.length() >= 3 && !STOP.contains(noun) && italianNumber(noun) < 0)
+            return result(v, Unit.PIECE);
+        return result(v, Unit.UNSPECIFIED);
+    }
+
+    private static Quantity result(BigDecimal v, Unit unit) {
+        if (v.signum() <= 0)
+            return null;
+        return new Quantity(v.setScale(3, RoundingMode.HALF_UP).stripTrailingZeros(), unit);
+    }
+
+    /** Numero in posizione i preceduto da "via", "piazza", "n." ecc. e dal nome della via. */
+    private static boolean afterAddress(List<Tok> toks, int i) {
+        for (int k = i - 1; k >= 0 && k >= i - 1 - MAX_STREET_WORDS; k--) {
+            Tok t = toks.get(k);
+            if (t.number != null || UNITS.containsKey(t.word))
+                return false;
+            if (ADDRESS.contains(t.word))
+                return true;
+        }
+        return false;
+    }
+
+    /** Parola in posizione i; "" per numeri e fuori dai limiti (i Set.of non accettano null). */
+    private static String word(List<Tok> toks, int i) {
+        if (i < 0 || i >= toks.size())
+            return "";
+        String w = toks.get(i).word;
+        return (w == null) ? "" : w;
+    }
+
+    private static BigDecimal numberAt(List<Tok> toks, int i) {
+        if (i < 0 || i >= toks.size())
+            return null;
+        Tok t = toks.get(i);
+        if (t.number != null)
+            return t.number;
+        int n = italianNumber(t.word);
+        return (n > 0) ? BigDecimal.valueOf(n) : null;
+    }
+
+    // ---------- numerali ----------
+
+    /** Valore di un numerale italiano in una parola ("duecentocinquanta"), o -1. */
+    static int italianNumber(String w) {
+        if (w == null || w.isEmpty())
+            return -1;
+        if (ONE.contains(w))
+            return 1;
+        return number(w);
+    }
+
+    private static int number(String w) {
+        if (w.isEmpty())
+            return 0;
+        int idx = w.indexOf("mila");
+        if (idx > 0) {
+            int a = number(w.substring(0, idx));
+            int b = number(w.substring(idx + 4));
+            return (a <= 1 || b < 0) ? -1 : a * 1000 + b;
+        }
+        if (w.startsWith("mille")) {
+            int b = number(w.substring(5));
+            return (b < 0) ? -1 : 1000 + b;
+        }
+        idx = w.indexOf("cento");
+        if (idx >= 0) {
+            int a = (idx == 0) ? 1 : small(w.substring(0, idx));
+            int b = number(w.substring(idx + 5));
+            return (a < 1 || a > 9 || b < 0 || b > 99) ? -1 : a * 100 + b;
+        }
+        for (int i = 0; i < TENS.length; i++) {
+            String tens = TENS[i];
+            int base = (i + 2) * 10;
+            if (w.startsWith(tens)) {
+                int b = small(w.substring(tens.length()));
+                return (w.length() == tens.length()) ? base : (b >= 1 && b <= 9) ? base + b : -1;
+            }
+            // elisione: ventuno, trentotto
+            String elided = tens.substring(0, tens.length() - 1);
+            if (w.startsWith(elided)) {
+                String rest = w.substring(elided.length());
+                if (rest.equals("uno") || rest.equals("un") || rest.equals("una"))
+                    return base + 1;
+                if (rest.equals("otto"))
+                    return base + 8;
+            }
+        }
+        return small(w);
+    }
+
+    private static int small(String w) {
+        if (w.isEmpty())
+            return 0;
+        for (int i = 0; i < SMALL.length; i++)
+            if (SMALL[i].equals(w))
+                return i;
+        return -1;
+    }
+
+    // ---------- token ----------
+
+    /** Token: una parola (minuscola, senza accenti) oppure un numero. */
+    private record Tok(String word, BigDecimal number) {
+    }
+
+    private static List<Tok> tokenize(String s) {
+        List<Tok> out = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                flush(word, out);
+                // intero, decimale con , o . e frazione a/b
+                long mant = 0;
+                int scale = 0;
+                while (i < n && isDigit(s.charAt(i)))
+                    mant = Math.min(mant * 10 + (s.charAt(i++) - '0'), 1_000_000_000L);
+                if (i + 1 < n && (s.charAt(i) == ',' || s.charAt(i) == '.') && isDigit(s.charAt(i + 1))) {
+                    i++;
+                    while (i < n && isDigit(s.charAt(i)) && scale < 6) {
+                        mant = mant * 10 + (s.charAt(i++) - '0');
+                        scale++;
+                    }
+                    while (i < n && isDigit(s.charAt(i)))
+                        i++;
+                }
+                BigDecimal value = BigDecimal.valueOf(mant, scale);
+                int k = i;
+                while (k < n && s.charAt(k) == ' ')
+                    k++;
+                if (scale == 0 && k < n && s.charAt(k) == '/') {
+                    k++;
+                    while (k < n && s.charAt(k) == ' ')
+                        k++;
+                    long den = 0;
+                    int start = k;
+                    while (k < n && isDigit(s.charAt(k)) && k - start < 9)
+                        den = den * 10 + (s.charAt(k++) - '0');
+                    if (k > start && den > 0) {
+                        value = value.divide(BigDecimal.valueOf(den), 3, RoundingMode.HALF_UP);
+                        i = k;
+                    }
+                }
+                out.add(new Tok(null, value));
+                continue;
+            }
+            if (Character.isLetter(c)) {
+                char f = TextFold.foldChar(c);
+                if (f == TextFold.COMPLEX)
+                    word.append(Character.toLowerCase(c));
+                else if (f != TextFold.DROP && f != ' ')
+                    word.append(f);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                // spazi, punteggiatura e apostrofi ("un'orata") separano le parole
+                flush(word, out);
+            }
+            i++;
+        }
+        flush(word, out);
+        return out;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void flush(StringBuilder word, List<Tok> out) {
+        if (word.length() > 0) {
+            out.add(new Tok(word.toString(), null));
+            word.setLength(0);
+        }
+    }
+
+    private static Map<String, UnitWord> units() {
+        UnitWord kg = new UnitWord(Unit.KG, BigDecimal.ONE);
+        UnitWord hg = new UnitWord(Unit.KG, new BigDecimal("0.1"));
+        UnitWord g = new UnitWord(Unit.KG, new BigDecimal("0.001"));
+        UnitWord pz = new UnitWord(Unit.PIECE, BigDecimal.ONE);
+        UnitWord crate = new UnitWord(Unit.CRATE, BigDecimal.ONE);
+        return Map.ofEntries(
+                Map.entry("kg", kg), Map.entry("kgs", kg), Map.entry("chilo", kg), Map.entry("chili", kg),
+                Map.entry("kilo", kg), Map.entry("kili", kg), Map.entry("chilogrammo", kg),
+                Map.entry("chilogrammi", kg), Map.entry("kilogrammo", kg), Map.entry("kilogrammi", kg),
+                Map.entry("etto", hg), Map.entry("etti", hg), Map.entry("hg", hg),
+                Map.entry("ettogrammo", hg), Map.entry("ettogrammi", hg),
+                Map.entry("g", g), Map.entry("gr", g), Map.entry("grammo", g), Map.entry("grammi", g),
+                Map.entry("pezzo", pz), Map.entry("pezzi", pz), Map.entry("pz", pz),
+                Map.entry("cassetta", crate), Map.entry("cassette", crate), Map.entry("cassa", crate),
+                Map.entry("casse", crate));
+    }
+}
@@ -0,0 +1,273 @@
+package it.overzoom.ordinainchat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Correttore ortografico a cancellazioni simmetriche (stile SymSpell) sul
+ * vocabolario del catalogo. Per ogni parola si precalcolano le varianti con
+ * fino a {@code maxDistance} lettere tolte; in lettura si fa lo stesso con la
+ * parola digitata e si confrontano solo le parole che condividono una
+ * variante, con la distanza di Damerau (trasposizioni adiacenti comprese).
+ *
+ * <p>
+ * Le varianti si calcolano solo sui primi {@value #PREFIX} caratteri: al
+ * massimo 29 chiavi per parola, qualunque sia la lunghezza. L'istanza è
+ * immutabile; {@link #update} ne crea una nuova generando le varianti solo
+ * per le parole entrate o uscite dal vocabolario.
+ */
+public final class SpellDictionary {
+
+    public static final SpellDictionary EMPTY = build(Map.of());
+
+    static final int PREFIX = 7;
+    private static final int MAX_DISTANCE = 2;
+    private static final int[] NO_IDS = new int[0];
+
+    private final String[] words; // per id; null = parola uscita dal vocabolario
+    private final int[] counts; // quanti prodotti contengono la parola
+    private final Map<String, Integer> ids;
+    private final Map<String, int[]> deletes;
+    private final int removed;
+
+    private SpellDictionary(String[] words, int[] counts, Map<String, Integer> ids, Map<String, int[]> deletes,
+            int removed) {
+        this.words = words;
+        this.counts = counts;
+        this.ids = ids;
+        this.deletes = deletes;
+        this.removed = removed;
+    }
+
+    /** Dizionario da zero; {@code frequencies}: parola normalizzata → numero di prodotti. */
+    public static SpellDictionary build(Map<String, Integer> frequencies) {
+        List<String> sorted = new ArrayList<>();
+        for (String w : frequencies.keySet())
+            if (indexable(w))
+                sorted.add(w);
+        sorted.sort(null);
+        String[] words = sorted.toArray(new String[0]);
+        int[] counts = new int[words.length];
+        Map<String, Integer> ids = new HashMap<>(words.length * 2);
+        Map<String, List<Integer>> lists = new HashMap<>();
+        for (int id = 0; id < words.length; id++) {
+            counts[id] = frequencies.get(words[id]);
+            ids.put(words[id], id);
+            for (String d : variants(words[id]))
+                lists.computeIfAbsent(d, k -> new ArrayList<>(2)).add(id);
+        }
+        Map<String, int[]> deletes = new HashMap<>(lists.size() * 2);
+        lists.forEach((d, l) -> deletes.put(d, l.stream().mapToInt(Integer::intValue).toArray()));
+        return new SpellDictionary(words, counts, ids, deletes, 0);
+    }
+
+    /**
+     * Nuova versione per il vocabolario {@code frequencies}. Se cambiano solo
+     * le frequenze si riusano gli indici; altrimenti la mappa delle varianti
+     * si copia per riferimento e si toccano solo le chiavi delle parole
+     * aggiunte o tolte. Con troppi buchi lasciati dalle parole tolte si
+     * ricostruisce tutto.
+     */
+    public SpellDictionary update(Map<String, Integer> frequencies) {
+        List<String> added = new ArrayList<>();
+        for (String w : frequencies.keySet())
+            if (indexable(w) && !ids.containsKey(w))
+                added.add(w);
+        List<Integer> gone = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : ids.entrySet())
+            if (!frequencies.containsKey(e.getKey()))
+                gone.add(e.getValue());
+
+        int live = ids.size() - gone.size() + added.size();
+        if (removed + gone.size() > live)
+            return build(frequencies);
+
+        String[] nextWords = Arrays.copyOf(words, words.length + added.size());
+        int[] nextCounts = new int[nextWords.length];
+        Map<String, Integer> nextIds = ids;
+        Map<String, int[]> nextDeletes = deletes;
+        if (!added.isEmpty() || !gone.isEmpty()) {
+            nextIds = new HashMap<>(ids);
+            nextDeletes = new HashMap<>(deletes);
+            for (int id : gone) {
+                nextIds.remove(words[id]);
+                for (String d : variants(words[id])) {
+                    int[] l = without(nextDeletes.get(d), id);
+                    if (l.length == 0)
+                        nextDeletes.remove(d);
+                    else
+                        nextDeletes.put(d, l);
+                }
+                nextWords[id] = null;
+            }
+            added.sort(null);
+            int id = words.length;
+            for (String w : added) {
+                nextWords[id] = w;
+                nextIds.put(w, id);
+                for (String d : variants(w)) {
+                    int[] l = nextDeletes.getOrDefault(d, NO_IDS);
+                    int[] grown = Arrays.copyOf(l, l.length + 1);
+                    grown[l.length] = id;
+                    nextDeletes.put(d, grown);
+                }
+                id++;
+            }
+        }
+        for (int id = 0; id < nextWords.length; id++)
+            if (nextWords[id] != null)
+                nextCounts[id] = frequencies.get(nextWords[id]);
+        return new SpellDictionary(nextWords, nextCounts, nextIds, nextDeletes, removed + gone.size());
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public boolean contains(String word) {
+        return ids.containsKey(word);
+    }
+
+    /**
+     * Parola del vocabolario più vicina a {@code token} (già normalizzato):
+     * distanza minima, poi la più frequente, poi in ordine alfabetico.
+     * La parola stessa se è nel vocabolario, null se non c'è niente abbastanza
+     * vicino. Fino a 2 lettere nessuna correzione, 3 lettere al massimo una.
+     */
+    public String correct(String token) {
+        if (token == null || token.isEmpty() || ids.containsKey(token))
+            return token;
+        int max = maxDistance(token.length());
+        if (max == 0)
+            return null;
+
+        String best = null;
+        int bestDist = max + 1;
+        int bestCount = 0;
+        Set<Integer> checked = new HashSet<>();
+        for (String d : deletesOf(prefix(token), max)) {
+            for (int id : deletes.getOrDefault(d, NO_IDS)) {
+                if (!checked.add(id))
+                    continue;
+                String w = words[id];
+                // le parole corte hanno varianti meno profonde: stessa soglia da entrambe le parti
+                int limit = Math.min(max, maxDistance(w.length()));
+                if (Math.abs(w.length() - token.length()) > limit)
+                    continue;
+                int dist = distance(token, w, limit);
+                if (dist > limit)
+                    continue;
+                if (dist < bestDist || (dist == bestDist && (counts[id] > bestCount
+                        || (counts[id] == bestCount && w.compareTo(best) < 0)))) {
+                    best = w;
+                    bestDist = dist;
+                    bestCount = counts[id];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Frase con ogni parola sconosciuta sostituita dalla correzione, se c'è.
+     * Il risultato è normalizzato con {@link TextUtils#normalize}.
+     */
+    public String correctPhrase(String text) {
+        String norm = TextUtils.normalize(text);
+        if (norm.isEmpty() || ids.isEmpty())
+            return norm;
+        String[] parts = norm.split(" ");
+        for (int i = 0; i < parts.length; i++) {
+            String c = correct(parts[i]);
+            if (c != null)
+                parts[i] = c;
+        }
+        return String.join(" ", parts);
+    }
+
+    // parole corte o con cifre (pezzature, "n. 1") non si correggono
+    private static boolean indexable(String w) {
+        if (w == null || w.length() < 3)
+            return false;
+        for (int i = 0; i < w.length(); i++)
+            if (Character.isDigit(w.charAt(i)))
+                return false;
+        return true;
+    }
+
+    static int maxDistance(int length) {
+        return (length <= 2) ? 0 : (length == 3) ? 1 : MAX_DISTANCE;
+    }
+
+    private static String prefix(String w) {
+        return (w.length() > PREFIX) ? w.substring(0, PREFIX) : w;
+    }
+
+    /** Varianti indicizzate di una parola del vocabolario, prefisso compreso. */
+    private static Set<String> variants(String word) {
+        return deletesOf(prefix(word), maxDistance(word.length()));
+    }
+
+    /** {@code s} e tutte le stringhe ottenute togliendo fino a {@code max} caratteri. */
+    static Set<String> deletesOf(String s, int max) {
+        Set<String> out = new HashSet<>();
+        out.add(s);
+        List<String> frontier = List.of(s);
+        for (int k = 0; k < max; k++) {
+            List<String> next = new ArrayList<>();
+            for (String f : frontier)
+                for (int i = 0; i < f.length(); i++) {
+                    String d = f.substring(0, i) + f.substring(i + 1);
+                    if (out.add(d))
+                        next.add(d);
+                }
+            frontier = next;
+        }
+        return out;
+    }
+
+    /** Distanza di Damerau (OSA); appena supera {@code max} ritorna max + 1. */
+    static int distance(String a, String b, int max) {
+        int n = a.length(), m = b.length();
+        int[] prev2 = new int[m + 1];
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++)
+            prev[j] = j;
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= m; j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                int v = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                    v = Math.min(v, prev2[j - 2] + 1);
+                cur[j] = v;
+                rowMin = Math.min(rowMin, v);
+            }
+            if (rowMin > max)
+                return max + 1;
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return Math.min(prev[m], max + 1);
+    }
+
+    private static int[] without(int[] ids, int id) {
+        if (ids == null)
+            return NO_IDS;
+        int[] out = new int[ids.length];
+        int n = 0;
+        for (int x : ids)
+            if (x != id)
+                out[n++] = x;
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,222 @@
+package it.overzoom.ordinainchat.util;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Kernel senza regex né allocazioni per {@link TextUtils#normalize} e
+ * {@link TextUtils#similarity}. Una tabella su tutti i {@code char} dà già
+ * l'esito di NFD, rimozione dei diacritici, minuscolo italiano e sostituzione
+ * della punteggiatura; i buffer di lavoro sono per thread. I caratteri che
+ * non si possono piegare uno alla volta (surrogati, sigma greca, espansioni)
+ * fanno tornare il chiamante all'implementazione con regex.
+ */
+final class TextFold {
+
+    /** Carattere che sparisce (diacritico). */
+    static final char DROP = '\uFFFE';
+    /** Carattere da gestire con l'implementazione completa. */
+    static final char COMPLEX = '\uFFFF';
+
+    // prima della tabella: servono a buildTable()
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern LETTER_OR_DIGIT = Pattern.compile("[\\p{L}\\p{N}]");
+
+    private static final char[] FOLD = buildTable();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private TextFold() {
+    }
+
+    /** Buffer riusati: due testi piegati e gli estremi dei loro token. */
+    static final class Scratch {
+        char[] a = new char[64];
+        char[] b = new char[64];
+        int[] ta = new int[32];
+        int[] tb = new int[32];
+    }
+
+    /**
+     * Forma normalizzata di {@code s}, o null se contiene caratteri
+     * {@link #COMPLEX}. Se {@code s} è già normalizzata ritorna la stessa
+     * istanza.
+     */
+    static String normalize(String s) {
+        Scratch sc = SCRATCH.get();
+        if (sc.a.length < s.length())
+            sc.a = new char[Math.max(s.length(), sc.a.length * 2)];
+        int n = fold(s, sc.a);
+        if (n < 0)
+            return null;
+        if (n == s.length() && sameChars(s, sc.a))
+            return s;
+        return new String(sc.a, 0, n);
+    }
+
+    /** Come {@link TextUtils#similarity}; NaN se serve l'implementazione completa. */
+    static double similarity(String a, String b) {
+        Scratch sc = SCRATCH.get();
+        if (sc.a.length < a.length())
+            sc.a = new char[Math.max(a.length(), sc.a.length * 2)];
+        if (sc.b.length < b.length())
+            sc.b = new char[Math.max(b.length(), sc.b.length * 2)];
+        int la = fold(a, sc.a);
+        int lb = fold(b, sc.b);
+        if (la < 0 || lb < 0)
+            return Double.NaN;
+        char[] na = sc.a, nb = sc.b;
+        if (la == lb && regionEquals(na, 0, nb, 0, la))
+            return 1.0;
+
+        int ka = tokens(na, la, sc, true);
+        int kb = tokens(nb, lb, sc, false);
+        int[] ta = sc.ta, tb = sc.tb;
+
+        // insiemi di token: i duplicati contano una volta
+        int distinctA = 0;
+        for (int i = 0; i < ka; i++)
+            if (!containsToken(na, ta, i, na, ta, i))
+                distinctA++;
+        int distinctB = 0, inter = 0;
+        for (int j = 0; j < kb; j++) {
+            if (containsToken(nb, tb, j, nb, tb, j))
+                continue;
+            distinctB++;
+            if (containsToken(nb, tb, j, na, ta, ka))
+                inter++;
+        }
+        if (distinctB > 0 && inter == distinctB)
+            return 0.9;
+
+        int union = distinctA + distinctB - inter;
+        double jac = (union == 0) ? 0.0 : (double) inter / union;
+        if (jac > 0)
+            return 0.5 + 0.4 * jac;
+
+        if (indexOf(na, la, nb, lb) >= 0 || indexOf(nb, lb, na, la) >= 0)
+            return 0.4;
+        return 0.0;
+    }
+
+    /** Il singolo carattere piegato: minuscolo senza accenti, ' ', {@link #DROP} o {@link #COMPLEX}. */
+    static char foldChar(char c) {
+        return FOLD[c];
+    }
+
+    /** Piega {@code s} in {@code out} (spazi compattati, senza bordi); -1 se COMPLEX. */
+    static int fold(String s, char[] out) {
+        int n = 0;
+        boolean space = false;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char f = FOLD[s.charAt(i)];
+            if (f == DROP)
+                continue;
+            if (f == COMPLEX)
+                return -1;
+            if (f == ' ') {
+                space = n > 0;
+                continue;
+            }
+            if (space) {
+                out[n++] = ' ';
+                space = false;
+            }
+            out[n++] = f;
+        }
+        return n;
+    }
+
+    /** Estremi [start, end) dei token in ta/tb (coppie); ritorna quanti sono. */
+    private static int tokens(char[] s, int len, Scratch sc, boolean first) {
+        int[] t = first ? sc.ta : sc.tb;
+        int k = 0;
+        int start = 0;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || s[i] == ' ') {
+                if (i > start) {
+                    if (2 * k + 2 > t.length)
+                        t = Arrays.copyOf(t, t.length * 2);
+                    t[2 * k] = start;
+                    t[2 * k + 1] = i;
+                    k++;
+                }
+                start = i + 1;
+            }
+        }
+        if (first)
+            sc.ta = t;
+        else
+            sc.tb = t;
+        return k;
+    }
+
+    /** Il token {@code idx} di {@code src} compare tra i primi {@code limit} token di {@code hay}. */
+    private static boolean containsToken(char[] src, int[] srcTok, int idx, char[] hay, int[] hayTok, int limit) {
+        int s = srcTok[2 * idx], len = srcTok[2 * idx + 1] - s;
+        for (int i = 0; i < limit; i++) {
+            int h = hayTok[2 * i];
+            if (hayTok[2 * i + 1] - h == len && regionEquals(src, s, hay, h, len))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean sameChars(String s, char[] buf) {
+        for (int i = 0, len = s.length(); i < len; i++)
+            if (s.charAt(i) != buf[i])
+                return false;
+        return true;
+    }
+
+    private static boolean regionEquals(char[] a, int ai, char[] b, int bi, int len) {
+        for (int i = 0; i < len; i++)
+            if (a[ai + i] != b[bi + i])
+                return false;
+        return true;
+    }
+
+    private static int indexOf(char[] hay, int hayLen, char[] needle, int needleLen) {
+        outer: for (int i = 0; i + needleLen <= hayLen; i++) {
+            for (int k = 0; k < needleLen; k++)
+                if (hay[i + k] != needle[k])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    // ---------- tabella ----------
+
+    /** Per ogni char, gli stessi passi di TextUtils.normalize applicati al singolo carattere. */
+    private static char[] buildTable() {
+        char[] t = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++)
+            t[c] = foldOne((char) c);
+        return t;
+    }
+
+    private static char foldOne(char c) {
+        if (c < 128) {
+            if (Character.isLetterOrDigit(c))
+                return Character.toLowerCase(c);
+            return ' ';
+        }
+        // minuscolo dipendente dal contesto (sigma finale) e coppie surrogate
+        if (Character.isSurrogate(c) || c == 'Σ')
+            return COMPLEX;
+        String d = MARKS.matcher(Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD)).replaceAll("");
+        if (d.isEmpty())
+            return DROP;
+        d = d.toLowerCase(Locale.ITALY);
+        if (d.length() != 1)
+            return COMPLEX;
+        char r = d.charAt(0);
+        if (r == DROP || r == COMPLEX)
+            return COMPLEX;
+        if (LETTER_OR_DIGIT.matcher(d).matches())
+            return r;
+        return ' ';
+    }
+}
@@ -1,6 +1,5 @@
 package it.overzoom.ordinainchat.util;
 
-import java.math.BigDecimal;
 import java.text.Normalizer;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -11,7 +10,19 @@ public final class TextUtils {
     private TextUtils() {
     }
 
+    /**
+     * Minuscolo senza diacritici, punteggiatura sostituita da spazi, spazi
+     * compattati. Di norma passa dalla tabella di {@link TextFold}.
+     */
     public static String normalize(String s) {
+        if (s == null)
+            return "";
+        String n = TextFold.normalize(s);
+        return (n != null) ? n : slowNormalize(s);
+    }
+
+    /** Implementazione con regex, per i caratteri che la tabella non copre. */
+    static String slowNormalize(String s) {
         if (s == null)
             return "";
         String n = Normalizer.normalize(s, Normalizer.Form.NFD)
@@ -39,7 +50,7 @@ public final class TextUtils {
     }
 
     private static Set<String> tokens(String s) {
-        String n = normalize(s);
+        String n = slowNormalize(s);
         Set<String> out = new LinkedHashSet<>();
         for (String t : n.split("\\s+"))
             if (!t.isBlank())
@@ -47,9 +58,14 @@ public final class TextUtils {
         return out;
     }
 
-    /** Similarità semplice token-based (0..1). */
+    /** Similarità semplice token-based (0..1), senza allocazioni nel caso comune. */
     public static double similarity(String a, String b) {
-        String na = normalize(a), nb = normalize(b);
+        double s = TextFold.similarity(a == null ? "" : a, b == null ? "" : b);
+        return Double.isNaN(s) ? slowSimilarity(a, b) : s;
+    }
+
+    static double slowSimilarity(String a, String b) {
+        String na = slowNormalize(a), nb = slowNormalize(b);
         if (na.equals(nb))
             return 1.0;
 
@@ -70,67 +86,21 @@ public final class TextUtils {
         return 0.0;
     }
 
-    public static BigDecimal parseQuantityKg(String s) {
-        if (s == null)
-            return null;
-        String t = s.toLowerCase(Locale.ITALY).trim()
-                .replaceAll("[^\\p{L}\\p{N}\\s\\.,/]", " ")
-                .replaceAll("\\s+", " ").trim();
-
-        t = t.replace("mezzo", "0,5").replace("mezza", "0,5")
-                .replace("un chilo", "1").replace("uno chilo", "1")
-                .replace("un kilo", "1").replace("uno kilo", "1")
-                .replace("un mezzo", "0,5").replace("mezzetto", "0,5");
-
-        java.util.regex.Matcher frac = java.util.regex.Pattern
-                .compile("(\\d+)\\s*/\\s*(\\d+)").matcher(t);
-        if (frac.find()) {
-            try {
-                BigDecimal num = new BigDecimal(frac.group(1));
-                BigDecimal den = new BigDecimal(frac.group(2));
-                BigDecimal val = num.divide(den, 3, java.math.RoundingMode.HALF_UP);
-                t = frac.replaceFirst(val.toPlainString().replace('.', ','));
-            } catch (Exception ignored) {
-            }
-        }
-
-        java.util.regex.Matcher m = java.util.regex.Pattern
-                .compile("(\\d+(?:[\\.,]\\d+)?)").matcher(t);
-        if (!m.find())
-            return null;
-
-        String numStr = m.group(1).replace('.', ',');
-        BigDecimal qty;
-        try {
-            qty = new BigDecimal(numStr.replace(',', '.'));
-        } catch (Exception e) {
-            return null;
-        }
-
-        boolean hasKg = t.contains("kg") || t.contains("chilo") || t.contains("kilo") || t.contains("chili")
-                || t.contains("kili");
-        boolean hasEtti = t.contains("etto") || t.contains("etti") || t.contains("hg");
-        boolean hasGrammi = t.contains("grammi") || t.contains("gr") || t.contains("g");
-
-        if (hasEtti)
-            qty = qty.multiply(new BigDecimal("0.1"));
-        else if (hasGrammi)
-            qty = qty.divide(new BigDecimal("1000"), 3, java.math.RoundingMode.HALF_UP);
-
-        if (qty.compareTo(BigDecimal.ZERO) <= 0)
-            return null;
-        return qty.setScale(3, java.math.RoundingMode.HALF_UP).stripTrailingZeros();
-    }
-
     public static String toPlainText(String s) {
         if (s == null)
             return "";
         return s.replace("*", "").replace("_", "").replace("`", "").trim();
     }
 
+    // precompilati: String.matches ricompila il pattern a ogni chiamata
+    private static final java.util.regex.Pattern SMALL_TALK_GREETING = java.util.regex.Pattern
+            .compile("\\b(ciao|salve|hey|buongiorno|buonasera)\\b");
+    private static final java.util.regex.Pattern SMALL_TALK_HELP = java.util.regex.Pattern
+            .compile("^\\s*(aiuto|help)\\s*$");
+
     public static boolean isSmallTalk(String lower) {
         // spazi/limiti parola per evitare falsi positivi
-        return lower.matches(".*\\b(ciao|salve|hey|buongiorno|buonasera)\\b.*")
-                || lower.matches("^\\s*(aiuto|help)\\s*$");
+        return SMALL_TALK_GREETING.matcher(lower).find()
+                || SMALL_TALK_HELP.matcher(lower).matches();
     }
 }
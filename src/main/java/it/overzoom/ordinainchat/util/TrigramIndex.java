@@ -0,0 +1,256 @@
+package it.overzoom.ordinainchat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indice invertito di trigrammi sui nomi normalizzati, per la ricerca fuzzy
+ * senza scorrere tutto il catalogo. I trigrammi generano i candidati; il
+ * punteggio è quello di {@link TextUtils#similarity}, calcolato sui token già
+ * normalizzati e convertiti in id al momento della costruzione. Stesso
+ * risultato della scansione lineare nello stesso ordine, pareggi compresi
+ * (vince il primo).
+ *
+ * <p>
+ * I trigrammi si prendono da {@code " " + norm + " "}: un token in comune,
+ * anche di una o due lettere, condivide sempre almeno un trigramma, e così
+ * una sottostringa di almeno 3 caratteri. I nomi più corti di 3 caratteri
+ * sono sempre candidati, e una query così corta passa alla scansione lineare.
+ */
+public final class TrigramIndex {
+
+    private final String[] norms;
+    private final int[][] tokenIds; // ordinati, senza duplicati
+    private final Map<String, Integer> dictionary;
+    private final int[] shortOrdinals;
+    private final Map<Long, int[]> postings;
+
+    private TrigramIndex(String[] norms, int[][] tokenIds, Map<String, Integer> dictionary,
+            int[] shortOrdinals, Map<Long, int[]> postings) {
+        this.norms = norms;
+        this.tokenIds = tokenIds;
+        this.dictionary = dictionary;
+        this.shortOrdinals = shortOrdinals;
+        this.postings = postings;
+    }
+
+    /** {@code names} nell'ordine di scansione: l'ordinale è la posizione nella lista. */
+    public static TrigramIndex build(List<String> names) {
+        int n = names.size();
+        String[] norms = new String[n];
+        int[][] tokenIds = new int[n][];
+        Map<String, Integer> dictionary = new HashMap<>();
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        List<Integer> shorts = new ArrayList<>();
+        for (int ord = 0; ord < n; ord++) {
+            String norm = TextUtils.normalize(names.get(ord));
+            norms[ord] = norm;
+            tokenIds[ord] = tokenIds(norm, dictionary, true);
+            if (norm.length() < 3)
+                shorts.add(ord);
+            for (long g : grams(norm))
+                lists.computeIfAbsent(g, k -> new ArrayList<>()).add(ord);
+        }
+        Map<Long, int[]> postings = new HashMap<>(lists.size() * 2);
+        lists.forEach((g, ords) -> postings.put(g, ords.stream().mapToInt(Integer::intValue).toArray()));
+        return new TrigramIndex(norms, tokenIds, Map.copyOf(dictionary),
+                shorts.stream().mapToInt(Integer::intValue).toArray(), postings);
+    }
+
+    /**
+     * Indice per una nuova versione dei nomi. {@code from[ord]} è l'ordinale
+     * nella versione corrente di un nome rimasto uguale, -1 per i nomi nuovi o
+     * cambiati; i nomi rimasti conservano l'ordine relativo. Le righe invariate
+     * non si rielaborano: le liste si rimappano e si aggiungono i trigrammi dei
+     * soli nomi nuovi. Stessi risultati di {@link #build} sugli stessi nomi.
+     */
+    public TrigramIndex update(int[] from, List<String> names) {
+        int n = names.size();
+        int[] toNew = new int[norms.length];
+        Arrays.fill(toNew, -1);
+        String[] newNorms = new String[n];
+        int[][] newTokenIds = new int[n][];
+        Map<String, Integer> dict = new HashMap<>(dictionary);
+        Map<Long, List<Integer>> added = new HashMap<>();
+        List<Integer> shorts = new ArrayList<>();
+        for (int ord = 0; ord < n; ord++) {
+            int old = from[ord];
+            if (old >= 0) {
+                toNew[old] = ord;
+                newNorms[ord] = norms[old];
+                newTokenIds[ord] = tokenIds[old];
+            } else {
+                String norm = TextUtils.normalize(names.get(ord));
+                newNorms[ord] = norm;
+                newTokenIds[ord] = tokenIds(norm, dict, true);
+                for (long g : grams(norm))
+                    added.computeIfAbsent(g, k -> new ArrayList<>()).add(ord);
+            }
+            if (newNorms[ord].length() < 3)
+                shorts.add(ord);
+        }
+
+        Map<Long, int[]> newPostings = new HashMap<>(postings.size() * 2);
+        postings.forEach((g, list) -> {
+            List<Integer> extra = added.remove(g);
+            int[] out = new int[list.length + (extra == null ? 0 : extra.size())];
+            int k = 0;
+            for (int old : list)
+                if (toNew[old] >= 0)
+                    out[k++] = toNew[old];
+            if (extra != null) {
+                for (int ord : extra)
+                    out[k++] = ord;
+                Arrays.sort(out, 0, k);
+            }
+            if (k > 0)
+                newPostings.put(g, (k == out.length) ? out : Arrays.copyOf(out, k));
+        });
+        added.forEach((g, ords) -> newPostings.put(g, ords.stream().mapToInt(Integer::intValue).toArray()));
+        return new TrigramIndex(newNorms, newTokenIds, Map.copyOf(dict),
+                shorts.stream().mapToInt(Integer::intValue).toArray(), newPostings);
+    }
+
+    public int size() {
+        return norms.length;
+    }
+
+    /**
+     * Ordinale del nome più simile a {@code query} con punteggio almeno
+     * {@code minScore}, oppure -1.
+     */
+    public int bestMatch(String query, double minScore) {
+        if (norms.length == 0 || query == null)
+            return -1;
+        String q = TextUtils.normalize(query);
+        int[] qTokens = tokenIds(q, dictionary, false);
+        if (q.length() < 3)
+            return scan(allOrdinals(), q, qTokens, minScore);
+
+        boolean[] seen = new boolean[norms.length];
+        int[] candidates = new int[norms.length];
+        int n = 0;
+        for (long g : grams(q)) {
+            int[] list = postings.get(g);
+            if (list == null)
+                continue;
+            for (int ord : list)
+                if (!seen[ord]) {
+                    seen[ord] = true;
+                    candidates[n++] = ord;
+                }
+        }
+        for (int ord : shortOrdinals)
+            if (!seen[ord]) {
+                seen[ord] = true;
+                candidates[n++] = ord;
+            }
+        // ordine di scansione, per gli stessi pareggi della versione lineare
+        Arrays.sort(candidates, 0, n);
+        return scan(Arrays.copyOf(candidates, n), q, qTokens, minScore);
+    }
+
+    /** Come il ciclo lineare: il primo punteggio più alto vince, >= 0.999 chiude subito. */
+    private int scan(int[] ordinals, String q, int[] qTokens, double minScore) {
+        double best = -1;
+        int bestOrd = -1;
+        for (int ord : ordinals) {
+            double s = score(ord, q, qTokens);
+            if (s > best) {
+                best = s;
+                bestOrd = ord;
+            }
+            if (s >= 0.999)
+                return ord;
+        }
+        if (best <= 0) {
+            // nessun candidato utile: nella scansione lineare vince il primo nome, a 0
+            best = 0;
+            bestOrd = 0;
+        }
+        return (best >= minScore) ? bestOrd : -1;
+    }
+
+    /** {@link TextUtils#similarity}(nome, query) sui token id, senza ricalcolare normalize. */
+    private double score(int ord, String q, int[] qTokens) {
+        String a = norms[ord];
+        if (a.equals(q))
+            return 1.0;
+        int[] ta = tokenIds[ord];
+        int inter = intersection(ta, qTokens);
+        if (qTokens.length > 0 && inter == qTokens.length)
+            return 0.9;
+        int union = ta.length + qTokens.length - inter;
+        double j = (union == 0) ? 0.0 : (double) inter / union;
+        if (j > 0)
+            return 0.5 + 0.4 * j;
+        if (a.contains(q) || q.contains(a))
+            return 0.4;
+        return 0.0;
+    }
+
+    private static int intersection(int[] a, int[] b) {
+        int i = 0, k = 0, n = 0;
+        while (i < a.length && k < b.length) {
+            if (a[i] == b[k]) {
+                n++;
+                i++;
+                k++;
+            } else if (a[i] < b[k]) {
+                i++;
+            } else {
+                k++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Token distinti di {@code norm} come id ordinati. In lettura un token
+     * sconosciuto prende un id negativo tutto suo: non è in nessun nome.
+     */
+    private static int[] tokenIds(String norm, Map<String, Integer> dictionary, boolean add) {
+        if (norm.isEmpty())
+            return new int[0];
+        String[] parts = norm.split(" ");
+        int[] ids = new int[parts.length];
+        int unknown = 0;
+        for (int i = 0; i < parts.length; i++) {
+            Integer id = add ? dictionary.computeIfAbsent(parts[i], k -> dictionary.size())
+                    : dictionary.get(parts[i]);
+            ids[i] = (id != null) ? id : -1 - (unknown++);
+        }
+        Arrays.sort(ids);
+        int m = 0;
+        for (int i = 0; i < ids.length; i++)
+            if (m == 0 || ids[m - 1] != ids[i])
+                ids[m++] = ids[i];
+        return Arrays.copyOf(ids, m);
+    }
+
+    private int[] allOrdinals() {
+        int[] all = new int[norms.length];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return all;
+    }
+
+    /** Trigrammi distinti di " norm ", codificati in un long (3 char da 16 bit). */
+    static long[] grams(String norm) {
+        if (norm.isEmpty())
+            return new long[0];
+        String padded = " " + norm + " ";
+        long[] out = new long[padded.length() - 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        Arrays.sort(out);
+        int m = 0;
+        for (int i = 0; i < out.length; i++)
+            if (m == 0 || out[m - 1] != out[i])
+                out[m++] = out[i];
+        return Arrays.copyOf(out, m);
+    }
+}
@@ -0,0 +1,6 @@
+-- V6: update Telegram già ricevuti (dedup su update_id, modalità postgres)
+CREATE TABLE IF NOT EXISTS processed_updates (
+  update_id    BIGINT PRIMARY KEY,
+  received_at  TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+CREATE INDEX IF NOT EXISTS ix_processed_updates_received_at ON processed_updates(received_at);
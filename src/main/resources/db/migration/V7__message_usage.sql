@@ -0,0 +1,9 @@
+-- V7: consumo OpenAI per messaggio (token, latenza, step dell'utente)
+ALTER TABLE messages
+  ADD COLUMN IF NOT EXISTS input_tokens        INT,
+  ADD COLUMN IF NOT EXISTS cached_input_tokens INT,
+  ADD COLUMN IF NOT EXISTS output_tokens       INT,
+  ADD COLUMN IF NOT EXISTS latency_ms          BIGINT,
+  ADD COLUMN IF NOT EXISTS step                TEXT;
+
+CREATE INDEX IF NOT EXISTS ix_messages_created_at ON messages(created_at);
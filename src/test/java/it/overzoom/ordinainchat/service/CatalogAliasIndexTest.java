@@ -0,0 +1,75 @@
+package it.overzoom.ordinainchat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.util.AliasLexicon;
+
+/** Sinonimi compilati su un catalogo fisso: forma del catalogo, termini su più parole, ambiguità. */
+class CatalogAliasIndexTest {
+
+    static final List<String> LEXICON = List.of(
+            "# forma del catalogo: il sinonimo presente in più nomi",
+            "spigola = spinola, lupo di mare, branzino",
+            "alici, acciughe",
+            "canocchie = cicale di mare, pannocchie",
+            "scampi, cicale",
+            "mazzancolle, gamberoni # nessuno dei due nel catalogo");
+
+    static final String[] NAMES = { "Acciughe fresche", "Acciughe marinate", "Alici sotto sale", "Spigola",
+            "Spigola filetti", "Canocchie", "Scampi" };
+
+    final CatalogTable table = table();
+    final CatalogAliasIndex index = CatalogAliasIndex.build(table, AliasLexicon.parse(LEXICON));
+
+    @Test
+    void catalogFormIsTheSynonymInMostNames() {
+        // "acciughe" in due nomi, "alici" in uno: si riscrive verso acciughe e non il contrario
+        assertEquals(new CatalogAliasIndex.Match(1L, "acciughe fresche"), index.resolve("alici fresche", table));
+        assertNull(index.resolve("acciughe fresche", table));
+        assertEquals(new CatalogAliasIndex.Match(4L, "spigola"), index.resolve("branzino", table));
+        assertEquals(new CatalogAliasIndex.Match(5L, "spigola filetti"), index.resolve("spinola filetti", table));
+    }
+
+    @Test
+    void longestTermWinsAtTheSamePosition() {
+        assertEquals(new CatalogAliasIndex.Match(6L, "canocchie"), index.resolve("cicale di mare", table));
+        assertEquals(new CatalogAliasIndex.Match(7L, "scampi"), index.resolve("cicale", table));
+        assertEquals(new CatalogAliasIndex.Match(4L, "spigola"), index.resolve("lupo di mare", table));
+        // il termine più a sinistra viene prima
+        assertEquals("vorrei canocchie o spinola",
+                index.resolve("vorrei pannocchie o spinola", table).rewritten());
+    }
+
+    @Test
+    void ambiguousOrUnmatchedRewriteHasNoId() {
+        // due nomi con "acciughe" e nient'altro a distinguerli
+        assertEquals(new CatalogAliasIndex.Match(null, "acciughe"), index.resolve("alici", table));
+        // le altre parole scelgono tra i nomi con la forma del catalogo
+        assertEquals(new CatalogAliasIndex.Match(5L, "filetti spigola"), index.resolve("filetti spinola", table));
+        assertEquals(new CatalogAliasIndex.Match(null, "spigola al forno"), index.resolve("spinola al forno", table));
+    }
+
+    @Test
+    void groupsMissingFromTheCatalogAreDropped() {
+        assertNull(index.resolve("mazzancolle", table));
+        assertNull(index.resolve("gamberoni", table));
+        // spinola, lupo di mare, branzino, alici, cicale di mare, pannocchie, cicale
+        assertEquals(7, index.size());
+        assertEquals(0, CatalogAliasIndex.build(CatalogTable.EMPTY, AliasLexicon.parse(LEXICON)).size());
+    }
+
+    static CatalogTable table() {
+        List<McpProduct> products = new ArrayList<>();
+        for (int i = 0; i < NAMES.length; i++)
+            products.add(new McpProduct(i + 1, NAMES[i], null, null, null, null, null, null, null, null, null, null,
+                    null, null));
+        return CatalogTable.build(products);
+    }
+}
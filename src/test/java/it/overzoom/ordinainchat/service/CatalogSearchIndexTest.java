@@ -0,0 +1,167 @@
+package it.overzoom.ordinainchat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import it.overzoom.ordinainchat.mcp.McpProduct;
+import it.overzoom.ordinainchat.mcp.McpProductPage;
+import it.overzoom.ordinainchat.util.SpellDictionary;
+import it.overzoom.ordinainchat.util.TextUtils;
+
+/** I filtri a bitset devono dare gli stessi prodotti, e le stesse pagine, di un filtro riga per riga. */
+class CatalogSearchIndexTest {
+
+    static final ObjectMapper OM = new ObjectMapper();
+
+    // le domande che IntentService traduce in filtri, da sole e combinate
+    static final String[] UTTERANCES = { "cosa hai di fresco?", "cosa c'è in offerta?", "avete pesce locale?",
+            "fresco in offerta", "pesce pugliese in offerta", "ciao" };
+
+    @Test
+    void sameProductsAndPagesAsRowByRowFilter() {
+        CatalogSearchIndex index = index(catalog());
+        IntentService intents = new IntentService();
+        List<ObjectNode> cases = new ArrayList<>();
+        for (String u : UTTERANCES) {
+            ObjectNode args = intents.buildProductsSearchArgsFromImplicitIntent(u);
+            cases.add(args);
+            cases.add(args.deepCopy().put("maxPrice", 10));
+            cases.add(args.deepCopy().put("textSearch", "rossi"));
+        }
+        cases.add(OM.createObjectNode().put("textSearch", "Gamberi"));
+        cases.add(OM.createObjectNode().put("textSearch", "all'amo"));
+        cases.add(OM.createObjectNode().put("textSearch", "tonno trancio").put("onlyOnOffer", false));
+        cases.add(OM.createObjectNode().put("maxPrice", new BigDecimal("12.00")).put("source", "wild_caught"));
+        cases.add(OM.createObjectNode().put("originAreaLike", "taranto|ionio").put("freshness", "fresh"));
+
+        for (ObjectNode args : cases) {
+            List<Long> expected = linear(catalog(), args);
+            for (int size : new int[] { 1, 3, 10 })
+                for (int page = 0; page <= expected.size() / size + 1; page++) {
+                    ObjectNode paged = args.deepCopy().put("page", page).put("size", size);
+                    McpProductPage got = index.search(paged).orElseThrow();
+                    List<Long> slice = expected.subList(Math.min(page * size, expected.size()),
+                            Math.min((page + 1) * size, expected.size()));
+                    assertEquals(slice, ids(got), () -> paged.toString());
+                    assertEquals(expected.size(), got.total(), () -> paged.toString());
+                    assertEquals(page, got.page());
+                    assertEquals(size, got.size());
+                }
+        }
+    }
+
+    @Test
+    void pageBeyondIntRangeIsEmpty() {
+        CatalogSearchIndex index = index(catalog());
+        McpProductPage got = index.search(OM.createObjectNode().put("page", Integer.MAX_VALUE).put("size", 1000))
+                .orElseThrow();
+        assertTrue(got.items().isEmpty());
+        assertEquals(catalog().size(), got.total());
+    }
+
+    @Test
+    void correctsMisspelledWordsAndDefersUnknownFilters() {
+        CatalogSearchIndex index = index(catalog());
+        assertEquals(List.of(1L), ids(index.search(OM.createObjectNode().put("textSearch", "spigla")).orElseThrow()));
+        assertTrue(index.search(OM.createObjectNode().put("availableOnly", true)).isEmpty());
+        assertTrue(index.search(OM.createObjectNode().put("availableOnly", false)).isPresent());
+    }
+
+    static List<McpProduct> catalog() {
+        return List.of(
+                product(1, "Spigola", "pescata all'amo", "18", null, "FRESH", "WILD_CAUGHT", "Puglia", "37.2.1", "IT",
+                        "Bari", true),
+                product(2, "Orata", null, "12", null, "FRESH", "FARMED", "Grecia", "37.3.1", "GR", null, false),
+                product(3, "Gamberi rossi", null, "45", null, "FROZEN", "WILD_CAUGHT", "Sicilia", "37.2.2", "IT",
+                        "Mazara del Vallo", true),
+                product(4, "Cozze", "nere", "4.5", null, "FRESH", "FARMED", "Taranto, Mar Piccolo", "37.2.1", "IT",
+                        "Taranto", true),
+                product(5, "Alici", null, "8", null, "fresh", "WILD_CAUGHT", "Adriatico", "37.2.1", "IT",
+                        "Manfredonia", false),
+                product(6, "Polpo", null, null, "15", "FROZEN", "WILD_CAUGHT", "Marocco", "34.1.1", "MA", null, null),
+                product(7, "Seppia", "nostrana", null, null, "FRESH", "WILD_CAUGHT", "Ionio", "37.2.2", "IT",
+                        "Gallipoli", true),
+                product(8, "Tonno rosso", "trancio", null, "30", "FRESH", "WILD_CAUGHT", "Ionio", "37.2.2", "IT",
+                        "Gallipoli", false),
+                product(9, "Gamberi rossi", "di Gallipoli", "52", null, "FRESH", "WILD_CAUGHT", "Puglia", "37.2.2",
+                        "IT", "Gallipoli", true));
+    }
+
+    static McpProduct product(long id, String name, String description, String priceKg, String pricePiece,
+            String freshness, String source, String originArea, String faoArea, String country, String port,
+            Boolean onOffer) {
+        return new McpProduct(id, name, description, null, decimal(priceKg), decimal(pricePiece), freshness, source,
+                null, originArea, faoArea, country, port, onOffer);
+    }
+
+    static CatalogSearchIndex index(List<McpProduct> products) {
+        CatalogTable table = CatalogTable.build(products);
+        Map<String, Integer> words = new HashMap<>();
+        for (int ord = 0; ord < table.size(); ord++)
+            for (String t : new HashSet<>(table.tokens(ord)))
+                words.merge(t, 1, Integer::sum);
+        return new CatalogSearchIndex(table, SpellDictionary.build(words));
+    }
+
+    // products_search come la farebbe il gestionale: un prodotto alla volta, ordine per nome e id
+    static List<Long> linear(List<McpProduct> products, ObjectNode args) {
+        return products.stream()
+                .filter(p -> eq(args, "freshness", p.freshness()) && eq(args, "source", p.source())
+                        && eq(args, "originCountry", p.originCountry()))
+                .filter(p -> !args.hasNonNull("faoAreaPrefix")
+                        || (p.faoArea() != null && p.faoArea().startsWith(args.get("faoAreaPrefix").asText())))
+                .filter(p -> like(args, "originAreaLike", p.originArea()) && like(args, "landingPortLike", p.landingPort()))
+                .filter(p -> !args.path("onlyOnOffer").asBoolean(false) || Boolean.TRUE.equals(p.onOffer()))
+                .filter(p -> !args.hasNonNull("maxPrice") || (p.referencePrice() != null
+                        && p.referencePrice().compareTo(args.get("maxPrice").decimalValue()) <= 0))
+                .filter(p -> !args.hasNonNull("textSearch") || words(args.get("textSearch").asText()).stream()
+                        .allMatch(w -> (TextUtils.normalize(p.name()) + " " + TextUtils.normalize(p.description()))
+                                .contains(w)))
+                .sorted(Comparator.comparing((McpProduct p) -> TextUtils.normalize(p.name()))
+                        .thenComparingLong(McpProduct::id))
+                .map(McpProduct::id)
+                .toList();
+    }
+
+    static boolean eq(ObjectNode args, String field, String value) {
+        return !args.hasNonNull(field) || args.get(field).asText().equalsIgnoreCase(value);
+    }
+
+    static boolean like(ObjectNode args, String field, String value) {
+        if (!args.hasNonNull(field))
+            return true;
+        if (value == null)
+            return false;
+        for (String alt : args.get(field).asText().split("\\|"))
+            if (value.toLowerCase(Locale.ITALY).contains(alt))
+                return true;
+        return false;
+    }
+
+    static List<String> words(String text) {
+        String norm = TextUtils.normalize(text);
+        return norm.isEmpty() ? List.of() : List.of(norm.split(" "));
+    }
+
+    static List<Long> ids(McpProductPage page) {
+        return page.items().stream().map(McpProduct::id).toList();
+    }
+
+    static BigDecimal decimal(String s) {
+        return (s == null) ? null : new BigDecimal(s);
+    }
+}
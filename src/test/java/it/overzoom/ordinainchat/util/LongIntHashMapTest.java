@@ -0,0 +1,50 @@
+package it.overzoom.ordinainchat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** Stesso comportamento di una HashMap<Long, Integer>, anche crescendo oltre la dimensione iniziale. */
+class LongIntHashMapTest {
+
+    @Test
+    void behavesLikeHashMap() {
+        Random rnd = new Random(3);
+        for (int expected : new int[] { 0, 1, 16, 1000 }) {
+            LongIntHashMap map = new LongIntHashMap(expected);
+            Map<Long, Integer> reference = new HashMap<>();
+            for (int i = 0; i < 20_000; i++) {
+                // id piccoli (collisioni, sovrascritture), grandi e negativi
+                long key = switch (rnd.nextInt(3)) {
+                    case 0 -> 1 + rnd.nextInt(500);
+                    case 1 -> rnd.nextLong();
+                    default -> -1 - rnd.nextInt(500);
+                };
+                if (key == 0)
+                    continue;
+                int value = rnd.nextInt(Integer.MAX_VALUE);
+                map.put(key, value);
+                reference.put(key, value);
+            }
+            assertEquals(reference.size(), map.size());
+            for (Map.Entry<Long, Integer> e : reference.entrySet())
+                assertEquals(e.getValue(), map.get(e.getKey()));
+            for (int i = 0; i < 10_000; i++) {
+                long key = rnd.nextLong();
+                if (key != 0 && !reference.containsKey(key))
+                    assertEquals(-1, map.get(key));
+            }
+            assertEquals(-1, map.get(0));
+        }
+    }
+
+    @Test
+    void rejectsZeroKey() {
+        assertThrows(IllegalArgumentException.class, () -> new LongIntHashMap(4).put(0, 1));
+    }
+}
@@ -0,0 +1,38 @@
+package it.overzoom.ordinainchat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvFileSource;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import it.overzoom.ordinainchat.util.QuantityParser.Quantity;
+import it.overzoom.ordinainchat.util.QuantityParser.Unit;
+
+/** Frasi reali della chat (quantity-corpus.tsv): valore e unità attesi, o nessuna quantità. */
+class QuantityParserTest {
+
+    @ParameterizedTest(name = "{0}")
+    @CsvFileSource(resources = "/quantity-corpus.tsv", delimiter = '\t', numLinesToSkip = 1)
+    void corpus(String utterance, String value, String unit) {
+        Optional<Quantity> q = QuantityParser.parse(utterance);
+        if (value == null) {
+            assertTrue(q.isEmpty(), () -> "nessuna quantità attesa, trovato " + q.get());
+            return;
+        }
+        assertTrue(q.isPresent(), "quantità non riconosciuta");
+        assertEquals(0, new BigDecimal(value).compareTo(q.get().value()), () -> "valore " + q.get().value());
+        assertEquals(Unit.valueOf(unit), q.get().unit());
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "ventuno,21", "trentotto,38", "centoventi,120", "duecentocinquanta,250", "mille,1000",
+            "duemilacinquecento,2500", "diciannove,19", "novantanove,99", "una,1", "orata,-1", "centro,-1" })
+    void italianNumbers(String word, int expected) {
+        assertEquals(expected, QuantityParser.italianNumber(word));
+    }
+}
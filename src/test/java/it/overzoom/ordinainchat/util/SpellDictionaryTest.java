@@ -0,0 +1,135 @@
+package it.overzoom.ordinainchat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** Le cancellazioni simmetriche devono trovare la stessa parola del confronto con tutto il vocabolario. */
+class SpellDictionaryTest {
+
+    static final String ALPHABET = "abcdefghilmnopqrstuvz";
+
+    @Test
+    void correctsTypicalTypos() {
+        SpellDictionary dict = SpellDictionary.build(frequencies(catalog()));
+        assertEquals("spigola", dict.correct("spigla"));
+        assertEquals("orata", dict.correct("ortata"));
+        assertEquals("gamberi rossi", dict.correctPhrase("gamberi rosi"));
+        assertEquals("calamari", dict.correct("calamrai"));
+        assertEquals("orata", dict.correct("orata"));
+        assertNull(dict.correct("xyzkw"));
+        assertNull(dict.correct("di"));
+    }
+
+    @Test
+    void sameResultAsFullScan() {
+        Random rnd = new Random(7);
+        Map<String, Integer> freq = frequencies(catalog());
+        SpellDictionary dict = SpellDictionary.build(freq);
+        for (String q : typos(rnd, new ArrayList<>(freq.keySet()), 3000))
+            assertEquals(bruteForce(freq, q), dict.correct(q), () -> "query='" + q + "'");
+    }
+
+    @Test
+    void incrementalUpdateMatchesRebuild() {
+        Random rnd = new Random(11);
+        Map<String, Integer> freq = frequencies(catalog());
+        SpellDictionary dict = SpellDictionary.build(freq);
+        List<String> pool = new ArrayList<>(freq.keySet());
+        for (int round = 0; round < 30; round++) {
+            Map<String, Integer> next = new HashMap<>(freq);
+            // qualche parola esce, qualcuna entra, qualche frequenza cambia
+            for (int i = 0; i < 3 && !next.isEmpty(); i++)
+                next.remove(pool.get(rnd.nextInt(pool.size())));
+            for (int i = 0; i < 3; i++)
+                next.put(typo(rnd, pool.get(rnd.nextInt(pool.size()))), 1 + rnd.nextInt(5));
+            next.replaceAll((w, c) -> rnd.nextInt(10) == 0 ? c + 1 : c);
+
+            dict = dict.update(next);
+            SpellDictionary rebuilt = SpellDictionary.build(next);
+            assertEquals(rebuilt.size(), dict.size());
+            for (String q : typos(rnd, pool, 200))
+                assertEquals(rebuilt.correct(q), dict.correct(q), "round " + round + " query='" + q + "'");
+            freq = next;
+        }
+    }
+
+    static String bruteForce(Map<String, Integer> freq, String q) {
+        if (freq.containsKey(q) && q.length() >= 3 && q.chars().noneMatch(Character::isDigit))
+            return q;
+        int max = SpellDictionary.maxDistance(q.length());
+        if (max == 0)
+            return null;
+        String best = null;
+        int bestDist = Integer.MAX_VALUE, bestCount = 0;
+        for (Map.Entry<String, Integer> e : freq.entrySet()) {
+            String w = e.getKey();
+            if (w.length() < 3 || w.chars().anyMatch(Character::isDigit))
+                continue;
+            int limit = Math.min(max, SpellDictionary.maxDistance(w.length()));
+            int d = SpellDictionary.distance(q, w, limit);
+            if (d > limit)
+                continue;
+            if (d < bestDist || (d == bestDist && (e.getValue() > bestCount
+                    || (e.getValue() == bestCount && w.compareTo(best) < 0)))) {
+                best = w;
+                bestDist = d;
+                bestCount = e.getValue();
+            }
+        }
+        return best;
+    }
+
+    static List<String> catalog() {
+        List<String> names = new ArrayList<>();
+        for (String species : TrigramIndexTest.SPECIES)
+            for (String q : TrigramIndexTest.QUALIFIERS)
+                names.add((species + " " + q).trim());
+        names.add("gamberi rossi di Mazara");
+        return names;
+    }
+
+    static Map<String, Integer> frequencies(List<String> names) {
+        Map<String, Integer> freq = new HashMap<>();
+        for (String n : names)
+            for (String t : TextUtils.normalize(n).split(" "))
+                freq.merge(t, 1, Integer::sum);
+        return freq;
+    }
+
+    static List<String> typos(Random rnd, List<String> words, int n) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String w = words.get(rnd.nextInt(words.size()));
+            int edits = rnd.nextInt(4);
+            for (int k = 0; k < edits; k++)
+                w = typo(rnd, w);
+            if (!w.isEmpty())
+                out.add(w);
+        }
+        return out;
+    }
+
+    /** Una modifica a caso: cancellazione, inserimento, sostituzione o scambio di lettere vicine. */
+    static String typo(Random rnd, String w) {
+        if (w.isEmpty())
+            return String.valueOf(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+        int i = rnd.nextInt(w.length());
+        char c = ALPHABET.charAt(rnd.nextInt(ALPHABET.length()));
+        return switch (rnd.nextInt(4)) {
+            case 0 -> w.substring(0, i) + w.substring(i + 1);
+            case 1 -> w.substring(0, i) + c + w.substring(i);
+            case 2 -> w.substring(0, i) + c + w.substring(i + 1);
+            default -> (i + 1 < w.length())
+                    ? w.substring(0, i) + w.charAt(i + 1) + w.charAt(i) + w.substring(i + 2)
+                    : w;
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package it.overzoom.ordinainchat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * I kernel di {@link TextFold} devono dare gli stessi risultati delle
+ * implementazioni con regex ({@code slowNormalize}, {@code slowSimilarity}).
+ */
+class TextUtilsPropertyTest {
+
+    // alfabeto di prova: ASCII, accenti precomposti e combinanti, punteggiatura,
+    // spazi Unicode, cifre non latine, greco (sigma finale), surrogati
+    static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789"
+            + "àèéìòùÀÈÉÌÒÙçÇñÑäöüßÄÖÜåÅøØæÆœŒłŁğİıšžčćđ"
+            + "̧̀́̂̃̈"
+            + " \t\n\r\u000B\f  　"
+            + ".,;:!?'\"()[]{}-_/\\*&%$#@+=<>|~^`€£°ºª"
+            + "²½٣٠ΑΒΓΣσςαβγ"
+            + "🐟🦐ﬁǅǄÅΩ";
+
+    static final String[] WORDS = { "orata", "Orata", "ORATE", "spigola", "branzino", "gamberi", "gambero",
+            "rosso", "rossi", "fresco", "frésco", "di", "d'", "mare", "baccalà", "baccala", "pesce-spada",
+            "pesce", "spada", "kg", "1", "1,5", "n°", "  ", "€", "Ωmega", "ΣΟΦΙΑ" };
+
+    @Test
+    void normalizeMatchesOnEveryChar() {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            String s = "x" + (char) c + "Y " + (char) c;
+            assertEquals(TextUtils.slowNormalize(s), TextUtils.normalize(s), "char U+" + Integer.toHexString(c));
+        }
+    }
+
+    @Test
+    void normalizeMatchesOnRandomStrings() {
+        Random rnd = new Random(1);
+        for (int i = 0; i < 50_000; i++) {
+            String s = randomString(rnd, rnd.nextInt(40));
+            assertEquals(TextUtils.slowNormalize(s), TextUtils.normalize(s), () -> "input: " + escape(s));
+        }
+        assertEquals(TextUtils.slowNormalize(null), TextUtils.normalize(null));
+    }
+
+    @Test
+    void similarityMatchesOnRandomPairs() {
+        Random rnd = new Random(2);
+        for (int i = 0; i < 50_000; i++) {
+            String a = (i % 3 == 0) ? randomString(rnd, rnd.nextInt(20)) : randomPhrase(rnd);
+            String b = (i % 5 == 0) ? randomString(rnd, rnd.nextInt(20)) : randomPhrase(rnd);
+            assertEquals(TextUtils.slowSimilarity(a, b), TextUtils.similarity(a, b),
+                    () -> "a: " + escape(a) + " b: " + escape(b));
+        }
+        assertEquals(TextUtils.slowSimilarity(null, "orata"), TextUtils.similarity(null, "orata"));
+        assertEquals(TextUtils.slowSimilarity("orata", null), TextUtils.similarity("orata", null));
+        assertEquals(TextUtils.slowSimilarity(null, null), TextUtils.similarity(null, null));
+    }
+
+    @Test
+    void similarityMatchesOnLongInputs() {
+        Random rnd = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder a = new StringBuilder(), b = new StringBuilder();
+            for (int k = 0; k < 60; k++) {
+                a.append(WORDS[rnd.nextInt(WORDS.length)]).append(' ');
+                b.append(WORDS[rnd.nextInt(WORDS.length)]).append(' ');
+            }
+            assertEquals(TextUtils.slowSimilarity(a.toString(), b.toString()),
+                    TextUtils.similarity(a.toString(), b.toString()));
+        }
+    }
+
+    static String randomString(Random rnd, int len) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++)
+            sb.append(ALPHABET.charAt(rnd.nextInt(ALPHABET.length())));
+        return sb.toString();
+    }
+
+    static String randomPhrase(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int n = 1 + rnd.nextInt(4);
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                sb.append(rnd.nextInt(4) == 0 ? ", " : " ");
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : s.toCharArray())
+            sb.append(c < 128 && c >= 32 ? String.valueOf(c) : String.format("\\u%04X", (int) c));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package it.overzoom.ordinainchat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** L'indice deve dare lo stesso risultato della scansione lineare con similarity. */
+class TrigramIndexTest {
+
+    static final String[] SPECIES = { "orata", "spigola", "branzino", "salmone", "tonno", "pesce spada",
+            "gamberi", "gambero rosso", "scampi", "cozze", "vongole", "calamari", "seppie", "polpo", "alici",
+            "sarde", "sgombro", "merluzzo", "baccalà", "rombo", "sogliola", "triglie", "cernia", "dentice",
+            "ricciola", "ostriche", "astice", "aragosta", "totani", "moscardini", "razza", "palombo" };
+    static final String[] QUALIFIERS = { "", "fresco", "fresca", "surgelato", "decongelato", "di mare",
+            "d'allevamento", "selvaggio", "del Mediterraneo", "atlantico", "grande", "piccole", "sgusciati",
+            "in filetti", "a tranci", "pulito", "n. 1", "kg", "extra", "bio" };
+    static final String[] QUERIES = { "orata", "orate fresche", "spigola selvaggia", "branzino",
+            "salmone a tranci", "tonno", "pesce spada", "gamberi rossi", "gambero", "scampi", "cozze",
+            "vongole veraci", "calamaro", "seppia", "polipo", "alici fresche", "sarde", "sgombri",
+            "merluzzo", "baccala", "rombo", "sogliole", "triglia", "cernia", "dentici", "ricciola",
+            "ostrica", "astice blu", "aragosta", "totano", "moscardino", "razza", "palombo", "di", "a",
+            "kg", "mare", "sp", "ba", "", "???", "filetti di merluzzo", "tranci", "xyz", "pesce",
+            "gamberi sgusciati surgelati", "orata d allevamento", "orata di mare", "spigol", "almon" };
+
+    @Test
+    void sameResultAsLinearScan() {
+        Random rnd = new Random(42);
+        for (int size : new int[] { 1, 10, 200, 3000 }) {
+            List<String> names = catalog(rnd, size);
+            TrigramIndex index = TrigramIndex.build(names);
+            for (String q : queries(rnd)) {
+                for (double min : new double[] { 0.0, 0.4, 0.5, 0.75 }) {
+                    assertEquals(linear(names, q, min), index.bestMatch(q, min),
+                            () -> "size=" + size + " query='" + q + "' min=" + min);
+                }
+            }
+        }
+    }
+
+    @Test
+    void updateMatchesRebuild() {
+        Random rnd = new Random(9);
+        List<String> names = catalog(rnd, 800);
+        TrigramIndex index = TrigramIndex.build(names);
+        for (int round = 0; round < 5; round++) {
+            // toglie, cambia e inserisce nomi qua e là, come un delta del catalogo
+            List<String> next = new ArrayList<>();
+            List<Integer> from = new ArrayList<>();
+            for (int old = 0; old < names.size(); old++) {
+                int roll = rnd.nextInt(20);
+                if (roll == 0)
+                    continue;
+                if (roll == 1) {
+                    next.add(catalog(rnd, 1).get(0));
+                    from.add(-1);
+                } else {
+                    next.add(names.get(old));
+                    from.add(old);
+                }
+                if (rnd.nextInt(30) == 0) {
+                    next.add(rnd.nextInt(3) == 0 ? "Re" : catalog(rnd, 1).get(0));
+                    from.add(-1);
+                }
+            }
+            index = index.update(from.stream().mapToInt(Integer::intValue).toArray(), next);
+            names = next;
+            TrigramIndex rebuilt = TrigramIndex.build(names);
+            for (String q : queries(rnd))
+                for (double min : new double[] { 0.0, 0.4, 0.75 }) {
+                    int r = round;
+                    assertEquals(rebuilt.bestMatch(q, min), index.bestMatch(q, min),
+                            () -> "round=" + r + " query='" + q + "' min=" + min);
+                }
+        }
+    }
+
+    @Test
+    void shortNamesStillMatchBySubstring() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 500; i++)
+            names.add("prodotto numero " + i);
+        names.add("Re");
+        TrigramIndex index = TrigramIndex.build(names);
+        assertEquals(linear(names, "reti da pesca", 0.4), index.bestMatch("reti da pesca", 0.4));
+    }
+
+    // copia del ciclo di ProductCatalogService.getIdByNameFuzzy prima dell'indice
+    static int linear(List<String> names, String query, double minScore) {
+        double best = -1;
+        int bestOrd = -1;
+        for (int i = 0; i < names.size(); i++) {
+            double s = TextUtils.similarity(names.get(i), query);
+            if (s > best) {
+                best = s;
+                bestOrd = i;
+            }
+            if (s >= 0.999)
+                return i;
+        }
+        return (best >= minScore) ? bestOrd : -1;
+    }
+
+    static List<String> catalog(Random rnd, int size) {
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = SPECIES[rnd.nextInt(SPECIES.length)] + " " + QUALIFIERS[rnd.nextInt(QUALIFIERS.length)];
+            if (rnd.nextInt(4) == 0)
+                name += " " + QUALIFIERS[rnd.nextInt(QUALIFIERS.length)];
+            names.add(rnd.nextBoolean() ? name.toUpperCase() : name);
+        }
+        return names;
+    }
+
+    static List<String> queries(Random rnd) {
+        List<String> out = new ArrayList<>(List.of(QUERIES));
+        for (int i = 0; i < 50; i++)
+            out.add(SPECIES[rnd.nextInt(SPECIES.length)] + " " + QUALIFIERS[rnd.nextInt(QUALIFIERS.length)]);
+        return out;
+    }
+}